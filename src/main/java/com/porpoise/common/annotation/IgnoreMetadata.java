@@ -5,7 +5,11 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
-@Retention(RetentionPolicy.CLASS)
+/**
+ * Marks a property (its getter) or a type to be left out of metadata, e.g. skipped when diffing objects with a
+ * {@link com.porpoise.common.metadata.DiffEngine}. Retained at runtime so that it can be read reflectively.
+ */
+@Retention(RetentionPolicy.RUNTIME)
 @Target({ ElementType.METHOD, ElementType.TYPE })
 public @interface IgnoreMetadata {
 
@@ -1,14 +1,22 @@
 package com.porpoise.common.collect;
 
+import java.util.concurrent.Callable;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.porpoise.common.concurrent.PoolKind;
 
 /**
  * <p>
@@ -44,6 +52,17 @@ import com.google.common.base.Preconditions;
  * 
  * </p>
  * <p>
+ * Asynchronous work can instead be given a deadline via {@link #withDeadline(ListenableFuture, Object)} or
+ * {@link #submit(Executor, Callable, Object)}. The queue entry is removed as soon as the future completes, and should the
+ * future still be running once the deadline passes it will be cancelled (in addition to the timeout action being
+ * invoked):
+ * 
+ * <pre>
+ * ListenableFuture&lt;Reply&gt; reply = taskTimer.submit(pool, fetchReply, &quot;fetch reply&quot;);
+ * </pre>
+ * 
+ * </p>
+ * <p>
  * It is good practice to explicitly stop the expiry mechanism with a call to {@link #stop()} when it is no longer
  * needed, though it should not be strictly necessary
  * </p>
@@ -68,18 +87,58 @@ public class ExpiryViceroy<T> {
         @Override
         public void run() {
             while (ExpiryViceroy.this.running.get()) {
-                final DelayedImpl<T> expiredAction = ExpiryViceroy.this.taskQueue.poll();
+                final DelayedImpl<T> expiredAction;
+                try {
+                    expiredAction = ExpiryViceroy.this.taskQueue.take();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
                 if (ExpiryViceroy.this.running.get()) {
-                    if (expiredAction != null) {
-                        final T obj = expiredAction.getPayload();
-
-                        this.timeoutAction.onTimeout(obj);
+                    // a future may complete just as its deadline is taken, before its entry is removed
+                    if (expiredAction instanceof FutureDeadline<?> && !((FutureDeadline<?>) expiredAction).expire()) {
+                        continue;
                     }
+                    final T obj = expiredAction.getPayload();
+
+                    this.timeoutAction.onTimeout(obj);
                 }
             }
         }
     }
 
+    /**
+     * A queue entry which guards a {@link Future}. Should the entry expire then the future is cancelled.
+     * 
+     * Deadlines are compared by identity, so two futures started within the same millisecond with the same payload
+     * cannot remove each other's entries from the queue
+     */
+    private static final class FutureDeadline<T> extends DelayedImpl<T> {
+        private final Future<?> future;
+
+        FutureDeadline(final T payload, final Future<?> guarded, final long timeout, final TimeUnit unit) {
+            super(payload, timeout, unit);
+            this.future = Preconditions.checkNotNull(guarded, "future");
+        }
+
+        /**
+         * @return true if the future was cancelled, or false if it had already completed
+         */
+        boolean expire() {
+            return this.future.cancel(true);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return this == obj;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+    }
+
     /**
      * our queue of delayed tasks
      */
@@ -164,23 +223,50 @@ public class ExpiryViceroy<T> {
             final TimeUnit units) {
         final ExpiryViceroy<T> impl = new ExpiryViceroy<T>(timeoutAction, timeout, units);
 
-        startBackgroundExpiryTask(impl);
+        startBackgroundExpiryTask(impl, null);
 
         return impl;
     }
 
-    private static <T> void startBackgroundExpiryTask(final ExpiryViceroy<T> impl) {
-        final ThreadFactory factory = new ThreadFactory() {
+    /**
+     * @see #start(IExpiryAction, long, TimeUnit)
+     * @param <T>
+     * @param timeoutAction
+     *            The call-back which will be invoked when tasks take longer than a given amount of time to complete
+     * @param timeout
+     *            the default, positive time-out value. A task-specific time-out value may also be specified
+     * @param units
+     *            the non-null time units to apply to the timeout value
+     * @param kind
+     *            the kind of executor used to run the background expiry task, which blocks for its lifetime
+     * @return the new expiry object
+     */
+    public static <T> ExpiryViceroy<T> start(final IExpiryAction<T> timeoutAction, final long timeout,
+            final TimeUnit units, final PoolKind kind) {
+        final ExpiryViceroy<T> impl = new ExpiryViceroy<T>(timeoutAction, timeout, units);
 
-            @Override
-            public Thread newThread(final Runnable r) {
-                final Thread thread = new Thread(r);
-                thread.setDaemon(true);
-                thread.setName("task expiry manager");
-                return thread;
-            }
-        };
-        final ExecutorService pool = Executors.newSingleThreadExecutor(factory);
+        startBackgroundExpiryTask(impl, Preconditions.checkNotNull(kind));
+
+        return impl;
+    }
+
+    private static <T> void startBackgroundExpiryTask(final ExpiryViceroy<T> impl, final PoolKind kind) {
+        final ExecutorService pool;
+        if (kind == null) {
+            final ThreadFactory factory = new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r);
+                    thread.setDaemon(true);
+                    thread.setName("task expiry manager");
+                    return thread;
+                }
+            };
+            pool = Executors.newSingleThreadExecutor(factory);
+        } else {
+            pool = kind.newPool("task expiry manager", 1, 1);
+        }
         pool.submit(impl.task);
         pool.shutdown();
     }
@@ -231,4 +317,94 @@ public class ExpiryViceroy<T> {
         this.taskQueue.add(delayed);
         return delayed;
     }
+
+    /**
+     * Guard the given future with this viceroy's default timeout
+     * 
+     * @see #withDeadline(ListenableFuture, Object, long, TimeUnit)
+     * @param future
+     *            the future to guard
+     * @param payload
+     *            the payload passed to the timeout action should the future not complete in time
+     * @return the given future
+     */
+    public <V> ListenableFuture<V> withDeadline(final ListenableFuture<V> future, final T payload) {
+        return withDeadline(future, payload, this.timeout, this.units);
+    }
+
+    /**
+     * Guard the given future with a deadline. Once the future completes (successfully or not) its queue entry is
+     * removed, so there is no need to call {@link #onTaskComplete(Delayed)}. Should the deadline pass first, the future
+     * is cancelled (interrupting it if it is running) and the timeout action is notified with the given payload.
+     * 
+     * @param future
+     *            the future to guard
+     * @param payload
+     *            the payload passed to the timeout action should the future not complete in time
+     * @param timeoutValue
+     *            the time given to the future to complete
+     * @param unitsValue
+     *            the time unit applied to the time-out
+     * @return the given future, which will be cancelled should it not complete before the deadline
+     */
+    public <V> ListenableFuture<V> withDeadline(final ListenableFuture<V> future, final T payload,
+            final long timeoutValue, final TimeUnit unitsValue) {
+        final FutureDeadline<T> deadline = new FutureDeadline<T>(payload, future, timeoutValue, unitsValue);
+        this.taskQueue.add(deadline);
+        future.addListener(new Runnable() {
+            @SuppressWarnings("synthetic-access")
+            @Override
+            public void run() {
+                ExpiryViceroy.this.taskQueue.remove(deadline);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return future;
+    }
+
+    /**
+     * Execute the given callable with this viceroy's default timeout
+     * 
+     * @see #submit(Executor, Callable, Object, long, TimeUnit)
+     * @param executor
+     *            the executor used to run the callable
+     * @param callable
+     *            the work to run
+     * @param payload
+     *            the payload passed to the timeout action should the work not complete in time
+     * @return a future for the result of the callable
+     */
+    public <V> ListenableFuture<V> submit(final Executor executor, final Callable<V> callable, final T payload) {
+        return submit(executor, callable, payload, this.timeout, this.units);
+    }
+
+    /**
+     * Execute the given callable on the executor with a deadline. Should the callable not complete before the deadline
+     * the returned future is cancelled, interrupting the worker thread.
+     * 
+     * @param executor
+     *            the executor used to run the callable
+     * @param callable
+     *            the work to run
+     * @param payload
+     *            the payload passed to the timeout action should the work not complete in time
+     * @param timeoutValue
+     *            the time given to the callable to complete
+     * @param unitsValue
+     *            the time unit applied to the time-out
+     * @return a future for the result of the callable
+     */
+    public <V> ListenableFuture<V> submit(final Executor executor, final Callable<V> callable, final T payload,
+            final long timeoutValue, final TimeUnit unitsValue) {
+        Preconditions.checkNotNull(executor, "executor");
+        final ListenableFutureTask<V> task = ListenableFutureTask.create(callable);
+        withDeadline(task, payload, timeoutValue, unitsValue);
+        try {
+            executor.execute(task);
+        } catch (final RejectedExecutionException e) {
+            // cancelling the task removes its deadline from the queue
+            task.cancel(false);
+            throw e;
+        }
+        return task;
+    }
 }
@@ -1,17 +1,43 @@
 package com.porpoise.common.concurrent;
 
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
-import com.google.common.base.Function;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ComputationException;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.porpoise.common.log.Log;
 
 /**
- * Simple cache implementation which can use an optional expiration time and weak key/value references.
+ * Simple cache implementation which can use an optional expiration time, a maximum size or weight and weak/soft
+ * references, as described by a {@link CacheSpec}.
  * 
  * Should an object not exist in the cache, then its value will be computed via an internal call to
- * {@code #createValue(Object)}
+ * {@code #createValue(Object)}. Concurrent requests for a key which is being computed wait for (and share) the one
+ * computation. Values for several keys may be fetched together via {@link #getAll(Iterable)}, in which case missing
+ * values are computed in one batch by {@code #createValues(Set)}.
+ * 
+ * A {@link SecondLevelStore} (such as a {@link DiskStore}) may be placed beneath the cache, in which case evicted
+ * entries are spilled to the store and read back from it before computing a missing value.
+ * 
+ * Hits, misses, computations and evictions are recorded and available via {@link #stats()}, and may be exported over
+ * JMX via {@link #registerMBean(String)}.
  * 
  * @param <K>
  *            the cache key type
@@ -23,7 +49,24 @@ abstract class AbstractCache<K, T> {
 
     static final int DEFAULT_TIMEOUT = 10;
 
-    private final Map<K, T> cache;
+    private final ConcurrentMap<K, T> cache;
+
+    /** read-only view of the cache */
+    private final Map<K, T> view;
+
+    /** the optional store beneath the cache */
+    private final SecondLevelStore<K, T> secondLevel;
+
+    /** the time after which values written to the cache or store expire, or -1 if they don't */
+    private final long expireAfterWriteMillis;
+
+    /** computations currently in progress, by key */
+    private final ConcurrentMap<K, SettableFuture<T>> loading = Maps.newConcurrentMap();
+
+    private final CacheStatsCounter statsCounter = new CacheStatsCounter();
+
+    /** the name under which the statistics MBean is registered, if any */
+    private final AtomicReference<ObjectName> mbeanName = new AtomicReference<ObjectName>();
 
     /**
      * Default constructor, specifying a default key expiration
@@ -39,24 +82,79 @@ abstract class AbstractCache<K, T> {
      *            the time unit used for the key expiration. If null, no expiration will be set
      */
     public AbstractCache(final int expiration, final TimeUnit expirationTimeUnit) {
-        this(newMapBuilder(expiration, expirationTimeUnit));
+        this(newSpec(expiration, expirationTimeUnit));
     }
 
-    static MapMaker newMapBuilder(final int expiration, final TimeUnit expirationTimeUnit) {
-        final MapMaker builder = new MapMaker().concurrencyLevel(15).softKeys().weakValues();
+    /**
+     * @param expiration
+     *            the expiration used for map keys if the 'expirationTimeUnit' parameter is not null
+     * @param expirationTimeUnit
+     *            the time unit used for the key expiration. If null, no expiration will be set
+     * @return a specification for an unbounded cache with strong keys and values
+     */
+    static CacheSpec newSpec(final int expiration, final TimeUnit expirationTimeUnit) {
+        final CacheSpec spec = CacheSpec.newSpec();
         if (expirationTimeUnit != null) {
-            builder.expireAfterWrite(expiration, expirationTimeUnit);
+            spec.expireAfterWrite(expiration, expirationTimeUnit);
         }
-        return builder;
+        return spec;
     }
 
-    public AbstractCache(final MapMaker builder) {
-        this.cache = builder.makeComputingMap(new Function<K, T>() {
+    /**
+     * @param spec
+     *            the specification of the cache's size, expiry, concurrency and reference strength
+     */
+    public AbstractCache(final CacheSpec spec) {
+        this(spec, null);
+    }
+
+    /**
+     * Create a cache with a second level store beneath it. Entries evicted from the cache (other than those which
+     * expired) are written to the store, and are read back from it (rather than computed) when next requested. The
+     * cache is warmed with the store's entries on creation.
+     * 
+     * Entries keep the time they were first written as they move between the cache and the store, so expire at the
+     * same time wherever they are held. The exception is an unbounded cache, which restarts the expiry of entries
+     * read back from the store (its entries are only spilled by {@link #persist()}, so this happens once per restart).
+     * 
+     * @param spec
+     *            the specification of the cache's size, expiry, concurrency and reference strength
+     * @param store
+     *            the second level store, or null
+     */
+    public AbstractCache(final CacheSpec spec, final SecondLevelStore<K, T> store) {
+        this.secondLevel = store;
+        final long expireAfterWriteNanos = spec.getExpireAfterWriteNanos();
+        this.expireAfterWriteMillis = expireAfterWriteNanos == CacheSpec.UNSET ? -1 : TimeUnit.NANOSECONDS
+                .toMillis(expireAfterWriteNanos);
+        this.cache = spec.newMap(new EvictionListener<K, T>() {
+            @SuppressWarnings("synthetic-access")
             @Override
-            public T apply(final K key) {
-                return createValue(key);
+            public void onEviction(final K key, final T value, final long writeTimeMillis, final boolean expired) {
+                AbstractCache.this.statsCounter.recordEviction();
+                // expired entries are not spilled, or they would be read back rather than recomputed
+                if (!expired) {
+                    spill(key, value, writeTimeMillis);
+                }
             }
         });
+        this.view = Collections.unmodifiableMap(this.cache);
+        if (store != null) {
+            warm(spec.isBounded() && spec.getWeigher() == null ? spec.getMaximum() : Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Evictions from caches created from a {@link MapMaker} are not recorded in the cache's statistics
+     * 
+     * @param builder
+     *            the map maker used to create the cache's storage
+     */
+    public AbstractCache(final MapMaker builder) {
+        this.secondLevel = null;
+        this.expireAfterWriteMillis = -1;
+        this.cache = builder.makeMap();
+        this.view = Collections.unmodifiableMap(this.cache);
     }
 
     /**
@@ -72,14 +170,431 @@ abstract class AbstractCache<K, T> {
      * @return the value for a given key
      */
     public T get(final K key) {
-        return this.cache.get(key);
+        Preconditions.checkNotNull(key);
+        final T value = this.cache.get(key);
+        if (value != null) {
+            this.statsCounter.recordHit();
+            return value;
+        }
+        this.statsCounter.recordMiss();
+        return load(key);
+    }
+
+    /**
+     * compute the value for the given key, or wait for the computation already in progress
+     */
+    private T load(final K key) {
+        final SettableFuture<T> future = SettableFuture.create();
+        final SettableFuture<T> inFlight = this.loading.putIfAbsent(key, future);
+        if (inFlight != null) {
+            return waitFor(inFlight);
+        }
+        try {
+            // another thread may have completed the computation since we last looked
+            T value = this.cache.get(key);
+            if (value == null) {
+                final StoredValue<T> stored = readSecondLevel(key);
+                if (stored == null) {
+                    value = createAndRecord(key);
+                    this.cache.put(key, value);
+                } else {
+                    value = stored.getValue();
+                    restore(key, stored, false);
+                }
+            }
+            future.set(value);
+            return value;
+        } catch (final RuntimeException e) {
+            future.setException(e);
+            throw new ComputationException(e);
+        } catch (final Error e) {
+            future.setException(e);
+            throw e;
+        } finally {
+            this.loading.remove(key, future);
+        }
+    }
+
+    private T createAndRecord(final K key) {
+        final long start = startLoad();
+        boolean success = false;
+        try {
+            final T value = createValue(key);
+            if (value == null) {
+                throw new NullPointerException(String.format("no value was created for '%s'", key));
+            }
+            success = true;
+            return value;
+        } finally {
+            endLoad(start, success);
+        }
+    }
+
+    /**
+     * @param keys
+     *            the keys to items in the cache
+     * @return the values for the given keys, in the order of the given keys. Values for keys which are not in the
+     *         cache are computed via a single call to {@link #createValues(Set)}
+     */
+    public Map<K, T> getAll(final Iterable<? extends K> keys) {
+        final Map<K, T> result = Maps.newLinkedHashMap();
+        final Set<K> missing = Sets.newLinkedHashSet();
+        for (final K key : keys) {
+            Preconditions.checkNotNull(key);
+            if (result.containsKey(key)) {
+                continue;
+            }
+            final T value = this.cache.get(key);
+            if (value == null) {
+                this.statsCounter.recordMiss();
+                missing.add(key);
+                // reserve the key's position in the result
+                result.put(key, null);
+            } else {
+                this.statsCounter.recordHit();
+                result.put(key, value);
+            }
+        }
+        if (!missing.isEmpty()) {
+            result.putAll(loadAll(missing));
+        }
+        return ImmutableMap.copyOf(result);
+    }
+
+    /**
+     * compute the values for the given keys in one batch, waiting for any computations already in progress
+     */
+    private Map<K, T> loadAll(final Set<K> keys) {
+        final Map<K, SettableFuture<T>> owned = Maps.newLinkedHashMap();
+        final Map<K, SettableFuture<T>> waiting = Maps.newLinkedHashMap();
+        for (final K key : keys) {
+            final SettableFuture<T> future = SettableFuture.create();
+            final SettableFuture<T> inFlight = this.loading.putIfAbsent(key, future);
+            if (inFlight == null) {
+                owned.put(key, future);
+            } else {
+                waiting.put(key, inFlight);
+            }
+        }
+
+        final Map<K, T> result = Maps.newHashMapWithExpectedSize(keys.size());
+        try {
+            // another thread may have completed some computations since we last looked
+            final Set<K> toLoad = Sets.newLinkedHashSet();
+            for (final Map.Entry<K, SettableFuture<T>> entry : owned.entrySet()) {
+                T value = this.cache.get(entry.getKey());
+                if (value == null) {
+                    final StoredValue<T> stored = readSecondLevel(entry.getKey());
+                    if (stored != null) {
+                        value = stored.getValue();
+                        restore(entry.getKey(), stored, false);
+                    }
+                }
+                if (value == null) {
+                    toLoad.add(entry.getKey());
+                } else {
+                    entry.getValue().set(value);
+                    result.put(entry.getKey(), value);
+                }
+            }
+            if (!toLoad.isEmpty()) {
+                final Map<K, T> loaded = createAllAndRecord(toLoad);
+                for (final K key : toLoad) {
+                    final T value = loaded.get(key);
+                    this.cache.put(key, value);
+                    owned.get(key).set(value);
+                    result.put(key, value);
+                }
+            }
+        } catch (final RuntimeException e) {
+            setException(owned.values(), e);
+            throw new ComputationException(e);
+        } catch (final Error e) {
+            setException(owned.values(), e);
+            throw e;
+        } finally {
+            for (final Map.Entry<K, SettableFuture<T>> entry : owned.entrySet()) {
+                this.loading.remove(entry.getKey(), entry.getValue());
+            }
+        }
+
+        for (final Map.Entry<K, SettableFuture<T>> entry : waiting.entrySet()) {
+            result.put(entry.getKey(), waitFor(entry.getValue()));
+        }
+        return result;
+    }
+
+    private Map<K, T> createAllAndRecord(final Set<K> keys) {
+        final long start = startLoad();
+        boolean success = false;
+        try {
+            final Map<K, T> values = createValues(Collections.unmodifiableSet(keys));
+            for (final K key : keys) {
+                if (values.get(key) == null) {
+                    throw new NullPointerException(String.format("no value was created for '%s'", key));
+                }
+            }
+            success = true;
+            return values;
+        } finally {
+            endLoad(start, success);
+        }
+    }
+
+    private static <T> void setException(final Iterable<SettableFuture<T>> futures, final Throwable e) {
+        for (final SettableFuture<T> future : futures) {
+            future.setException(e);
+        }
+    }
+
+    /**
+     * Compute the values for several keys at once. The default implementation calls {@link #createValue(Object)} for
+     * each key; subclasses which can fetch values more efficiently in bulk should override it.
+     * 
+     * @param keys
+     *            referenced keys for which no value was given
+     * @return a map containing a value for every given key
+     */
+    protected Map<K, T> createValues(final Set<K> keys) {
+        final Map<K, T> values = Maps.newHashMapWithExpectedSize(keys.size());
+        for (final K key : keys) {
+            values.put(key, createValue(key));
+        }
+        return values;
+    }
+
+    /**
+     * @return the time at which the load started
+     */
+    private long startLoad() {
+        if (recordsLoads()) {
+            this.statsCounter.recordLoadStart();
+        }
+        return System.nanoTime();
+    }
+
+    private void endLoad(final long start, final boolean success) {
+        if (recordsLoads()) {
+            final long duration = System.nanoTime() - start;
+            if (success) {
+                this.statsCounter.recordLoadSuccess(duration);
+            } else {
+                this.statsCounter.recordLoadFailure(duration);
+            }
+        }
+    }
+
+    /**
+     * Subclasses whose {@link #createValue(Object)} only starts a computation (rather than computing the value) should
+     * return false, and record the computation themselves via {@link #statsCounter()}
+     * 
+     * @return true if calls to {@link #createValue(Object)} should be recorded as computations
+     */
+    boolean recordsLoads() {
+        return true;
+    }
+
+    /**
+     * @return the number of computations waiting to be run. Values are computed by the calling thread by default, so
+     *         none are ever waiting
+     */
+    int loadQueueDepth() {
+        return 0;
+    }
+
+    /**
+     * write the given value again, restarting its expiry, if the key is still mapped to it
+     * 
+     * @return true if the entry was rewritten
+     */
+    final boolean rewrite(final K key, final T value) {
+        return this.cache.replace(key, value, value);
+    }
+
+    /**
+     * @return the counter used to record the statistics of this cache
+     */
+    final CacheStatsCounter statsCounter() {
+        return this.statsCounter;
+    }
+
+    private static <T> T waitFor(final SettableFuture<T> inFlight) {
+        try {
+            return Uninterruptibles.getUninterruptibly(inFlight);
+        } catch (final ExecutionException e) {
+            throw new ComputationException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the value held for the given key in the second level store, or null if there is none or it has expired
+     */
+    private StoredValue<T> readSecondLevel(final K key) {
+        if (this.secondLevel == null) {
+            return null;
+        }
+        try {
+            final StoredValue<T> stored = this.secondLevel.getStored(key);
+            if (stored != null && this.expireAfterWriteMillis >= 0
+                    && System.currentTimeMillis() - stored.getWriteTime() >= this.expireAfterWriteMillis) {
+                this.secondLevel.remove(key);
+                return null;
+            }
+            return stored;
+        } catch (final RuntimeException e) {
+            Log.warn("Couldn't read '%s' from %s: %s", key, this.secondLevel, e);
+            return null;
+        }
+    }
+
+    /**
+     * put a value read back from the second level store into the cache, keeping its original write time where the
+     * cache's map allows
+     * 
+     * @return the previous value, or null
+     */
+    private T restore(final K key, final StoredValue<T> stored, final boolean onlyIfAbsent) {
+        if (this.cache instanceof BoundedMap<?, ?>) {
+            return ((BoundedMap<K, T>) this.cache).restore(key, stored.getValue(), stored.getWriteTime(),
+                    onlyIfAbsent);
+        }
+        return onlyIfAbsent ? this.cache.putIfAbsent(key, stored.getValue()) : this.cache.put(key, stored.getValue());
+    }
+
+    /**
+     * write an evicted entry to the second level store
+     */
+    private void spill(final K key, final T value, final long writeTimeMillis) {
+        if (this.secondLevel != null && value != null) {
+            try {
+                this.secondLevel.put(key, value, writeTimeMillis);
+            } catch (final RuntimeException e) {
+                Log.warn("Couldn't write '%s' to %s: %s", key, this.secondLevel, e);
+            }
+        }
+    }
+
+    /**
+     * load up to the given number of entries from the second level store into the cache
+     */
+    private void warm(final long limit) {
+        long loaded = 0;
+        for (final K key : this.secondLevel.keys()) {
+            if (loaded >= limit) {
+                break;
+            }
+            final StoredValue<T> stored = readSecondLevel(key);
+            if (stored != null && restore(key, stored, true) == null) {
+                loaded++;
+            }
+        }
+        Log.debug("Warmed cache with %d entries from %s", Long.valueOf(loaded), this.secondLevel);
+    }
+
+    /**
+     * Write every entry in the cache to the second level store, so that they can be reloaded after a restart. Does
+     * nothing if the cache has no second level store.
+     */
+    public void persist() {
+        if (this.secondLevel != null) {
+            for (final Map.Entry<K, T> entry : this.cache.entrySet()) {
+                spill(entry.getKey(), entry.getValue(), writeTime(entry.getKey()));
+            }
+        }
+    }
+
+    /**
+     * @return the time the given key's entry was written, in milliseconds since the epoch, or now if that is unknown
+     */
+    private long writeTime(final K key) {
+        if (this.cache instanceof BoundedMap<?, ?>) {
+            final long writeTime = ((BoundedMap<K, T>) this.cache).getWriteTime(key);
+            if (writeTime >= 0) {
+                return writeTime;
+            }
+        }
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return the approximate number of entries in the cache
+     */
+    public long size() {
+        return this.cache.size();
+    }
+
+    /**
+     * @return a snapshot of the cache's statistics
+     */
+    public CacheStatistics stats() {
+        return this.statsCounter.snapshot();
+    }
+
+    /**
+     * Export this cache's statistics over JMX as a {@link CacheStatisticsMXBean}, registered with the platform MBean
+     * server as {@code com.porpoise.common.concurrent:type=Cache,name=<name>}
+     * 
+     * @param name
+     *            the name under which to register the statistics
+     * @return the object name of the registered bean
+     */
+    public ObjectName registerMBean(final String name) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName objectName = new ObjectName(String.format("%s:type=Cache,name=%s", getClass()
+                    .getPackage().getName(), ObjectName.quote(name)));
+            server.registerMBean(new StandardMBean(new CacheStatisticsBean(this), CacheStatisticsMXBean.class, true),
+                    objectName);
+            final ObjectName previous = this.mbeanName.getAndSet(objectName);
+            if (previous != null) {
+                server.unregisterMBean(previous);
+            }
+            return objectName;
+        } catch (final JMException e) {
+            throw new IllegalStateException(String.format("Couldn't register cache statistics as '%s'", name), e);
+        }
+    }
+
+    /**
+     * unregister the statistics bean registered by {@link #registerMBean(String)}, if any
+     */
+    public void unregisterMBean() {
+        final ObjectName objectName = this.mbeanName.getAndSet(null);
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (final JMException e) {
+                Log.warn("Couldn't unregister cache statistics '%s': %s", objectName, e);
+            }
+        }
+    }
+
+    /**
+     * @param key
+     *            the key to an item in the cache
+     * @return the value for the given key, or null if it is not cached. Missing values are not computed
+     */
+    public T getIfPresent(final K key) {
+        Preconditions.checkNotNull(key);
+        final T value = this.cache.get(key);
+        if (value == null) {
+            this.statsCounter.recordMiss();
+        } else {
+            this.statsCounter.recordHit();
+        }
+        return value;
     }
 
     /**
-     * @return a copy of the current cache as a map
+     * The returned map is a live, read-only view of the cache rather than a copy. Reads through the view never compute
+     * missing values, and are not recorded in the cache's statistics. Its iterators are weakly consistent: they never
+     * throw {@link java.util.ConcurrentModificationException}, and may or may not reflect changes made after they were
+     * created.
+     * 
+     * @return an unmodifiable view of the current cache as a map
      */
     public Map<K, T> asMap() {
-        return Maps.newHashMap(this.cache);
+        return this.view;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,933 @@
+package com.porpoise.common.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Ticker;
+import com.porpoise.common.log.Log;
+
+/**
+ * A {@link ConcurrentMap} bounded by the number (or total weight) of its entries, used as the storage for size-bounded
+ * {@link AbstractCache}s.
+ * 
+ * Entries are evicted using the W-TinyLFU policy: new entries are admitted to a small LRU 'window'. Entries which fall
+ * out of the window become candidates for the main space (a segmented LRU of 'probation' and 'protected' entries), and
+ * are only admitted if they have been used more often than the entry they would replace, as estimated by a
+ * {@link FrequencySketch}. This keeps popular entries in the cache in the face of scans of one-off keys.
+ * 
+ * Reads are lock-free: accesses are recorded in small, striped, lossy buffers and replayed against the eviction policy
+ * under a lock by whichever thread next finds the lock free. Writes are applied to the underlying map directly, then
+ * queued and replayed against the policy in the order in which they were made, again by whichever thread finds the lock
+ * free. Writers only wait for the lock should the queue of writes grow too long. Expired entries are removed as the
+ * policy is maintained, in the order in which they were written.
+ * 
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ */
+final class BoundedMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+
+    /** the proportion of the maximum given over to the admission window */
+    private static final double WINDOW_PERCENTAGE = 0.01;
+
+    /** the proportion of the main space given over to protected entries */
+    private static final double PROTECTED_PERCENTAGE = 0.8;
+
+    private static final int READ_BUFFER_STRIPES = 4;
+
+    private static final int READ_BUFFER_SIZE = 32;
+
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = 16;
+
+    /** the number of writes waiting to be replayed beyond which writers wait for the eviction lock */
+    private static final int WRITE_BUFFER_MAXIMUM = 128;
+
+    private static final int NONE = 0;
+
+    private static final int WINDOW = 1;
+
+    private static final int PROBATION = 2;
+
+    private static final int PROTECTED = 3;
+
+    /**
+     * A map entry. The value is updated in place, so a key's node is only replaced once it has been removed.
+     */
+    static final class Node<K, V> {
+        final K key;
+
+        volatile V value;
+
+        volatile int weight;
+
+        volatile long writeTime;
+
+        /** false once the node has been removed from the map. Only updated whilst holding the node's monitor */
+        volatile boolean alive = true;
+
+        // the remaining fields are guarded by the eviction lock
+
+        Node<K, V> prev;
+
+        Node<K, V> next;
+
+        int queue = NONE;
+
+        int policyWeight;
+
+        Node<K, V> prevInWriteOrder;
+
+        Node<K, V> nextInWriteOrder;
+
+        Node(final K k, final V v, final int w, final long now) {
+            this.key = k;
+            this.value = v;
+            this.weight = w;
+            this.writeTime = now;
+        }
+    }
+
+    /**
+     * A doubly-linked list threaded through the nodes themselves, used to keep the window, probation and protected
+     * segments in access order, and the nodes of an expiring map in write order
+     */
+    private static final class NodeDeque<K, V> {
+        /** true if the deque is threaded through the nodes' write order links, rather than their access order ones */
+        private final boolean writeOrder;
+
+        private Node<K, V> first;
+
+        private Node<K, V> last;
+
+        NodeDeque(final boolean inWriteOrder) {
+            this.writeOrder = inWriteOrder;
+        }
+
+        private Node<K, V> prev(final Node<K, V> node) {
+            return this.writeOrder ? node.prevInWriteOrder : node.prev;
+        }
+
+        private Node<K, V> next(final Node<K, V> node) {
+            return this.writeOrder ? node.nextInWriteOrder : node.next;
+        }
+
+        private void setPrev(final Node<K, V> node, final Node<K, V> prev) {
+            if (this.writeOrder) {
+                node.prevInWriteOrder = prev;
+            } else {
+                node.prev = prev;
+            }
+        }
+
+        private void setNext(final Node<K, V> node, final Node<K, V> next) {
+            if (this.writeOrder) {
+                node.nextInWriteOrder = next;
+            } else {
+                node.next = next;
+            }
+        }
+
+        Node<K, V> peekFirst() {
+            return this.first;
+        }
+
+        void addLast(final Node<K, V> node) {
+            setPrev(node, this.last);
+            setNext(node, null);
+            if (this.last == null) {
+                this.first = node;
+            } else {
+                setNext(this.last, node);
+            }
+            this.last = node;
+        }
+
+        void remove(final Node<K, V> node) {
+            final Node<K, V> prev = prev(node);
+            final Node<K, V> next = next(node);
+            if (prev == null) {
+                this.first = next;
+            } else {
+                setNext(prev, next);
+            }
+            if (next == null) {
+                this.last = prev;
+            } else {
+                setPrev(next, prev);
+            }
+            setPrev(node, null);
+            setNext(node, null);
+        }
+
+        void moveToBack(final Node<K, V> node) {
+            if (node != this.last) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        /**
+         * add a node to a write order deque behind every node written no later than it. This is nearly always the
+         * back, other than for entries restored with their original write time
+         */
+        void addInWriteOrder(final Node<K, V> node) {
+            Node<K, V> before = this.last;
+            while (before != null && before.writeTime - node.writeTime > 0) {
+                before = prev(before);
+            }
+            if (before == this.last) {
+                addLast(node);
+                return;
+            }
+            final Node<K, V> after = before == null ? this.first : next(before);
+            setPrev(node, before);
+            setNext(node, after);
+            setPrev(after, node);
+            if (before == null) {
+                this.first = node;
+            } else {
+                setNext(before, node);
+            }
+        }
+    }
+
+    /**
+     * A fixed size ring buffer of reads. Should the buffer be full (or contended) the read is simply dropped, as the
+     * policy only needs an approximate picture of which entries are popular.
+     */
+    private static final class ReadBuffer<E> {
+        private final AtomicLong writeCounter = new AtomicLong();
+
+        private final AtomicReferenceArray<E> buffer = new AtomicReferenceArray<E>(READ_BUFFER_SIZE);
+
+        /** only updated whilst holding the eviction lock */
+        private volatile long readCounter;
+
+        /**
+         * @return the number of pending reads, or -1 if the read was dropped
+         */
+        int offer(final E element) {
+            final long tail = this.writeCounter.get();
+            final long pending = tail - this.readCounter;
+            if (pending >= READ_BUFFER_SIZE) {
+                return -1;
+            }
+            if (this.writeCounter.compareAndSet(tail, tail + 1)) {
+                this.buffer.lazySet((int) (tail & READ_BUFFER_MASK), element);
+                return (int) pending + 1;
+            }
+            return -1;
+        }
+    }
+
+    private final ConcurrentMap<K, Node<K, V>> data;
+
+    private final Weigher<? super K, ? super V> weigher;
+
+    private final long expireAfterWriteNanos;
+
+    private final Ticker ticker = Ticker.systemTicker();
+
+    private final Lock evictionLock = new ReentrantLock();
+
+    private final Queue<Runnable> writeBuffer = new ConcurrentLinkedQueue<Runnable>();
+
+    /** the number of writes in the write buffer, as the buffer's own size is not constant time */
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+
+    private final ReadBuffer<Node<K, V>>[] readBuffers;
+
+    /** an optional listener notified of evictions, outside of the eviction lock */
+    private final EvictionListener<? super K, ? super V> evictionListener;
+
+    private final Queue<Node<K, V>> pendingEvictions = new ConcurrentLinkedQueue<Node<K, V>>();
+
+    // the fields below are guarded by the eviction lock
+
+    private final FrequencySketch sketch;
+
+    private final NodeDeque<K, V> window = new NodeDeque<K, V>(false);
+
+    private final NodeDeque<K, V> probation = new NodeDeque<K, V>(false);
+
+    private final NodeDeque<K, V> protectedSegment = new NodeDeque<K, V>(false);
+
+    /** every node linked into the policy, in write order. Only maintained if entries expire */
+    private final NodeDeque<K, V> writeOrder = new NodeDeque<K, V>(true);
+
+    private final long maximum;
+
+    private final long windowMaximum;
+
+    private final long protectedMaximum;
+
+    private long weightedSize;
+
+    private long windowWeightedSize;
+
+    private long protectedWeightedSize;
+
+    @SuppressWarnings("unchecked")
+    BoundedMap(final CacheSpec spec, final EvictionListener<? super K, ? super V> listener) {
+        checkArgument(spec.isBounded(), "%s is not bounded", spec);
+        this.evictionListener = listener;
+        this.data = new ConcurrentHashMap<K, Node<K, V>>(spec.getInitialCapacity(), 0.75f,
+                spec.getConcurrencyLevel());
+        this.weigher = spec.<K, V> getWeigher();
+        this.expireAfterWriteNanos = spec.getExpireAfterWriteNanos();
+
+        this.maximum = spec.getMaximum();
+        this.windowMaximum = this.maximum - (long) ((1 - WINDOW_PERCENTAGE) * this.maximum);
+        this.protectedMaximum = (long) (PROTECTED_PERCENTAGE * (this.maximum - this.windowMaximum));
+        this.sketch = new FrequencySketch(Math.min(this.maximum, spec.getInitialCapacity()));
+
+        this.readBuffers = newReadBuffers(READ_BUFFER_STRIPES);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> ReadBuffer<E>[] newReadBuffers(final int stripes) {
+        final ReadBuffer<E>[] buffers = (ReadBuffer<E>[]) new ReadBuffer<?>[stripes];
+        for (int i = 0; i < stripes; i++) {
+            buffers[i] = new ReadBuffer<E>();
+        }
+        return buffers;
+    }
+
+    private int weigh(final K key, final V value) {
+        if (this.weigher == null) {
+            return 1;
+        }
+        final int weight = this.weigher.weigh(key, value);
+        checkArgument(weight >= 0, "negative weight %s for '%s'", Integer.valueOf(weight), key);
+        return weight;
+    }
+
+    private boolean hasExpired(final Node<K, V> node, final long now) {
+        return this.expireAfterWriteNanos != CacheSpec.UNSET && now - node.writeTime >= this.expireAfterWriteNanos;
+    }
+
+    @Override
+    public V get(final Object key) {
+        final Node<K, V> node = this.data.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (hasExpired(node, this.ticker.read())) {
+            final V expired = removeNode(node, null);
+            if (expired != null && this.evictionListener != null) {
+                notifyEviction(node.key, expired, node.writeTime, true);
+            }
+            return null;
+        }
+        final V value = node.value;
+        afterRead(node);
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        final Node<K, V> node = this.data.get(key);
+        return node != null && !hasExpired(node, this.ticker.read());
+    }
+
+    /**
+     * Removes any expired entries first, unless another thread is maintaining the map
+     */
+    @Override
+    public int size() {
+        tryMaintenance();
+        return this.data.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        tryMaintenance();
+        return this.data.isEmpty();
+    }
+
+    @Override
+    public V put(final K key, final V value) {
+        return put(key, value, false, this.ticker.read());
+    }
+
+    @Override
+    public V putIfAbsent(final K key, final V value) {
+        return put(key, value, true, this.ticker.read());
+    }
+
+    /**
+     * Put an entry which was written earlier (such as one read back from a second level store), so that it expires
+     * as if it had never left the map
+     * 
+     * @param writeTimeMillis
+     *            the time the entry was originally written, in milliseconds since the epoch
+     * @return the previous value, or null
+     */
+    V restore(final K key, final V value, final long writeTimeMillis, final boolean onlyIfAbsent) {
+        return put(key, value, onlyIfAbsent, toTicker(writeTimeMillis));
+    }
+
+    /**
+     * @return the time the given key's entry was written, in milliseconds since the epoch, or -1 if it is absent
+     */
+    long getWriteTime(final Object key) {
+        final Node<K, V> node = this.data.get(key);
+        return node == null ? -1 : toMillis(node.writeTime);
+    }
+
+    private long toMillis(final long tickerTime) {
+        return System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(this.ticker.read() - tickerTime);
+    }
+
+    private long toTicker(final long millis) {
+        return this.ticker.read() - TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - millis);
+    }
+
+    private V put(final K key, final V value, final boolean onlyIfAbsent, final long writeTime) {
+        checkNotNull(key);
+        checkNotNull(value);
+        final int weight = weigh(key, value);
+        final long now = this.ticker.read();
+        Node<K, V> node = null;
+        for (;;) {
+            final Node<K, V> prior = this.data.get(key);
+            if (prior == null) {
+                if (node == null) {
+                    node = new Node<K, V>(key, value, weight, writeTime);
+                }
+                if (this.data.putIfAbsent(key, node) == null) {
+                    afterWrite(new AddTask(node));
+                    return null;
+                }
+                continue;
+            }
+
+            final V oldValue;
+            synchronized (prior) {
+                if (!prior.alive) {
+                    continue;
+                }
+                final boolean expired = hasExpired(prior, now);
+                oldValue = expired ? null : prior.value;
+                if (!onlyIfAbsent || expired) {
+                    prior.value = value;
+                    prior.weight = weight;
+                    prior.writeTime = writeTime;
+                }
+            }
+            if (onlyIfAbsent && oldValue != null) {
+                afterRead(prior);
+            } else {
+                afterWrite(new UpdateTask(prior));
+            }
+            return oldValue;
+        }
+    }
+
+    @Override
+    public V replace(final K key, final V value) {
+        checkNotNull(value);
+        final Node<K, V> node = this.data.get(key);
+        if (node == null) {
+            return null;
+        }
+        final int weight = weigh(key, value);
+        final long now = this.ticker.read();
+        final V oldValue;
+        synchronized (node) {
+            if (!node.alive || hasExpired(node, now)) {
+                return null;
+            }
+            oldValue = node.value;
+            node.value = value;
+            node.weight = weight;
+            node.writeTime = now;
+        }
+        afterWrite(new UpdateTask(node));
+        return oldValue;
+    }
+
+    @Override
+    public boolean replace(final K key, final V oldValue, final V newValue) {
+        checkNotNull(newValue);
+        final Node<K, V> node = this.data.get(key);
+        if (node == null) {
+            return false;
+        }
+        final int weight = weigh(key, newValue);
+        final long now = this.ticker.read();
+        synchronized (node) {
+            if (!node.alive || hasExpired(node, now) || !node.value.equals(oldValue)) {
+                return false;
+            }
+            node.value = newValue;
+            node.weight = weight;
+            node.writeTime = now;
+        }
+        afterWrite(new UpdateTask(node));
+        return true;
+    }
+
+    @Override
+    public V remove(final Object key) {
+        final Node<K, V> node = this.data.get(key);
+        if (node == null) {
+            return null;
+        }
+        return removeNode(node, null);
+    }
+
+    @Override
+    public boolean remove(final Object key, final Object value) {
+        final Node<K, V> node = this.data.get(key);
+        if (node == null || value == null) {
+            return false;
+        }
+        return removeNode(node, value) != null;
+    }
+
+    /**
+     * @param node
+     *            the node to remove
+     * @param expectedValue
+     *            the value the node is expected to hold, or null to remove the node regardless of its value
+     * @return the removed value, or null if the node was not removed
+     */
+    private V removeNode(final Node<K, V> node, final Object expectedValue) {
+        final V oldValue;
+        synchronized (node) {
+            if (!node.alive || (expectedValue != null && !Objects.equal(node.value, expectedValue))) {
+                return null;
+            }
+            oldValue = node.value;
+            node.alive = false;
+            this.data.remove(node.key, node);
+        }
+        afterWrite(new RemovalTask(node));
+        return oldValue;
+    }
+
+    @Override
+    public void clear() {
+        for (final Node<K, V> node : this.data.values()) {
+            removeNode(node, null);
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new EntrySet();
+    }
+
+    private void afterRead(final Node<K, V> node) {
+        final long threadId = Thread.currentThread().getId();
+        final int stripe = (int) (threadId ^ (threadId >>> 16)) & (READ_BUFFER_STRIPES - 1);
+        final int pending = this.readBuffers[stripe].offer(node);
+        if (pending < 0 || pending >= READ_BUFFER_DRAIN_THRESHOLD) {
+            tryMaintenance();
+        }
+    }
+
+    private void afterWrite(final Runnable task) {
+        this.writeBuffer.add(task);
+        if (this.pendingWrites.incrementAndGet() > WRITE_BUFFER_MAXIMUM) {
+            // the writes are outpacing the thread maintaining the policy, so wait for it
+            this.evictionLock.lock();
+            try {
+                maintenance();
+            } finally {
+                this.evictionLock.unlock();
+            }
+        }
+        tryMaintenance();
+    }
+
+    /**
+     * maintain the policy unless another thread holds the eviction lock. A write buffered whilst the lock was held is
+     * seen once the holder has released it, so the holder (or the next thread to take the lock) replays it
+     */
+    private void tryMaintenance() {
+        while (this.evictionLock.tryLock()) {
+            try {
+                maintenance();
+            } finally {
+                this.evictionLock.unlock();
+            }
+            if (this.writeBuffer.isEmpty()) {
+                break;
+            }
+        }
+        notifyEvictions();
+    }
+
+    private void notifyEvictions() {
+        final long now = this.ticker.read();
+        Node<K, V> evicted;
+        while ((evicted = this.pendingEvictions.poll()) != null) {
+            // the victim of a size eviction may also have expired
+            notifyEviction(evicted.key, evicted.value, evicted.writeTime, hasExpired(evicted, now));
+        }
+    }
+
+    private void notifyEviction(final K key, final V value, final long writeTime, final boolean expired) {
+        try {
+            this.evictionListener.onEviction(key, value, toMillis(writeTime), expired);
+        } catch (final RuntimeException e) {
+            Log.error(String.format("eviction listener threw on evicting '%s'", key), e);
+        }
+    }
+
+    /**
+     * replay the buffered reads and writes against the policy, then evict any entries over the maximum. Must be called
+     * whilst holding the eviction lock
+     */
+    private void maintenance() {
+        drainReadBuffers();
+        drainWriteBuffer();
+        expire();
+        evict();
+    }
+
+    private void drainReadBuffers() {
+        for (final ReadBuffer<Node<K, V>> readBuffer : this.readBuffers) {
+            long head = readBuffer.readCounter;
+            final long tail = readBuffer.writeCounter.get();
+            for (; head < tail; head++) {
+                final int index = (int) (head & READ_BUFFER_MASK);
+                final Node<K, V> node = readBuffer.buffer.get(index);
+                if (node == null) {
+                    // the slot has been claimed, but the read not yet published
+                    break;
+                }
+                readBuffer.buffer.lazySet(index, null);
+                onAccess(node);
+            }
+            readBuffer.readCounter = head;
+        }
+    }
+
+    private void drainWriteBuffer() {
+        Runnable task;
+        while ((task = this.writeBuffer.poll()) != null) {
+            this.pendingWrites.decrementAndGet();
+            task.run();
+        }
+    }
+
+    /**
+     * remove the expired entries, oldest first, so that they neither count towards the maximum nor displace live ones
+     */
+    private void expire() {
+        if (this.expireAfterWriteNanos == CacheSpec.UNSET) {
+            return;
+        }
+        final long now = this.ticker.read();
+        Node<K, V> node;
+        while ((node = this.writeOrder.peekFirst()) != null && hasExpired(node, now)) {
+            final boolean rewritten;
+            synchronized (node) {
+                rewritten = node.alive && !hasExpired(node, now);
+                if (node.alive && !rewritten) {
+                    node.alive = false;
+                    this.data.remove(node.key, node);
+                    if (this.evictionListener != null) {
+                        this.pendingEvictions.add(node);
+                    }
+                }
+            }
+            if (rewritten) {
+                // written again since we looked, so its update is yet to be replayed
+                this.writeOrder.moveToBack(node);
+            } else {
+                unlink(node);
+            }
+        }
+    }
+
+    private void onAccess(final Node<K, V> node) {
+        this.sketch.increment(node.key);
+        switch (node.queue) {
+        case WINDOW:
+            this.window.moveToBack(node);
+            break;
+        case PROBATION:
+            this.probation.remove(node);
+            this.protectedSegment.addLast(node);
+            node.queue = PROTECTED;
+            this.protectedWeightedSize += node.policyWeight;
+            demoteFromProtected();
+            break;
+        case PROTECTED:
+            this.protectedSegment.moveToBack(node);
+            break;
+        default:
+            // not yet added, or already removed
+        }
+    }
+
+    private void demoteFromProtected() {
+        while (this.protectedWeightedSize > this.protectedMaximum) {
+            final Node<K, V> demoted = this.protectedSegment.peekFirst();
+            if (demoted == null) {
+                break;
+            }
+            this.protectedSegment.remove(demoted);
+            this.protectedWeightedSize -= demoted.policyWeight;
+            this.probation.addLast(demoted);
+            demoted.queue = PROBATION;
+        }
+    }
+
+    private void evict() {
+        // entries which overflow the window become candidates for the main space
+        Node<K, V> candidate = null;
+        while (this.windowWeightedSize > this.windowMaximum) {
+            final Node<K, V> node = this.window.peekFirst();
+            if (node == null) {
+                break;
+            }
+            this.window.remove(node);
+            this.windowWeightedSize -= node.policyWeight;
+            this.probation.addLast(node);
+            node.queue = PROBATION;
+            if (candidate == null) {
+                candidate = node;
+            }
+        }
+
+        // pit each candidate against the least recently used probation entry, keeping whichever is more popular
+        while (this.weightedSize > this.maximum) {
+            final Node<K, V> victim = firstVictim();
+            if (victim == null) {
+                break;
+            }
+            if (candidate == null || candidate == victim) {
+                if (candidate != null) {
+                    candidate = candidate.next;
+                }
+                evictNode(victim);
+                continue;
+            }
+            final Node<K, V> next = candidate.next;
+            if (this.sketch.frequency(candidate.key) > this.sketch.frequency(victim.key)) {
+                evictNode(victim);
+            } else {
+                evictNode(candidate);
+            }
+            candidate = next;
+        }
+    }
+
+    private Node<K, V> firstVictim() {
+        Node<K, V> victim = this.probation.peekFirst();
+        if (victim == null) {
+            victim = this.protectedSegment.peekFirst();
+        }
+        if (victim == null) {
+            victim = this.window.peekFirst();
+        }
+        return victim;
+    }
+
+    private void evictNode(final Node<K, V> node) {
+        unlink(node);
+        synchronized (node) {
+            if (node.alive) {
+                node.alive = false;
+                this.data.remove(node.key, node);
+                if (this.evictionListener != null) {
+                    this.pendingEvictions.add(node);
+                }
+            }
+        }
+    }
+
+    private void unlink(final Node<K, V> node) {
+        switch (node.queue) {
+        case WINDOW:
+            this.window.remove(node);
+            this.windowWeightedSize -= node.policyWeight;
+            break;
+        case PROBATION:
+            this.probation.remove(node);
+            break;
+        case PROTECTED:
+            this.protectedSegment.remove(node);
+            this.protectedWeightedSize -= node.policyWeight;
+            break;
+        default:
+            return;
+        }
+        if (this.expireAfterWriteNanos != CacheSpec.UNSET) {
+            this.writeOrder.remove(node);
+        }
+        this.weightedSize -= node.policyWeight;
+        node.queue = NONE;
+    }
+
+    /**
+     * Links a newly added node into the window. Should the node have been removed before the task runs, there is nothing
+     * to do
+     */
+    private final class AddTask implements Runnable {
+        private final Node<K, V> node;
+
+        AddTask(final Node<K, V> added) {
+            this.node = added;
+        }
+
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public void run() {
+            if (!this.node.alive) {
+                return;
+            }
+            final int weight = this.node.weight;
+            this.node.policyWeight = weight;
+            BoundedMap.this.weightedSize += weight;
+            BoundedMap.this.windowWeightedSize += weight;
+            BoundedMap.this.window.addLast(this.node);
+            this.node.queue = WINDOW;
+            if (BoundedMap.this.expireAfterWriteNanos != CacheSpec.UNSET) {
+                BoundedMap.this.writeOrder.addInWriteOrder(this.node);
+            }
+
+            // grow the sketch along with the map, rather than allocating it for the maximum size up front
+            final long size = BoundedMap.this.data.size();
+            if (BoundedMap.this.weigher != null || size <= BoundedMap.this.maximum) {
+                BoundedMap.this.sketch.ensureCapacity(size);
+            }
+            BoundedMap.this.sketch.increment(this.node.key);
+        }
+    }
+
+    /**
+     * Reconciles the weight of an updated node, treating the update as an access
+     */
+    private final class UpdateTask implements Runnable {
+        private final Node<K, V> node;
+
+        UpdateTask(final Node<K, V> updated) {
+            this.node = updated;
+        }
+
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public void run() {
+            final int queue = this.node.queue;
+            if (queue == NONE) {
+                return;
+            }
+            final int weight = this.node.weight;
+            final int delta = weight - this.node.policyWeight;
+            this.node.policyWeight = weight;
+            BoundedMap.this.weightedSize += delta;
+            if (queue == WINDOW) {
+                BoundedMap.this.windowWeightedSize += delta;
+            } else if (queue == PROTECTED) {
+                BoundedMap.this.protectedWeightedSize += delta;
+            }
+            if (BoundedMap.this.expireAfterWriteNanos != CacheSpec.UNSET) {
+                BoundedMap.this.writeOrder.remove(this.node);
+                BoundedMap.this.writeOrder.addInWriteOrder(this.node);
+            }
+            onAccess(this.node);
+        }
+    }
+
+    /**
+     * Unlinks a removed node from the policy
+     */
+    private final class RemovalTask implements Runnable {
+        private final Node<K, V> node;
+
+        RemovalTask(final Node<K, V> removed) {
+            this.node = removed;
+        }
+
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public void run() {
+            unlink(this.node);
+        }
+    }
+
+    /**
+     * A weakly consistent view of the unexpired entries
+     */
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public int size() {
+            return BoundedMap.this.data.size();
+        }
+
+        @Override
+        public void clear() {
+            BoundedMap.this.clear();
+        }
+
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            final Iterator<Node<K, V>> nodes = BoundedMap.this.data.values().iterator();
+            final long now = BoundedMap.this.ticker.read();
+            return new Iterator<Map.Entry<K, V>>() {
+                private Node<K, V> next;
+
+                private Node<K, V> last;
+
+                @Override
+                public boolean hasNext() {
+                    while (this.next == null && nodes.hasNext()) {
+                        final Node<K, V> node = nodes.next();
+                        if (!hasExpired(node, now)) {
+                            this.next = node;
+                        }
+                    }
+                    return this.next != null;
+                }
+
+                @Override
+                public Map.Entry<K, V> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    this.last = this.next;
+                    this.next = null;
+                    return new SimpleImmutableEntry<K, V>(this.last.key, this.last.value);
+                }
+
+                @Override
+                public void remove() {
+                    if (this.last == null) {
+                        throw new IllegalStateException();
+                    }
+                    removeNode(this.last, null);
+                    this.last = null;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.porpoise.common.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Describes the storage used by an {@link AbstractCache}: how many entries (or how much weight) it may hold, how long
+ * entries live for, its expected concurrency and whether keys or values are held by weak/soft references.
+ * 
+ * Entries are strongly referenced unless a reference strength is explicitly requested. Once a maximum size or weight
+ * is given, the cache is bounded and uses a frequency-aware (W-TinyLFU) admission policy to choose which entries to
+ * evict:
+ * 
+ * <pre>
+ * CacheSpec spec = CacheSpec.newSpec().maximumSize(10000).concurrencyLevel(8).expireAfterWrite(10, TimeUnit.MINUTES);
+ * </pre>
+ * 
+ * Reference-based eviction is left to the garbage collector, and so cannot be combined with a size or weight bound.
+ */
+public final class CacheSpec {
+
+    /** the reference strength used to hold keys or values */
+    enum Strength {
+        STRONG, WEAK, SOFT
+    }
+
+    static final int UNSET = -1;
+
+    static final int DEFAULT_CONCURRENCY_LEVEL = 4;
+
+    static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    private int concurrencyLevel = UNSET;
+
+    private int initialCapacity = UNSET;
+
+    private long maximumSize = UNSET;
+
+    private long maximumWeight = UNSET;
+
+    private Weigher<?, ?> weigher;
+
+    private long expireAfterWriteNanos = UNSET;
+
+    private Strength keyStrength = Strength.STRONG;
+
+    private Strength valueStrength = Strength.STRONG;
+
+    private CacheSpec() {
+        // use newSpec
+    }
+
+    /**
+     * @return a new specification for an unbounded cache with strong keys and values
+     */
+    public static CacheSpec newSpec() {
+        return new CacheSpec();
+    }
+
+    /**
+     * @param level
+     *            the estimated number of concurrently updating threads
+     * @return this specification
+     */
+    public CacheSpec concurrencyLevel(final int level) {
+        checkState(this.concurrencyLevel == UNSET, "concurrency level was already set to %s",
+                Integer.valueOf(this.concurrencyLevel));
+        checkArgument(level > 0);
+        this.concurrencyLevel = level;
+        return this;
+    }
+
+    /**
+     * @param capacity
+     *            the initial capacity of the cache
+     * @return this specification
+     */
+    public CacheSpec initialCapacity(final int capacity) {
+        checkState(this.initialCapacity == UNSET, "initial capacity was already set to %s",
+                Integer.valueOf(this.initialCapacity));
+        checkArgument(capacity >= 0);
+        this.initialCapacity = capacity;
+        return this;
+    }
+
+    /**
+     * Bound the cache to the given number of entries
+     * 
+     * @param size
+     *            the maximum number of entries the cache may hold
+     * @return this specification
+     */
+    public CacheSpec maximumSize(final long size) {
+        checkState(this.maximumSize == UNSET, "maximum size was already set to %s", Long.valueOf(this.maximumSize));
+        checkState(this.maximumWeight == UNSET, "maximum weight was already set to %s",
+                Long.valueOf(this.maximumWeight));
+        checkArgument(size >= 0, "maximum size must not be negative");
+        this.maximumSize = size;
+        return this;
+    }
+
+    /**
+     * Bound the cache to the given total weight of entries
+     * 
+     * @param weight
+     *            the maximum total weight of the entries the cache may hold
+     * @param entryWeigher
+     *            the weigher used to determine the weight of each entry
+     * @return this specification
+     */
+    public CacheSpec maximumWeight(final long weight, final Weigher<?, ?> entryWeigher) {
+        checkState(this.maximumWeight == UNSET, "maximum weight was already set to %s",
+                Long.valueOf(this.maximumWeight));
+        checkState(this.maximumSize == UNSET, "maximum size was already set to %s", Long.valueOf(this.maximumSize));
+        checkArgument(weight >= 0, "maximum weight must not be negative");
+        this.maximumWeight = weight;
+        this.weigher = checkNotNull(entryWeigher, "weigher");
+        return this;
+    }
+
+    /**
+     * @param duration
+     *            the time after an entry is written after which it expires
+     * @param unit
+     *            the duration time unit
+     * @return this specification
+     */
+    public CacheSpec expireAfterWrite(final long duration, final TimeUnit unit) {
+        checkState(this.expireAfterWriteNanos == UNSET, "expireAfterWrite was already set to %sns",
+                Long.valueOf(this.expireAfterWriteNanos));
+        checkArgument(duration >= 0, "duration must not be negative");
+        this.expireAfterWriteNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Hold keys by weak references. Note that weakly held keys are compared by identity rather than by equals
+     * 
+     * @return this specification
+     */
+    public CacheSpec weakKeys() {
+        checkState(this.keyStrength == Strength.STRONG, "key strength was already set to %s", this.keyStrength);
+        this.keyStrength = Strength.WEAK;
+        return this;
+    }
+
+    /**
+     * Hold values by weak references, allowing them to be collected as soon as no-one else refers to them
+     * 
+     * @return this specification
+     */
+    public CacheSpec weakValues() {
+        checkState(this.valueStrength == Strength.STRONG, "value strength was already set to %s",
+                this.valueStrength);
+        this.valueStrength = Strength.WEAK;
+        return this;
+    }
+
+    /**
+     * Hold values by soft references, allowing them to be collected in response to memory demand
+     * 
+     * @return this specification
+     */
+    public CacheSpec softValues() {
+        checkState(this.valueStrength == Strength.STRONG, "value strength was already set to %s",
+                this.valueStrength);
+        this.valueStrength = Strength.SOFT;
+        return this;
+    }
+
+    /**
+     * @return true if the cache is bounded by size or weight
+     */
+    boolean isBounded() {
+        return this.maximumSize != UNSET || this.maximumWeight != UNSET;
+    }
+
+    int getConcurrencyLevel() {
+        return this.concurrencyLevel == UNSET ? DEFAULT_CONCURRENCY_LEVEL : this.concurrencyLevel;
+    }
+
+    int getInitialCapacity() {
+        return this.initialCapacity == UNSET ? DEFAULT_INITIAL_CAPACITY : this.initialCapacity;
+    }
+
+    /**
+     * @return the maximum size or weight of the cache
+     */
+    long getMaximum() {
+        return this.maximumSize == UNSET ? this.maximumWeight : this.maximumSize;
+    }
+
+    @SuppressWarnings("unchecked")
+    <K, V> Weigher<? super K, ? super V> getWeigher() {
+        return (Weigher<? super K, ? super V>) this.weigher;
+    }
+
+    long getExpireAfterWriteNanos() {
+        return this.expireAfterWriteNanos;
+    }
+
+    /**
+     * @return a new, empty map described by this specification
+     */
+    <K, V> ConcurrentMap<K, V> newMap() {
+        return newMap(null);
+    }
+
+    /**
+     * @param listener
+     *            an optional listener to notify when entries are evicted
+     * @return a new, empty map described by this specification
+     */
+    <K, V> ConcurrentMap<K, V> newMap(final EvictionListener<? super K, ? super V> listener) {
+        if (isBounded()) {
+            checkState(this.keyStrength == Strength.STRONG && this.valueStrength == Strength.STRONG,
+                    "reference-based eviction cannot be combined with a maximum size or weight");
+            return new BoundedMap<K, V>(this, listener);
+        }
+        final MapMaker maker = new MapMaker().concurrencyLevel(getConcurrencyLevel()).initialCapacity(
+                getInitialCapacity());
+        if (this.keyStrength == Strength.WEAK) {
+            maker.weakKeys();
+        }
+        if (this.valueStrength == Strength.WEAK) {
+            maker.weakValues();
+        } else if (this.valueStrength == Strength.SOFT) {
+            maker.softValues();
+        }
+        if (this.expireAfterWriteNanos != UNSET) {
+            expireAfterWrite(maker, this.expireAfterWriteNanos);
+        }
+        if (listener == null) {
+            return maker.makeMap();
+        }
+        return newMap(maker, listener);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void expireAfterWrite(final MapMaker maker, final long nanos) {
+        maker.expireAfterWrite(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * the map maker's eviction listener is only notified of evictions, not explicit removals. Its maps are unbounded,
+     * so an entry is evicted either because it expired or because its key or value was collected
+     */
+    @SuppressWarnings("deprecation")
+    private static <K, V> ConcurrentMap<K, V> newMap(final MapMaker maker,
+            final EvictionListener<? super K, ? super V> listener) {
+        return maker.evictionListener(new com.google.common.collect.MapEvictionListener<K, V>() {
+            @Override
+            public void onEviction(final K key, final V value) {
+                // MapMaker does not expose the write time
+                listener.onEviction(key, value, System.currentTimeMillis(), key != null && value != null);
+            }
+        }).makeMap();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CacheSpec[concurrency=%d, maximum=%d, expireAfterWrite=%dns, keys=%s, values=%s]",
+                Integer.valueOf(getConcurrencyLevel()), Long.valueOf(getMaximum()),
+                Long.valueOf(this.expireAfterWriteNanos), this.keyStrength, this.valueStrength);
+    }
+}
@@ -0,0 +1,155 @@
+package com.porpoise.common.concurrent;
+
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of the statistics of a cache
+ * 
+ * @see AbstractCache#stats()
+ */
+public final class CacheStatistics {
+    private final long hitCount;
+
+    private final long missCount;
+
+    private final long loadSuccessCount;
+
+    private final long loadFailureCount;
+
+    private final long totalLoadTimeNanos;
+
+    private final long evictionCount;
+
+    private final long inFlightCount;
+
+    private final long[] loadLatencyHistogram;
+
+    CacheStatistics(final long hits, final long misses, final long loadSuccesses, final long loadFailures,
+            final long totalLoadTime, final long evictions, final long inFlight, final long[] histogram) {
+        this.hitCount = hits;
+        this.missCount = misses;
+        this.loadSuccessCount = loadSuccesses;
+        this.loadFailureCount = loadFailures;
+        this.totalLoadTimeNanos = totalLoadTime;
+        this.evictionCount = evictions;
+        this.inFlightCount = inFlight;
+        this.loadLatencyHistogram = histogram;
+    }
+
+    /**
+     * @return the number of times a lookup found a value in the cache
+     */
+    public long hitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * @return the number of times a lookup did not find a value in the cache
+     */
+    public long missCount() {
+        return this.missCount;
+    }
+
+    /**
+     * @return the total number of lookups
+     */
+    public long requestCount() {
+        return this.hitCount + this.missCount;
+    }
+
+    /**
+     * @return the ratio of lookups which were hits, or 1.0 if there have been no lookups
+     */
+    public double hitRate() {
+        final long requests = requestCount();
+        return requests == 0 ? 1.0 : (double) this.hitCount / requests;
+    }
+
+    /**
+     * @return the ratio of lookups which were misses, or 0.0 if there have been no lookups
+     */
+    public double missRate() {
+        final long requests = requestCount();
+        return requests == 0 ? 0.0 : (double) this.missCount / requests;
+    }
+
+    /**
+     * @return the number of values successfully computed
+     */
+    public long loadSuccessCount() {
+        return this.loadSuccessCount;
+    }
+
+    /**
+     * @return the number of computations which failed
+     */
+    public long loadFailureCount() {
+        return this.loadFailureCount;
+    }
+
+    /**
+     * @return the total time spent computing values, in nanoseconds
+     */
+    public long totalLoadTimeNanos() {
+        return this.totalLoadTimeNanos;
+    }
+
+    /**
+     * @return the mean time taken to compute a value, in nanoseconds
+     */
+    public double averageLoadPenaltyNanos() {
+        final long loads = this.loadSuccessCount + this.loadFailureCount;
+        return loads == 0 ? 0.0 : (double) this.totalLoadTimeNanos / loads;
+    }
+
+    /**
+     * @return the number of entries evicted from the cache
+     */
+    public long evictionCount() {
+        return this.evictionCount;
+    }
+
+    /**
+     * @return the number of computations in progress when the snapshot was taken
+     */
+    public long inFlightCount() {
+        return this.inFlightCount;
+    }
+
+    /**
+     * The load latency histogram is bucketed by powers of two: the count at index 'n' is the number of computations
+     * which took at least 2^(n-1) but less than 2^n nanoseconds.
+     * 
+     * @return a copy of the load latency histogram
+     */
+    public long[] loadLatencyHistogram() {
+        return this.loadLatencyHistogram.clone();
+    }
+
+    /**
+     * @param other
+     *            an earlier snapshot of the same cache
+     * @return the statistics recorded between the other snapshot and this one
+     */
+    public CacheStatistics minus(final CacheStatistics other) {
+        final long[] histogram = new long[this.loadLatencyHistogram.length];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = Math.max(0, this.loadLatencyHistogram[i] - other.loadLatencyHistogram[i]);
+        }
+        return new CacheStatistics(Math.max(0, this.hitCount - other.hitCount), Math.max(0, this.missCount
+                - other.missCount), Math.max(0, this.loadSuccessCount - other.loadSuccessCount), Math.max(0,
+                this.loadFailureCount - other.loadFailureCount), Math.max(0, this.totalLoadTimeNanos
+                - other.totalLoadTimeNanos), Math.max(0, this.evictionCount - other.evictionCount),
+                this.inFlightCount, histogram);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CacheStatistics[hits=%d, misses=%d, loadSuccesses=%d, loadFailures=%d, "
+                + "averageLoadPenalty=%.0fns, evictions=%d, inFlight=%d, loadLatency=%s]",
+                Long.valueOf(this.hitCount), Long.valueOf(this.missCount), Long.valueOf(this.loadSuccessCount),
+                Long.valueOf(this.loadFailureCount), Double.valueOf(averageLoadPenaltyNanos()),
+                Long.valueOf(this.evictionCount), Long.valueOf(this.inFlightCount),
+                Arrays.toString(this.loadLatencyHistogram));
+    }
+}
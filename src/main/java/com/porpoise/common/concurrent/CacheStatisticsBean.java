@@ -0,0 +1,74 @@
+package com.porpoise.common.concurrent;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Exposes the statistics of an {@link AbstractCache} as a {@link CacheStatisticsMXBean}
+ */
+final class CacheStatisticsBean implements CacheStatisticsMXBean {
+    private final AbstractCache<?, ?> cache;
+
+    CacheStatisticsBean(final AbstractCache<?, ?> source) {
+        this.cache = Preconditions.checkNotNull(source);
+    }
+
+    @Override
+    public long getHitCount() {
+        return this.cache.stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return this.cache.stats().missCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        return this.cache.stats().hitRate();
+    }
+
+    @Override
+    public double getMissRate() {
+        return this.cache.stats().missRate();
+    }
+
+    @Override
+    public long getLoadSuccessCount() {
+        return this.cache.stats().loadSuccessCount();
+    }
+
+    @Override
+    public long getLoadFailureCount() {
+        return this.cache.stats().loadFailureCount();
+    }
+
+    @Override
+    public double getAverageLoadPenaltyNanos() {
+        return this.cache.stats().averageLoadPenaltyNanos();
+    }
+
+    @Override
+    public long[] getLoadLatencyHistogram() {
+        return this.cache.stats().loadLatencyHistogram();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return this.cache.stats().evictionCount();
+    }
+
+    @Override
+    public long getInFlightCount() {
+        return this.cache.stats().inFlightCount();
+    }
+
+    @Override
+    public int getLoadQueueDepth() {
+        return this.cache.loadQueueDepth();
+    }
+
+    @Override
+    public long getSize() {
+        return this.cache.size();
+    }
+}
@@ -0,0 +1,68 @@
+package com.porpoise.common.concurrent;
+
+/**
+ * JMX management interface exposing a cache's statistics
+ * 
+ * @see AbstractCache#registerMBean(String)
+ */
+public interface CacheStatisticsMXBean {
+    /**
+     * @return the number of times a lookup found a value in the cache
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of times a lookup did not find a value in the cache
+     */
+    long getMissCount();
+
+    /**
+     * @return the ratio of lookups which were hits
+     */
+    double getHitRate();
+
+    /**
+     * @return the ratio of lookups which were misses
+     */
+    double getMissRate();
+
+    /**
+     * @return the number of values successfully computed
+     */
+    long getLoadSuccessCount();
+
+    /**
+     * @return the number of computations which failed
+     */
+    long getLoadFailureCount();
+
+    /**
+     * @return the mean time taken to compute a value, in nanoseconds
+     */
+    double getAverageLoadPenaltyNanos();
+
+    /**
+     * @return the load latency histogram, bucketed by powers of two nanoseconds
+     */
+    long[] getLoadLatencyHistogram();
+
+    /**
+     * @return the number of entries evicted from the cache
+     */
+    long getEvictionCount();
+
+    /**
+     * @return the number of computations in progress
+     */
+    long getInFlightCount();
+
+    /**
+     * @return the number of computations waiting to be run
+     */
+    int getLoadQueueDepth();
+
+    /**
+     * @return the approximate number of entries in the cache
+     */
+    long getSize();
+}
@@ -0,0 +1,70 @@
+package com.porpoise.common.concurrent;
+
+/**
+ * Accumulates the statistics of a cache. Updates are recorded in {@link StripedCounter}s and a
+ * {@link LatencyHistogram}, so that recording is cheap enough to leave on in production.
+ */
+final class CacheStatsCounter {
+    private final StripedCounter hitCount = new StripedCounter();
+
+    private final StripedCounter missCount = new StripedCounter();
+
+    private final StripedCounter loadSuccessCount = new StripedCounter();
+
+    private final StripedCounter loadFailureCount = new StripedCounter();
+
+    private final StripedCounter evictionCount = new StripedCounter();
+
+    private final StripedCounter inFlightCount = new StripedCounter();
+
+    private final LatencyHistogram loadLatency = new LatencyHistogram();
+
+    void recordHit() {
+        this.hitCount.increment();
+    }
+
+    void recordMiss() {
+        this.missCount.increment();
+    }
+
+    void recordEviction() {
+        this.evictionCount.increment();
+    }
+
+    /**
+     * record the start of a computation. Every call must be followed by a call to either
+     * {@link #recordLoadSuccess(long)} or {@link #recordLoadFailure(long)}
+     */
+    void recordLoadStart() {
+        this.inFlightCount.increment();
+    }
+
+    /**
+     * @param nanos
+     *            the time taken to successfully compute a value
+     */
+    void recordLoadSuccess(final long nanos) {
+        this.inFlightCount.decrement();
+        this.loadSuccessCount.increment();
+        this.loadLatency.record(nanos);
+    }
+
+    /**
+     * @param nanos
+     *            the time taken before the computation failed
+     */
+    void recordLoadFailure(final long nanos) {
+        this.inFlightCount.decrement();
+        this.loadFailureCount.increment();
+        this.loadLatency.record(nanos);
+    }
+
+    /**
+     * @return a snapshot of the statistics recorded so far
+     */
+    CacheStatistics snapshot() {
+        return new CacheStatistics(this.hitCount.sum(), this.missCount.sum(), this.loadSuccessCount.sum(),
+                this.loadFailureCount.sum(), this.loadLatency.totalNanos(), this.evictionCount.sum(),
+                Math.max(this.inFlightCount.sum(), 0), this.loadLatency.snapshot());
+    }
+}
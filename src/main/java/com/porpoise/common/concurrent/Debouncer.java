@@ -0,0 +1,249 @@
+package com.porpoise.common.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
+
+/**
+ * Coalesces bursts of triggers into single executions, per key.
+ * 
+ * Triggering a key opens a 'window' which stays open until the key has been quiet for the wait time. All the triggers
+ * within a window result in at most two executions: one on the leading edge, when the window opens, and one on the
+ * trailing edge, when it closes. Which of those happen is configurable, trailing only by default. A maximum wait
+ * forces a trailing execution when a key is triggered continuously.
+ * 
+ * Each open window owns a single task on the scheduler, which reschedules itself while triggers keep arriving. Jobs
+ * are handed to the executor, so no thread is ever blocked waiting for a window to close.
+ * 
+ * <pre>
+ * Debouncer&lt;String&gt; refreshes = new Debouncer&lt;String&gt;(executor, 500, TimeUnit.MILLISECONDS);
+ * refreshes.setMaxWait(5, TimeUnit.SECONDS);
+ * refreshes.trigger(tenant, refreshJob); // the latest job of each window is the one executed
+ * </pre>
+ * 
+ * @param <K>
+ *            the key type
+ */
+public final class Debouncer<K> {
+    private final Executor executor;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Ticker ticker;
+
+    private final long waitNanos;
+
+    private volatile long maxWaitNanos = Long.MAX_VALUE;
+
+    private volatile boolean leading = false;
+
+    private volatile boolean trailing = true;
+
+    private final ConcurrentMap<K, Window> windows = Maps.newConcurrentMap();
+
+    /**
+     * @param executorService
+     *            the executor used to run jobs
+     * @param wait
+     *            the quiet time after which a window closes
+     * @param unit
+     *            the wait time unit
+     */
+    public Debouncer(final Executor executorService, final long wait, final TimeUnit unit) {
+        this(executorService, Threads.getDefaultScheduler(), wait, unit, Ticker.systemTicker());
+    }
+
+    Debouncer(final Executor executorService, final ScheduledExecutorService timer, final long wait,
+            final TimeUnit unit, final Ticker source) {
+        checkArgument(wait > 0, "the wait must be positive");
+        this.executor = checkNotNull(executorService);
+        this.scheduler = checkNotNull(timer);
+        this.waitNanos = unit.toNanos(wait);
+        this.ticker = checkNotNull(source);
+    }
+
+    /**
+     * @param runOnLeadingEdge
+     *            true if the job should be executed as soon as a window opens
+     */
+    public void setLeading(final boolean runOnLeadingEdge) {
+        this.leading = runOnLeadingEdge;
+    }
+
+    /**
+     * @param runOnTrailingEdge
+     *            true if the latest job should be executed when a window closes, if triggered since the window opened
+     */
+    public void setTrailing(final boolean runOnTrailingEdge) {
+        this.trailing = runOnTrailingEdge;
+    }
+
+    /**
+     * Bound the time a trailing execution may be postponed by a key being triggered continuously
+     * 
+     * @param maxWait
+     *            the maximum time between a trigger and its execution
+     * @param unit
+     *            the max wait time unit
+     */
+    public void setMaxWait(final long maxWait, final TimeUnit unit) {
+        checkArgument(maxWait > 0, "the max wait must be positive");
+        this.maxWaitNanos = unit.toNanos(maxWait);
+    }
+
+    /**
+     * Trigger the given key, coalescing the job with any other triggers of the same key
+     * 
+     * @param key
+     *            the key to trigger
+     * @param job
+     *            the job to execute. If the key is triggered again before the job is executed, the later job replaces
+     *            it
+     */
+    public void trigger(final K key, final Runnable job) {
+        checkNotNull(job);
+        while (true) {
+            final Window existing = this.windows.get(checkNotNull(key));
+            if (existing != null) {
+                if (existing.trigger(job)) {
+                    return;
+                }
+                // the window has just closed, so open another
+                this.windows.remove(key, existing);
+                continue;
+            }
+            final Window window = new Window(key, this.ticker.read());
+            if (this.windows.putIfAbsent(key, window) == null) {
+                window.open(job);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param key
+     *            the key to check
+     * @return true if the key has an open window
+     */
+    public boolean isPending(final K key) {
+        return this.windows.containsKey(key);
+    }
+
+    /**
+     * @return the number of keys with open windows
+     */
+    public int size() {
+        return this.windows.size();
+    }
+
+    /**
+     * The triggers of a key until it has been quiet for the wait time
+     */
+    private final class Window implements Runnable {
+        private final K key;
+
+        /** the time of the first trigger not yet executed */
+        private long firstTrigger;
+
+        private long lastTrigger;
+
+        /** the job to run on the trailing edge, or null if none is due */
+        private Runnable pending;
+
+        private boolean closed;
+
+        Window(final K windowKey, final long now) {
+            this.key = windowKey;
+            this.firstTrigger = now;
+            this.lastTrigger = now;
+        }
+
+        @SuppressWarnings("synthetic-access")
+        void open(final Runnable job) {
+            final boolean runNow = Debouncer.this.leading;
+            synchronized (this) {
+                if (!runNow && Debouncer.this.trailing) {
+                    this.pending = job;
+                }
+            }
+            try {
+                if (runNow) {
+                    Debouncer.this.executor.execute(job);
+                }
+            } finally {
+                Debouncer.this.scheduler.schedule(this, Debouncer.this.waitNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * @return false if the window has closed
+         */
+        @SuppressWarnings("synthetic-access")
+        synchronized boolean trigger(final Runnable job) {
+            if (this.closed) {
+                return false;
+            }
+            final long now = Debouncer.this.ticker.read();
+            if (this.pending == null) {
+                this.firstTrigger = now;
+            }
+            this.lastTrigger = now;
+            if (Debouncer.this.trailing) {
+                this.pending = job;
+            }
+            return true;
+        }
+
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public void run() {
+            final Runnable job;
+            final long delay;
+            synchronized (this) {
+                final long now = Debouncer.this.ticker.read();
+                final long maxWait = Debouncer.this.maxWaitNanos;
+                final boolean quiet = now - this.lastTrigger >= Debouncer.this.waitNanos;
+                // a key triggered continuously for the max wait runs its latest job, but keeps the window open
+                final boolean forced = this.pending != null && now - this.firstTrigger >= maxWait;
+                if (quiet || forced) {
+                    job = this.pending;
+                    this.pending = null;
+                } else {
+                    job = null;
+                }
+                if (quiet) {
+                    this.closed = true;
+                    delay = -1;
+                } else if (this.pending != null && maxWait != Long.MAX_VALUE) {
+                    delay = Math.min(this.lastTrigger + Debouncer.this.waitNanos, this.firstTrigger + maxWait) - now;
+                } else {
+                    delay = this.lastTrigger + Debouncer.this.waitNanos - now;
+                }
+            }
+            try {
+                if (job != null) {
+                    Debouncer.this.executor.execute(job);
+                }
+            } finally {
+                if (delay < 0) {
+                    Debouncer.this.windows.remove(this.key, this);
+                } else {
+                    Debouncer.this.scheduler.schedule(this, delay, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        final long waitMillis = TimeUnit.NANOSECONDS.toMillis(this.waitNanos);
+        return String.format("Debouncer[%dms, %d pending]", Long.valueOf(waitMillis), Integer.valueOf(size()));
+    }
+}
@@ -1,17 +1,30 @@
 package com.porpoise.common.concurrent;
 
-import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ComputationException;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Callables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.porpoise.common.log.Log;
 
 /**
  * The DelayedCache is an implementation of {@code AbstractCache}. The implementation of {@code #createValue(Object)}
@@ -19,14 +32,36 @@ import com.google.common.util.concurrent.Callables;
  * instance) and returns a default value immediately. Once the worker is complete, registered listeners are notified so
  * they can update their values.
  * 
+ * Callers who would rather be told when the value is available can use {@link #getAsync(Object)} instead.
+ * 
+ * Values can be refreshed periodically via {@link #setRefreshAfterWrite(long, TimeUnit)}, in which case the old value
+ * is served while its replacement is computed.
+ * 
+ * Computations are queued on the cache's pool; while a key's value is queued or being computed, further requests for
+ * it share that computation rather than queueing again. If the pool rejects a computation (for instance because its
+ * queue is full), the cache's {@link LoadRejectionPolicy} determines whether the default value is served, the value
+ * is computed by the caller or the rejection is thrown.
+ * 
+ * The cache's statistics record the time taken by the workers, rather than by the (immediate) call to
+ * {@code #createValue(Object)}.
+ * 
  * @param <K>
  *            the key type (request type) for the cached value
  * @param <T>
  *            the value type
  */
 public abstract class DelayedCache<K, T> extends AbstractCache<K, AtomicReference<T>> {
-    /** collection of listeners who are notified when values are calculated */
-    private final Collection<CallableListener<K, T>> listeners;
+    private static final long NO_REFRESH = -1;
+
+    /** the minimum time between retries of a computation which was rejected by the pool */
+    private static final long REJECTED_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /** the queue limit of the loader pool created by the default constructor */
+    static final int DEFAULT_QUEUE_LIMIT = 10000;
+
+    /** snapshot of the listeners who are notified when values are calculated */
+    private final AtomicReference<ListenerRegistry<K, T>> listeners = new AtomicReference<ListenerRegistry<K, T>>(
+            ListenerRegistry.<K, T> empty());
 
     /** The executor service used to start computation threads */
     private ExecutorService pool;
@@ -34,6 +69,15 @@ public abstract class DelayedCache<K, T> extends AbstractCache<K, AtomicReferenc
     /** once disposed, we should disallow use */
     private final AtomicBoolean disposed = new AtomicBoolean(false);
 
+    /** the outcomes of computations which are queued or running, by key */
+    private final ConcurrentMap<K, SettableFuture<T>> pending = Maps.newConcurrentMap();
+
+    /** what to do when the pool rejects a computation */
+    private volatile LoadRejectionPolicy rejectionPolicy = LoadRejectionPolicy.FAIL_FAST;
+
+    /** the time after which computed values are recomputed, or NO_REFRESH */
+    private volatile long refreshAfterWriteNanos = NO_REFRESH;
+
     /** The default return value used when a value is not found in the cache */
     private T defaultValue = null;
 
@@ -53,10 +97,50 @@ public abstract class DelayedCache<K, T> extends AbstractCache<K, AtomicReferenc
     }
 
     /**
-     * Default constructor
+     * Default constructor, computing values on a single thread with a bounded queue. Values requested while the queue is
+     * full are served the default value
      */
     public DelayedCache() {
-        this(Executors.newFixedThreadPool(1));
+        this(newSpec(DEFAULT_TIMEOUT, DEFAULT_TIME_UNIT), 1, DEFAULT_QUEUE_LIMIT, LoadRejectionPolicy.SERVE_DEFAULT);
+    }
+
+    /**
+     * create the cache using a bounded pool of loader threads
+     * 
+     * @param spec
+     *            the specification of the cache's size, expiry, concurrency and reference strength
+     * @param parallelism
+     *            the number of threads used to compute values
+     * @param queueLimit
+     *            the maximum number of computations waiting for a thread
+     * @param policy
+     *            what to do when a value is requested while the queue is full. Values which were served the default
+     *            are computed again when next requested
+     */
+    public DelayedCache(final CacheSpec spec, final int parallelism, final int queueLimit,
+            final LoadRejectionPolicy policy) {
+        this(spec, PoolKind.BOUNDED, parallelism, queueLimit, policy);
+    }
+
+    /**
+     * create the cache using a new pool of loader threads of the given kind. The pool is shut down when the cache is
+     * disposed
+     * 
+     * @param spec
+     *            the specification of the cache's size, expiry, concurrency and reference strength
+     * @param kind
+     *            the kind of pool used to compute values
+     * @param parallelism
+     *            the number of threads used to compute values, if the kind of pool has a fixed number
+     * @param queueLimit
+     *            the maximum number of computations waiting for a thread, if the kind of pool has a bounded queue
+     * @param policy
+     *            what to do when a value is requested while the pool rejects computations
+     */
+    public DelayedCache(final CacheSpec spec, final PoolKind kind, final int parallelism, final int queueLimit,
+            final LoadRejectionPolicy policy) {
+        this(spec, kind.newPool("Cache Loader", parallelism, queueLimit));
+        setRejectionPolicy(policy);
     }
 
     /**
@@ -75,7 +159,36 @@ public abstract class DelayedCache<K, T> extends AbstractCache<K, AtomicReferenc
      * @param threadPool
      */
     public DelayedCache(final int timeout, final TimeUnit timeoutTimeUnit, final ExecutorService threadPool) {
-        this(newMapBuilder(timeout, timeoutTimeUnit), threadPool);
+        this(newSpec(timeout, timeoutTimeUnit), threadPool);
+    }
+
+    /**
+     * create the cache using the given specification
+     * 
+     * @param spec
+     *            the specification of the cache's size, expiry, concurrency and reference strength
+     * @param threadPool
+     *            the {@link ExecutorService} used to start worker threads
+     */
+    protected DelayedCache(final CacheSpec spec, final ExecutorService threadPool) {
+        this(spec, threadPool, null);
+    }
+
+    /**
+     * create the cache using the given specification, with a second level store beneath it. Computed values are
+     * spilled to the store when evicted, and read back from it (rather than recomputed) when next requested
+     * 
+     * @param spec
+     *            the specification of the cache's size, expiry, concurrency and reference strength
+     * @param threadPool
+     *            the {@link ExecutorService} used to start worker threads
+     * @param store
+     *            the second level store of computed values, or null
+     */
+    protected DelayedCache(final CacheSpec spec, final ExecutorService threadPool,
+            final SecondLevelStore<K, T> store) {
+        super(spec, store == null ? null : new ReferenceStore<K, T>(store));
+        this.pool = Preconditions.checkNotNull(threadPool);
     }
 
     /**
@@ -87,11 +200,10 @@ public abstract class DelayedCache<K, T> extends AbstractCache<K, AtomicReferenc
     protected DelayedCache(final MapMaker builder, final ExecutorService threadPool) {
         super(builder);
         this.pool = Preconditions.checkNotNull(threadPool);
-        this.listeners = new CopyOnWriteArraySet<CallableListener<K, T>>();
     }
 
     /**
-     * Registers a callable listener.
+     * Registers a callable listener, notified when the value of any key is calculated.
      * 
      * @param listener
      *            the listener to register
@@ -103,7 +215,61 @@ public abstract class DelayedCache<K, T> extends AbstractCache<K, AtomicReferenc
         if (listener == null) {
             return false;
         }
-        return this.listeners.add(listener);
+        while (true) {
+            final ListenerRegistry<K, T> current = this.listeners.get();
+            if (current.containsGlobal(listener)) {
+                return false;
+            }
+            if (this.listeners.compareAndSet(current, current.withListener(listener))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Registers a callable listener, notified only when the value of the given key is calculated.
+     * 
+     * @param key
+     *            the key of interest
+     * @param listener
+     *            the listener to register
+     * @return true if the listener was added successfully
+     */
+    public boolean addListener(final K key, final CallableListener<K, T> listener) {
+        checkDisposed();
+
+        if (key == null || listener == null) {
+            return false;
+        }
+        while (true) {
+            final ListenerRegistry<K, T> current = this.listeners.get();
+            if (this.listeners.compareAndSet(current, current.withListener(key, listener))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Registers a callable listener, notified only when the values of keys matching the given predicate are calculated.
+     * 
+     * @param keys
+     *            the predicate matching the keys of interest
+     * @param listener
+     *            the listener to register
+     * @return true if the listener was added successfully
+     */
+    public boolean addListener(final Predicate<? super K> keys, final CallableListener<K, T> listener) {
+        checkDisposed();
+
+        if (keys == null || listener == null) {
+            return false;
+        }
+        while (true) {
+            final ListenerRegistry<K, T> current = this.listeners.get();
+            if (this.listeners.compareAndSet(current, current.withListener(keys, listener))) {
+                return true;
+            }
+        }
     }
 
     private void checkDisposed() {
@@ -117,14 +283,22 @@ public abstract class DelayedCache<K, T> extends AbstractCache<K, AtomicReferenc
     }
 
     /**
-     * Unregisters a callable listener
+     * Unregisters a callable listener from all the keys to which it was subscribed
      * 
      * @param listener
      *            the listener to register
      * @return true if the listener was added successfully
      */
     public boolean removeListener(final CallableListener<K, T> listener) {
-        return this.listeners.remove(listener);
+        while (true) {
+            final ListenerRegistry<K, T> current = this.listeners.get();
+            if (!current.contains(listener)) {
+                return false;
+            }
+            if (this.listeners.compareAndSet(current, current.without(listener))) {
+                return true;
+            }
+        }
     }
 
     /**
@@ -132,8 +306,160 @@ public abstract class DelayedCache<K, T> extends AbstractCache<K, AtomicReferenc
      */
     public void dispose() {
         if (this.disposed.compareAndSet(false, true)) {
-            this.listeners.clear();
+            this.listeners.set(ListenerRegistry.<K, T> empty());
             this.pool.shutdown();
+            unregisterMBean();
+        }
+    }
+
+    /**
+     * @param policy
+     *            what to do when the pool rejects a computation. Rejected refreshes always continue to serve the old
+     *            value
+     */
+    public void setRejectionPolicy(final LoadRejectionPolicy policy) {
+        this.rejectionPolicy = Preconditions.checkNotNull(policy);
+    }
+
+    /**
+     * @return the number of computations waiting to be run. If the pool is not a {@link ThreadPoolExecutor} this is the
+     *         number of computations queued or running
+     */
+    public int getQueueDepth() {
+        if (this.pool instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) this.pool).getQueue().size();
+        }
+        return this.pending.size();
+    }
+
+    @Override
+    int loadQueueDepth() {
+        return getQueueDepth();
+    }
+
+    /**
+     * Once a value is older than the given duration, the next request for it triggers a background recomputation. The
+     * old value continues to be served until the new value is available, so once a value has been computed callers
+     * never see the default value again (as long as the refresh period is shorter than the cache's expiry).
+     * 
+     * @param duration
+     *            the time after a value is computed after which it should be recomputed
+     * @param unit
+     *            the duration time unit
+     */
+    public void setRefreshAfterWrite(final long duration, final TimeUnit unit) {
+        Preconditions.checkArgument(duration > 0, "refresh duration must be positive");
+        this.refreshAfterWriteNanos = unit.toNanos(duration);
+    }
+
+    /**
+     * Values older than the refresh period are returned, and recomputed in the background
+     * 
+     * {@inheritDoc}
+     */
+    @Override
+    public AtomicReference<T> get(final K key) {
+        final AtomicReference<T> reference = super.get(key);
+        reloadIfDue(key, reference);
+        return reference;
+    }
+
+    /**
+     * Values older than the refresh period are returned, and recomputed in the background
+     * 
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<K, AtomicReference<T>> getAll(final Iterable<? extends K> keys) {
+        final Map<K, AtomicReference<T>> references = super.getAll(keys);
+        for (final Map.Entry<K, AtomicReference<T>> entry : references.entrySet()) {
+            reloadIfDue(entry.getKey(), entry.getValue());
+        }
+        return references;
+    }
+
+    /**
+     * @param key
+     *            the key to an item in the cache
+     * @return a future holding the value for the given key, completed once the value has first been computed. Values
+     *         which have already been computed (even if they are being refreshed) are returned immediately, as is the
+     *         default value if the computation was rejected under {@link LoadRejectionPolicy#SERVE_DEFAULT}
+     */
+    public ListenableFuture<T> getAsync(final K key) {
+        final AtomicReference<T> reference;
+        try {
+            reference = get(key);
+        } catch (final ComputationException e) {
+            return Futures.immediateFailedFuture(e.getCause());
+        } catch (final RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        if (reference instanceof ValueReference<?>) {
+            final ValueReference<T> value = (ValueReference<T>) reference;
+            // a rejected computation is only retried when the value is next requested, so don't wait for it
+            return value.isRejected() ? Futures.immediateFuture(value.get()) : value.initialised();
+        }
+        return Futures.immediateFuture(reference.get());
+    }
+
+    /**
+     * @param key
+     *            the key to an item in the cache
+     * @param timeout
+     *            the time to wait for the value to be computed
+     * @param unit
+     *            the timeout time unit
+     * @return a future holding the value for the given key, which fails with a {@link TimeoutException} if the value
+     *         is not computed within the given time. Timing out does not cancel the computation
+     */
+    public ListenableFuture<T> getAsync(final K key, final long timeout, final TimeUnit unit) {
+        final ListenableFuture<T> value = getAsync(key);
+        if (value.isDone()) {
+            return value;
+        }
+        final SettableFuture<T> result = SettableFuture.create();
+        Futures.addCallback(value, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(final T computed) {
+                result.set(computed);
+            }
+
+            @Override
+            public void onFailure(final Throwable t) {
+                result.setException(t);
+            }
+        });
+        final ScheduledFuture<?> timer = Threads.getDefaultScheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                result.setException(new TimeoutException(String.format("'%s' was not computed within %d %s", key,
+                        Long.valueOf(timeout), unit)));
+            }
+        }, timeout, unit);
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                timer.cancel(false);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return result;
+    }
+
+    /**
+     * recompute the given value if it is older than the refresh period, or if its computation was rejected
+     */
+    private void reloadIfDue(final K key, final AtomicReference<T> reference) {
+        if (isDisposed() || !(reference instanceof ValueReference<?>)) {
+            return;
+        }
+        final ValueReference<T> value = (ValueReference<T>) reference;
+        if (value.tryStartReload(System.nanoTime(), this.refreshAfterWriteNanos)) {
+            try {
+                submit(key, value, true);
+            } catch (final RejectedExecutionException e) {
+                // keep serving the old value; the next request will try again
+                Log.debug("Couldn't refresh '%s': %s", key, e);
+            }
         }
     }
 
@@ -151,22 +477,375 @@ public abstract class DelayedCache<K, T> extends AbstractCache<K, AtomicReferenc
         checkDisposed();
 
         // create the reference placeholder. This will be updated by the worker task once complete
-        final AtomicReference<T> reference = new AtomicReference<T>(getDefaultValue());
+        final ValueReference<T> reference = new ValueReference<T>(getDefaultValue());
 
-        // create a callback to notify any interested listeners once the value is set
-        final KeyedListenableCallable<K, T> logic = new KeyedListenableCallable<K, T>(key, newCallable(key));
+        submit(key, reference, false);
 
-        // add OUR listener callback (the one which will update the reference)
-        logic.addListener(new SetReferenceCallback<K, T>(reference));
+        // return the reference which later will be updated by the worker
+        return reference;
+    }
 
-        // also append any general listeners who have registered with the cache
-        logic.addListeners(this.listeners);
+    /**
+     * submit a worker task to compute the value of the given reference. If the key's value is already being computed,
+     * the reference is updated by that computation instead
+     */
+    private void submit(final K key, final ValueReference<T> reference, final boolean refresh) {
+        final SettableFuture<T> outcome = SettableFuture.create();
+        final SettableFuture<T> inProgress = this.pending.putIfAbsent(key, outcome);
+        if (inProgress != null) {
+            Futures.addCallback(inProgress, new CoalescedCallback(key, reference, refresh));
+            return;
+        }
+        outcome.addListener(new Runnable() {
+            @SuppressWarnings("synthetic-access")
+            @Override
+            public void run() {
+                DelayedCache.this.pending.remove(key, outcome);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        // record how long the worker takes to compute the value
+        final CacheStatsCounter stats = statsCounter();
+        stats.recordLoadStart();
+
+        // add OUR listener callbacks (the first of which updates the reference - refreshes replace the old value),
+        // then the listeners registered with the cache via the current (shared) snapshot. The list is immutable, so
+        // it is handed to the callable without being copied
+        final ListenerRegistry<K, T> registered = this.listeners.get();
+        final ComputedCallback computed = new ComputedCallback(reference, refresh);
+        final OutcomeCallback<K, T> complete = new OutcomeCallback<K, T>(outcome);
+        final RecordLoadCallback<K, T> record = new RecordLoadCallback<K, T>(stats);
+        final ImmutableList<CallableListener<K, T>> callbacks = refresh ? ImmutableList.<CallableListener<K, T>> of(
+                computed, complete, record, registered) : ImmutableList.<CallableListener<K, T>> of(
+                new SetReferenceCallback<K, T>(reference), computed, complete, record, registered);
+
+        // create a callback to notify any interested listeners once the value is set
+        final KeyedListenableCallable<K, T> logic = new KeyedListenableCallable<K, T>(key, newCallable(key), callbacks);
 
         // finally submit our task to the thread pool.
-        this.pool.submit(logic);
+        final CallableRunnable<T> task = Runnables.asRunnable(logic);
+        try {
+            this.pool.execute(task);
+        } catch (final RejectedExecutionException e) {
+            onRejected(reference, refresh, task, outcome, e);
+        }
+    }
 
-        // return the reference which later will be updated by the worker
-        return reference;
+    private void onRejected(final ValueReference<T> reference, final boolean refresh, final CallableRunnable<T> task,
+            final SettableFuture<T> outcome, final RejectedExecutionException e) {
+        if (this.rejectionPolicy == LoadRejectionPolicy.CALLER_RUNS && !refresh) {
+            task.run();
+            return;
+        }
+        statsCounter().recordLoadFailure(0);
+        reference.rejected();
+        outcome.setException(e);
+        if (this.rejectionPolicy == LoadRejectionPolicy.FAIL_FAST || refresh) {
+            throw e;
+        }
+    }
+
+    /**
+     * A reference which knows when its value was last computed, and whether it is currently being computed
+     */
+    static final class ValueReference<T> extends AtomicReference<T> {
+        private static final long serialVersionUID = 1L;
+
+        private volatile long writeTime;
+
+        /** true once a value has been computed */
+        private volatile boolean hasValue;
+
+        /** true if the last computation was rejected by the pool, and so should be retried */
+        private volatile boolean rejected;
+
+        private volatile long rejectedTime;
+
+        /** true while the value is being computed. References are created as their first computation starts */
+        private final AtomicBoolean computing = new AtomicBoolean(true);
+
+        /** completed once the first value has been computed, or its computation has failed */
+        private final SettableFuture<T> initialised = SettableFuture.create();
+
+        ValueReference(final T initialValue) {
+            super(initialValue);
+            this.writeTime = System.nanoTime();
+        }
+
+        /**
+         * @return true if a value has been computed
+         */
+        boolean hasValue() {
+            return this.hasValue;
+        }
+
+        /**
+         * @return true if the value is older than the refresh period (or its computation was rejected) and no other
+         *         computation is in progress, in which case the caller is responsible for recomputing the value
+         */
+        boolean tryStartReload(final long now, final long refreshNanos) {
+            final boolean retry = this.rejected && now - this.rejectedTime >= REJECTED_RETRY_NANOS;
+            final boolean due = retry || (refreshNanos != NO_REFRESH && now - this.writeTime >= refreshNanos);
+            return due && this.computing.compareAndSet(false, true);
+        }
+
+        /**
+         * the computation of the value has finished
+         * 
+         * @param success
+         *            true if a new value was computed
+         */
+        void computed(final boolean success) {
+            if (success) {
+                this.writeTime = System.nanoTime();
+                this.hasValue = true;
+                this.initialised.set(get());
+            }
+            this.rejected = false;
+            this.computing.set(false);
+        }
+
+        /**
+         * the value was read back from a second level store, so was computed when it was originally written
+         * 
+         * @param writeTimeMillis
+         *            the time the value was written, in milliseconds since the epoch
+         */
+        void restored(final long writeTimeMillis) {
+            computed(true);
+            this.writeTime = System.nanoTime()
+                    - TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - writeTimeMillis);
+        }
+
+        /**
+         * @return the time the value was last computed, in milliseconds since the epoch
+         */
+        long writeTimeMillis() {
+            return System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.writeTime);
+        }
+
+        /**
+         * the computation of the value threw an exception
+         * 
+         * @param error
+         */
+        void failed(final Throwable error) {
+            this.initialised.setException(error);
+            computed(false);
+        }
+
+        /**
+         * @return a future completed once the first value has been computed
+         */
+        ListenableFuture<T> initialised() {
+            return this.initialised;
+        }
+
+        /**
+         * @return true if the first computation of the value was rejected by the pool, and has not yet been retried
+         */
+        boolean isRejected() {
+            return this.rejected && !this.hasValue && !this.computing.get();
+        }
+
+        /**
+         * the computation of the value was rejected by the pool
+         */
+        void rejected() {
+            this.rejectedTime = System.nanoTime();
+            this.rejected = true;
+            this.computing.set(false);
+        }
+    }
+
+    /**
+     * Adapts a store of values into a store of the references held by the cache. Only computed values are stored
+     */
+    private static final class ReferenceStore<K, T> implements SecondLevelStore<K, AtomicReference<T>> {
+        private final SecondLevelStore<K, T> store;
+
+        ReferenceStore(final SecondLevelStore<K, T> valueStore) {
+            this.store = valueStore;
+        }
+
+        @Override
+        public AtomicReference<T> get(final K key) {
+            final StoredValue<AtomicReference<T>> stored = getStored(key);
+            return stored == null ? null : stored.getValue();
+        }
+
+        @Override
+        public StoredValue<AtomicReference<T>> getStored(final K key) {
+            final StoredValue<T> stored = this.store.getStored(key);
+            if (stored == null) {
+                return null;
+            }
+            // the restored reference is due a refresh when the value would have been, had it not been spilled
+            final ValueReference<T> reference = new ValueReference<T>(stored.getValue());
+            reference.restored(stored.getWriteTime());
+            return new StoredValue<AtomicReference<T>>(reference, stored.getWriteTime());
+        }
+
+        @Override
+        public void put(final K key, final AtomicReference<T> reference) {
+            put(key, reference, System.currentTimeMillis());
+        }
+
+        @Override
+        public void put(final K key, final AtomicReference<T> reference, final long writeTimeMillis) {
+            long writeTime = writeTimeMillis;
+            if (reference instanceof ValueReference<?>) {
+                final ValueReference<T> valueReference = (ValueReference<T>) reference;
+                if (!valueReference.hasValue()) {
+                    return;
+                }
+                writeTime = valueReference.writeTimeMillis();
+            }
+            final T value = reference.get();
+            if (value != null) {
+                this.store.put(key, value, writeTime);
+            }
+        }
+
+        @Override
+        public void remove(final K key) {
+            this.store.remove(key);
+        }
+
+        @Override
+        public Iterable<K> keys() {
+            return this.store.keys();
+        }
+
+        @Override
+        public String toString() {
+            return this.store.toString();
+        }
+    }
+
+    /**
+     * Updates a reference from the computation of the same key which was already in progress
+     */
+    private final class CoalescedCallback implements FutureCallback<T> {
+        private final K key;
+
+        private final ValueReference<T> reference;
+
+        private final T originalValue;
+
+        private final boolean refresh;
+
+        CoalescedCallback(final K keyParam, final ValueReference<T> ref, final boolean isRefresh) {
+            this.key = keyParam;
+            this.reference = ref;
+            this.originalValue = ref.get();
+            this.refresh = isRefresh;
+        }
+
+        @Override
+        public void onSuccess(final T result) {
+            if (this.refresh) {
+                this.reference.set(result);
+            } else {
+                this.reference.compareAndSet(this.originalValue, result);
+            }
+            this.reference.computed(true);
+            rewrite(this.key, this.reference);
+        }
+
+        @Override
+        public void onFailure(final Throwable t) {
+            if (t instanceof RejectedExecutionException) {
+                this.reference.rejected();
+            } else {
+                this.reference.failed(t);
+            }
+        }
+    }
+
+    /**
+     * Marks a reference's computation as complete. A successfully computed value restarts the expiry of its cache
+     * entry
+     */
+    private final class ComputedCallback extends CallableListenerAdapter<K, T> {
+        private final ValueReference<T> reference;
+
+        private final boolean refresh;
+
+        ComputedCallback(final ValueReference<T> ref, final boolean isRefresh) {
+            this.reference = ref;
+            this.refresh = isRefresh;
+        }
+
+        @Override
+        public void onComplete(final K key, final T result) {
+            if (this.refresh) {
+                this.reference.set(result);
+            }
+            this.reference.computed(true);
+            rewrite(key, this.reference);
+        }
+
+        @Override
+        public boolean onException(final K key, final Exception exp) {
+            // a failed refresh keeps the old value
+            this.reference.failed(exp);
+            return false;
+        }
+    }
+
+    /**
+     * Completes the outcome of a computation, which is shared with requests coalesced onto it
+     */
+    private static final class OutcomeCallback<K, T> implements CallableListener<K, T> {
+        private final SettableFuture<T> outcome;
+
+        OutcomeCallback(final SettableFuture<T> future) {
+            this.outcome = future;
+        }
+
+        @Override
+        public void onComplete(final K key, final T result) {
+            this.outcome.set(result);
+        }
+
+        @Override
+        public boolean onException(final K key, final Exception exp) {
+            this.outcome.setException(exp);
+            return false;
+        }
+    }
+
+    /**
+     * computations are recorded by the worker tasks, as {@link #createValue(Object)} returns immediately
+     */
+    @Override
+    final boolean recordsLoads() {
+        return false;
+    }
+
+    /**
+     * Records the outcome and duration of a worker task
+     */
+    private static final class RecordLoadCallback<K, T> extends CallableListenerAdapter<K, T> {
+        private final CacheStatsCounter stats;
+
+        private final long start = System.nanoTime();
+
+        RecordLoadCallback(final CacheStatsCounter counter) {
+            this.stats = counter;
+        }
+
+        @Override
+        public void onComplete(final K key, final T result) {
+            this.stats.recordLoadSuccess(System.nanoTime() - this.start);
+        }
+
+        @Override
+        public boolean onException(final K key, final Exception exp) {
+            this.stats.recordLoadFailure(System.nanoTime() - this.start);
+            return false;
+        }
     }
 
     /**
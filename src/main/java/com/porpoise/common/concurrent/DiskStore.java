@@ -0,0 +1,404 @@
+package com.porpoise.common.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.porpoise.common.log.Log;
+
+/**
+ * A {@link SecondLevelStore} held in an append-only file, so that its entries survive restarts.
+ * 
+ * Every write appends a record to the end of the file, and an in-memory index holds the position of the latest record
+ * for each key. Opening an existing file rebuilds the index, discarding any partially-written record at its end. Once
+ * more than half of the file is taken by superseded records, the live records are copied into a new file.
+ * 
+ * Each record is laid out as:
+ * 
+ * <pre>
+ * int   record length (excluding this field)
+ * long  the time the value was written to the cache (milliseconds since the epoch)
+ * int   key length, followed by the key bytes
+ * int   value length (-1 for a removal), followed by the value bytes
+ * </pre>
+ * 
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ */
+public final class DiskStore<K, V> implements SecondLevelStore<K, V>, Closeable {
+    private static final int HEADER_SIZE = 4;
+
+    private static final int REMOVED = -1;
+
+    /** files smaller than this are never compacted */
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+    private final File file;
+
+    private final Serializer<K> keySerializer;
+
+    private final Serializer<V> valueSerializer;
+
+    /** the position of the latest record of each key */
+    private final ConcurrentMap<K, Long> index = Maps.newConcurrentMap();
+
+    /** guards the channel: reads share the lock, while compaction (which replaces the channel) holds it exclusively */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private FileChannel channel;
+
+    /** the number of bytes taken by records which have been superseded. Guarded by the write lock or 'this' */
+    private long garbage;
+
+    private volatile long expireAfterWriteMillis = -1;
+
+    /**
+     * Open (or create) the store held in the given file
+     * 
+     * @param storeFile
+     *            the file holding the store
+     * @param keys
+     *            the serializer used for keys
+     * @param values
+     *            the serializer used for values
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    public DiskStore(final File storeFile, final Serializer<K> keys, final Serializer<V> values) throws IOException {
+        this.file = checkNotNull(storeFile);
+        this.keySerializer = checkNotNull(keys);
+        this.valueSerializer = checkNotNull(values);
+        this.channel = new RandomAccessFile(storeFile, "rw").getChannel();
+        rebuildIndex();
+    }
+
+    /**
+     * Entries older than the given duration are treated as absent
+     * 
+     * @param duration
+     *            the time after an entry is written after which it expires
+     * @param unit
+     *            the duration time unit
+     * @return this store
+     */
+    public DiskStore<K, V> expireAfterWrite(final long duration, final TimeUnit unit) {
+        checkArgument(duration >= 0, "duration must not be negative");
+        this.expireAfterWriteMillis = unit.toMillis(duration);
+        return this;
+    }
+
+    /**
+     * read every record, keeping the position of the latest for each key and truncating any incomplete final record
+     */
+    private void rebuildIndex() throws IOException {
+        final long size = this.channel.size();
+        long position = 0;
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(header, position);
+            final int length = header.getInt(0);
+            if (length <= 0 || position + HEADER_SIZE + length > size) {
+                break;
+            }
+            final ByteBuffer record = ByteBuffer.allocate(length);
+            readFully(record, position + HEADER_SIZE);
+            record.flip();
+            record.getLong();
+            final K key = this.keySerializer.deserialize(readBytes(record));
+            final int valueLength = record.getInt();
+            final Long previous = valueLength == REMOVED ? this.index.remove(key) : this.index.put(key,
+                    Long.valueOf(position));
+            if (previous != null) {
+                this.garbage += recordSize(previous.longValue());
+            }
+            if (valueLength == REMOVED) {
+                this.garbage += HEADER_SIZE + length;
+            }
+            position += HEADER_SIZE + length;
+        }
+        if (position < size) {
+            Log.warn("Discarding %d bytes of incomplete records from %s", Long.valueOf(size - position), this.file);
+            this.channel.truncate(position);
+        }
+        this.channel.position(position);
+    }
+
+    private long recordSize(final long position) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, position);
+        return HEADER_SIZE + header.getInt(0);
+    }
+
+    private void readFully(final ByteBuffer buffer, final long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            final int read = this.channel.read(buffer, offset);
+            if (read < 0) {
+                throw new IOException(String.format("unexpected end of %s at %d", this.file, Long.valueOf(offset)));
+            }
+            offset += read;
+        }
+    }
+
+    private static byte[] readBytes(final ByteBuffer record) {
+        final byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public V get(final K key) {
+        final StoredValue<V> stored = getStored(key);
+        return stored == null ? null : stored.getValue();
+    }
+
+    @Override
+    public StoredValue<V> getStored(final K key) {
+        this.lock.readLock().lock();
+        try {
+            // positions change when the file is compacted, so are only read while holding the lock
+            final Long position = this.index.get(key);
+            if (position == null) {
+                return null;
+            }
+            final ByteBuffer record = readRecord(position.longValue());
+            final long writeTime = record.getLong();
+            final long maxAge = this.expireAfterWriteMillis;
+            if (maxAge >= 0 && System.currentTimeMillis() - writeTime >= maxAge) {
+                return null;
+            }
+            readBytes(record);
+            return new StoredValue<V>(this.valueSerializer.deserialize(readBytes(record)), writeTime);
+        } catch (final IOException e) {
+            throw new IllegalStateException(String.format("Couldn't read '%s' from %s", key, this.file), e);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private ByteBuffer readRecord(final long position) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, position);
+        final ByteBuffer record = ByteBuffer.allocate(header.getInt(0));
+        readFully(record, position + HEADER_SIZE);
+        record.flip();
+        return record;
+    }
+
+    @Override
+    public void put(final K key, final V value) {
+        put(key, value, System.currentTimeMillis());
+    }
+
+    @Override
+    public void put(final K key, final V value, final long writeTimeMillis) {
+        append(key, this.valueSerializer.serialize(checkNotNull(value)), writeTimeMillis);
+    }
+
+    @Override
+    public void remove(final K key) {
+        if (this.index.containsKey(key)) {
+            append(key, null, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * append a record for the given key, or a removal if the value is null
+     */
+    private void append(final K key, final byte[] value, final long writeTimeMillis) {
+        final byte[] keyBytes = this.keySerializer.serialize(checkNotNull(key));
+        final int length = 8 + 4 + keyBytes.length + 4 + (value == null ? 0 : value.length);
+        final ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.putInt(length).putLong(writeTimeMillis).putInt(keyBytes.length).put(keyBytes);
+        if (value == null) {
+            record.putInt(REMOVED);
+        } else {
+            record.putInt(value.length).put(value);
+        }
+        record.flip();
+
+        final boolean wasteful;
+        this.lock.readLock().lock();
+        try {
+            synchronized (this) {
+                final long position = this.channel.size();
+                while (record.hasRemaining()) {
+                    this.channel.write(record, position + record.position());
+                }
+                final Long previous = value == null ? this.index.remove(key) : this.index.put(key,
+                        Long.valueOf(position));
+                if (previous != null) {
+                    this.garbage += recordSize(previous.longValue());
+                }
+                if (value == null) {
+                    this.garbage += HEADER_SIZE + length;
+                }
+                wasteful = isWasteful();
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException(String.format("Couldn't write '%s' to %s", key, this.file), e);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        if (wasteful) {
+            try {
+                compact(true);
+            } catch (final IllegalStateException e) {
+                // the record was written, so the store is merely larger than it need be
+                Log.warn("%s: %s", e.getMessage(), e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @return true if more than half of the file is taken by superseded records. Must be called whilst holding the
+     *         read lock and this store's monitor, or the write lock
+     */
+    private boolean isWasteful() throws IOException {
+        final long size = this.channel.size();
+        return size >= MIN_COMPACTION_SIZE && this.garbage * 2 > size;
+    }
+
+    /**
+     * copy the live records into a new file, replacing this store's file
+     */
+    public void compact() {
+        compact(false);
+    }
+
+    private void compact(final boolean onlyIfWasteful) {
+        final File compacted = new File(this.file.getPath() + ".compact");
+        this.lock.writeLock().lock();
+        try {
+            // several writers may have found the file wasteful, but only the first need compact it
+            if (onlyIfWasteful && !isWasteful()) {
+                return;
+            }
+            final FileChannel target = new RandomAccessFile(compacted, "rw").getChannel();
+            final Map<K, Long> positions = Maps.newHashMap();
+            try {
+                target.truncate(0);
+                for (final Map.Entry<K, Long> entry : this.index.entrySet()) {
+                    final long position = entry.getValue().longValue();
+                    final long size = recordSize(position);
+                    positions.put(entry.getKey(), Long.valueOf(target.position()));
+                    long copied = 0;
+                    while (copied < size) {
+                        copied += this.channel.transferTo(position + copied, size - copied, target);
+                    }
+                }
+                target.force(true);
+            } finally {
+                target.close();
+            }
+            replaceWith(compacted);
+            for (final Map.Entry<K, Long> entry : positions.entrySet()) {
+                this.index.put(entry.getKey(), entry.getValue());
+            }
+            synchronized (this) {
+                this.garbage = 0;
+            }
+        } catch (final IOException e) {
+            compacted.delete();
+            throw new IllegalStateException(String.format("Couldn't compact %s", this.file), e);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Swap the compacted file into place. The original file is only deleted once its replacement is in place, and
+     * should the swap fail the store carries on with the original file. Must be called whilst holding the write lock
+     */
+    private void replaceWith(final File compacted) throws IOException {
+        if (compacted.renameTo(this.file)) {
+            this.channel.close();
+            this.channel = open(this.file);
+            return;
+        }
+
+        // some platforms cannot rename over an existing (or open) file, so move the original aside first
+        final File backup = new File(this.file.getPath() + ".backup");
+        this.channel.close();
+        final boolean movedAside = (!backup.exists() || backup.delete()) && this.file.renameTo(backup);
+        if (movedAside && compacted.renameTo(this.file)) {
+            this.channel = open(this.file);
+            backup.delete();
+            return;
+        }
+        if (movedAside && !backup.renameTo(this.file)) {
+            this.channel = open(backup);
+            throw new IOException(String.format("Couldn't replace %s with %s, and its records remain in %s",
+                    this.file, compacted, backup));
+        }
+        this.channel = open(this.file);
+        throw new IOException(String.format("Couldn't replace %s with %s", this.file, compacted));
+    }
+
+    /**
+     * @return a channel on the given file, positioned at its end
+     */
+    private static FileChannel open(final File storeFile) throws IOException {
+        final FileChannel opened = new RandomAccessFile(storeFile, "rw").getChannel();
+        opened.position(opened.size());
+        return opened;
+    }
+
+    @Override
+    public Iterable<K> keys() {
+        return ImmutableSet.copyOf(this.index.keySet());
+    }
+
+    /**
+     * @return the number of entries in the store
+     */
+    public int size() {
+        return this.index.size();
+    }
+
+    /**
+     * force any written records to disk
+     */
+    public void sync() {
+        this.lock.readLock().lock();
+        try {
+            this.channel.force(false);
+        } catch (final IOException e) {
+            throw new IllegalStateException(String.format("Couldn't sync %s", this.file), e);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            this.channel.force(true);
+            this.channel.close();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DiskStore[%s, %d entries]", this.file, Integer.valueOf(size()));
+    }
+}
@@ -0,0 +1,25 @@
+package com.porpoise.common.concurrent;
+
+/**
+ * Notified when a cache entry is evicted (because it expired, the cache exceeded its maximum size or weight, or a
+ * weakly/softly held key or value was collected), as opposed to being explicitly removed or replaced.
+ * 
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ */
+interface EvictionListener<K, V> {
+    /**
+     * @param key
+     *            the evicted key. This may be null if the key had been garbage collected
+     * @param value
+     *            the evicted value. This may be null if the value had been garbage collected
+     * @param writeTimeMillis
+     *            the time the entry was written, in milliseconds since the epoch, or the time of its eviction if that
+     *            is not known
+     * @param expired
+     *            true if the entry had expired, rather than being evicted to make room or collected
+     */
+    void onEviction(K key, V value, long writeTimeMillis, boolean expired);
+}
@@ -0,0 +1,162 @@
+package com.porpoise.common.concurrent;
+
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of the statistics of an {@link InstrumentedExecutor}.
+ * 
+ * The histograms are bucketed by powers of two: the count at index 'n' is the number of tasks whose duration was at
+ * least 2^(n-1) but less than 2^n nanoseconds.
+ * 
+ * @see InstrumentedExecutor#stats()
+ */
+public final class ExecutorStatistics {
+    private final long submittedCount;
+
+    private final long completedCount;
+
+    private final long failedCount;
+
+    private final long rejectedCount;
+
+    private final long totalQueueWaitNanos;
+
+    private final long totalRunTimeNanos;
+
+    private final long[] queueWaitHistogram;
+
+    private final long[] runTimeHistogram;
+
+    ExecutorStatistics(final long submitted, final long completed, final long failed, final long rejected,
+            final long totalQueueWait, final long totalRunTime, final long[] queueWait, final long[] runTime) {
+        this.submittedCount = submitted;
+        this.completedCount = completed;
+        this.failedCount = failed;
+        this.rejectedCount = rejected;
+        this.totalQueueWaitNanos = totalQueueWait;
+        this.totalRunTimeNanos = totalRunTime;
+        this.queueWaitHistogram = queueWait;
+        this.runTimeHistogram = runTime;
+    }
+
+    /**
+     * @return the number of tasks accepted by the executor
+     */
+    public long submittedCount() {
+        return this.submittedCount;
+    }
+
+    /**
+     * @return the number of tasks which ran to completion
+     */
+    public long completedCount() {
+        return this.completedCount;
+    }
+
+    /**
+     * @return the number of tasks which threw an exception
+     */
+    public long failedCount() {
+        return this.failedCount;
+    }
+
+    /**
+     * @return the number of tasks the executor rejected
+     */
+    public long rejectedCount() {
+        return this.rejectedCount;
+    }
+
+    /**
+     * @return the number of accepted tasks which had not finished when the snapshot was taken
+     */
+    public long pendingCount() {
+        return Math.max(0, this.submittedCount - this.completedCount - this.failedCount);
+    }
+
+    /**
+     * @return the mean time tasks waited to be run, in nanoseconds
+     */
+    public double averageQueueWaitNanos() {
+        final long started = count(this.queueWaitHistogram);
+        return started == 0 ? 0.0 : (double) this.totalQueueWaitNanos / started;
+    }
+
+    /**
+     * @return the mean time tasks took to run, in nanoseconds
+     */
+    public double averageRunTimeNanos() {
+        final long finished = this.completedCount + this.failedCount;
+        return finished == 0 ? 0.0 : (double) this.totalRunTimeNanos / finished;
+    }
+
+    /**
+     * @param percentile
+     *            the percentile, between 0 and 100
+     * @return the upper bound of the histogram bucket holding the given percentile of queue waits, in nanoseconds
+     */
+    public long queueWaitPercentileNanos(final double percentile) {
+        return percentile(this.queueWaitHistogram, percentile);
+    }
+
+    /**
+     * @param percentile
+     *            the percentile, between 0 and 100
+     * @return the upper bound of the histogram bucket holding the given percentile of run times, in nanoseconds
+     */
+    public long runTimePercentileNanos(final double percentile) {
+        return percentile(this.runTimeHistogram, percentile);
+    }
+
+    /**
+     * @return a copy of the queue wait histogram
+     */
+    public long[] queueWaitHistogram() {
+        return this.queueWaitHistogram.clone();
+    }
+
+    /**
+     * @return a copy of the run time histogram
+     */
+    public long[] runTimeHistogram() {
+        return this.runTimeHistogram.clone();
+    }
+
+    private static long count(final long[] histogram) {
+        long total = 0;
+        for (final long bucket : histogram) {
+            total += bucket;
+        }
+        return total;
+    }
+
+    private static long percentile(final long[] histogram, final double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException(String.format("percentile must be between 0 and 100: %s",
+                    Double.valueOf(percentile)));
+        }
+        final long total = count(histogram);
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE : (1L << i) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ExecutorStatistics[submitted=%d, completed=%d, failed=%d, rejected=%d, "
+                + "averageQueueWait=%.0fns, averageRunTime=%.0fns, queueWait=%s, runTime=%s]",
+                Long.valueOf(this.submittedCount), Long.valueOf(this.completedCount), Long.valueOf(this.failedCount),
+                Long.valueOf(this.rejectedCount), Double.valueOf(averageQueueWaitNanos()),
+                Double.valueOf(averageRunTimeNanos()), Arrays.toString(this.queueWaitHistogram),
+                Arrays.toString(this.runTimeHistogram));
+    }
+}
@@ -0,0 +1,132 @@
+package com.porpoise.common.concurrent;
+
+/**
+ * A probabilistic estimate of how often keys have been used recently (a count-min sketch of 4-bit counters, as used by
+ * the TinyLFU admission policy).
+ * 
+ * Each key is counted in four of sixteen counters packed into a single long, the estimate being the minimum of the four.
+ * Once the number of increments reaches the sample size all counters are halved, so that the popularity of keys ages
+ * over time.
+ * 
+ * This class is not thread-safe - it is expected to be guarded by its owner's lock.
+ */
+final class FrequencySketch {
+    private static final long[] SEED = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+            0xcbf29ce484222325L };
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private static final int MAX_FREQUENCY = 15;
+
+    private long[] table;
+
+    private int tableMask;
+
+    private int sampleSize;
+
+    private int size;
+
+    /**
+     * @param expectedSize
+     *            the number of entries initially expected to be held by the cache
+     */
+    FrequencySketch(final long expectedSize) {
+        this.table = new long[0];
+        ensureCapacity(expectedSize);
+    }
+
+    /**
+     * Grow the sketch to accurately estimate the popularity of the given number of entries. Growing the sketch discards
+     * the counts gathered so far, so it is grown to the next power of two
+     * 
+     * @param expectedSize
+     *            the number of entries held by the cache
+     */
+    void ensureCapacity(final long expectedSize) {
+        final int maximum = (int) Math.min(Math.max(expectedSize, 1), Integer.MAX_VALUE >>> 1);
+        if (this.table.length >= maximum) {
+            return;
+        }
+        this.table = new long[ceilingPowerOfTwo(maximum)];
+        this.tableMask = this.table.length - 1;
+        this.sampleSize = 10 * maximum;
+        this.size = 0;
+    }
+
+    private static int ceilingPowerOfTwo(final int x) {
+        return 1 << -Integer.numberOfLeadingZeros(x - 1);
+    }
+
+    /**
+     * @param key
+     *            the key to estimate
+     * @return the estimated number of times the key has been used, up to a maximum of fifteen
+     */
+    int frequency(final Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < 4; i++) {
+            final int index = indexOf(hash, i);
+            final int count = (int) ((this.table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * record a use of the given key
+     * 
+     * @param key
+     */
+    void increment(final Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++this.size == this.sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(final int index, final int counter) {
+        final int offset = counter << 2;
+        final long mask = 0xfL << offset;
+        if ((this.table[index] & mask) != mask) {
+            this.table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * halve every counter, ageing the popularity of all keys
+     */
+    private void reset() {
+        int oddCounters = 0;
+        for (int i = 0; i < this.table.length; i++) {
+            oddCounters += Long.bitCount(this.table[i] & ONE_MASK);
+            this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+        }
+        this.size = (this.size >>> 1) - (oddCounters >>> 2);
+    }
+
+    private int indexOf(final int item, final int i) {
+        long hash = (item + SEED[i]) * SEED[i];
+        hash += hash >>> 32;
+        return (int) hash & this.tableMask;
+    }
+
+    /**
+     * apply a supplemental hash to guard against poor quality hash codes
+     */
+    private static int spread(final int value) {
+        int x = ((value >>> 16) ^ value) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,183 @@
+package com.porpoise.common.concurrent;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+
+/**
+ * An {@link ExecutorService} which records how long each task waits to be run, how long it runs for, and how many
+ * tasks are rejected, before delegating to another executor.
+ * 
+ * Timings are taken with {@link System#nanoTime()} and recorded in lock-free histograms and striped counters, so the
+ * overhead per task is a few atomic increments; nothing is logged. Read the figures with {@link #stats()}.
+ */
+public final class InstrumentedExecutor extends AbstractExecutorService {
+    private final ExecutorService delegate;
+
+    private final StripedCounter submitted = new StripedCounter();
+
+    private final StripedCounter completed = new StripedCounter();
+
+    private final StripedCounter failed = new StripedCounter();
+
+    private final StripedCounter rejected = new StripedCounter();
+
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+
+    private final LatencyHistogram runTime = new LatencyHistogram();
+
+    private InstrumentedExecutor(final ExecutorService executor) {
+        this.delegate = checkNotNull(executor);
+    }
+
+    /**
+     * @param executor
+     *            the executor to instrument
+     * @return an executor recording the timings of the tasks run by the given executor
+     */
+    public static InstrumentedExecutor instrument(final ExecutorService executor) {
+        return new InstrumentedExecutor(executor);
+    }
+
+    /**
+     * A task created by submit, invokeAll or invokeAny, which records whether it failed. The exception is caught by the
+     * future, so would otherwise be counted as a success
+     */
+    private static final class FailureRecordingTask<T> extends FutureTask<T> {
+        /** only read by the thread which ran the task */
+        boolean failed;
+
+        FailureRecordingTask(final Callable<T> callable) {
+            super(callable);
+        }
+
+        FailureRecordingTask(final Runnable runnable, final T result) {
+            super(runnable, result);
+        }
+
+        @Override
+        protected void setException(final Throwable error) {
+            this.failed = true;
+            super.setException(error);
+        }
+
+        /**
+         * @return true if the task is a future whose computation threw an exception
+         */
+        static boolean failed(final Runnable task) {
+            return task instanceof FailureRecordingTask<?> && ((FailureRecordingTask<?>) task).failed;
+        }
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(final Callable<T> callable) {
+        return new FailureRecordingTask<T>(callable);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(final Runnable runnable, final T value) {
+        return new FailureRecordingTask<T>(runnable, value);
+    }
+
+    /**
+     * A task, timed from when it was submitted
+     */
+    private final class TimedTask implements Runnable {
+        final Runnable task;
+
+        private final long submittedAt = System.nanoTime();
+
+        TimedTask(final Runnable runnable) {
+            this.task = runnable;
+        }
+
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public void run() {
+            final long start = System.nanoTime();
+            InstrumentedExecutor.this.queueWait.record(start - this.submittedAt);
+            boolean succeeded = false;
+            try {
+                this.task.run();
+                succeeded = !FailureRecordingTask.failed(this.task);
+            } finally {
+                InstrumentedExecutor.this.runTime.record(System.nanoTime() - start);
+                if (succeeded) {
+                    InstrumentedExecutor.this.completed.increment();
+                } else {
+                    InstrumentedExecutor.this.failed.increment();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        final TimedTask task = new TimedTask(checkNotNull(command));
+        this.submitted.increment();
+        try {
+            this.delegate.execute(task);
+        } catch (final RejectedExecutionException e) {
+            this.submitted.decrement();
+            this.rejected.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * @return a snapshot of the executor's statistics
+     */
+    public ExecutorStatistics stats() {
+        return new ExecutorStatistics(this.submitted.sum(), this.completed.sum(), this.failed.sum(),
+                this.rejected.sum(), this.queueWait.totalNanos(), this.runTime.totalNanos(), this.queueWait.snapshot(),
+                this.runTime.snapshot());
+    }
+
+    @Override
+    public void shutdown() {
+        this.delegate.shutdown();
+    }
+
+    /**
+     * @return the tasks which never started, as they were originally submitted
+     */
+    @SuppressWarnings("synthetic-access")
+    @Override
+    public List<Runnable> shutdownNow() {
+        final List<Runnable> waiting = this.delegate.shutdownNow();
+        final List<Runnable> tasks = Lists.newArrayListWithCapacity(waiting.size());
+        for (final Runnable runnable : waiting) {
+            tasks.add(runnable instanceof InstrumentedExecutor.TimedTask ? ((TimedTask) runnable).task : runnable);
+        }
+        return tasks;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return this.delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return this.delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return this.delegate.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("InstrumentedExecutor[%s]", this.delegate);
+    }
+}
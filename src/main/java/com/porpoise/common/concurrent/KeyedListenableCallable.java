@@ -4,9 +4,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.Collection;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CopyOnWriteArrayList;
 
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
 
 /**
  * A {@link Callable} which delegates to another callable. Listeners can register for notification of the underlying
@@ -18,7 +17,8 @@ import com.google.common.collect.Lists;
  *            the value type
  */
 class KeyedListenableCallable<K, T> implements Callable<T> {
-    private final Collection<CallableListener<K, T>> listeners;
+    /** replaced rather than mutated, so that a shared immutable list can be used without copying */
+    private volatile ImmutableList<CallableListener<K, T>> listeners;
 
     private final Callable<T> delegate;
 
@@ -27,7 +27,22 @@ class KeyedListenableCallable<K, T> implements Callable<T> {
     public KeyedListenableCallable(final K keyParam, final Callable<T> newCallable) {
         this.key = checkNotNull(keyParam);
         this.delegate = checkNotNull(newCallable);
-        this.listeners = new CopyOnWriteArrayList<CallableListener<K, T>>();
+        this.listeners = ImmutableList.of();
+    }
+
+    /**
+     * @param keyParam
+     *            the key associated with the callable
+     * @param newCallable
+     *            the delegate callable
+     * @param initialListeners
+     *            the listeners to notify on completion. An {@link ImmutableList} is used as-is, without copying
+     */
+    public KeyedListenableCallable(final K keyParam, final Callable<T> newCallable,
+            final Collection<? extends CallableListener<K, T>> initialListeners) {
+        this.key = checkNotNull(keyParam);
+        this.delegate = checkNotNull(newCallable);
+        this.listeners = ImmutableList.copyOf(initialListeners);
     }
 
     /**
@@ -35,15 +50,17 @@ class KeyedListenableCallable<K, T> implements Callable<T> {
      * 
      * @param callback
      */
-    public void addListener(final CallableListener<K, T> callback) {
+    public synchronized void addListener(final CallableListener<K, T> callback) {
         if (callback != null) {
-            this.listeners.add(callback);
+            this.listeners = ImmutableList.<CallableListener<K, T>> builder().addAll(this.listeners).add(callback)
+                    .build();
         }
     }
 
-    public void addListeners(final Iterable<CallableListener<K, T>> callbackIterable) {
+    public synchronized void addListeners(final Iterable<CallableListener<K, T>> callbackIterable) {
         if (callbackIterable != null) {
-            this.listeners.addAll(Lists.newArrayList(callbackIterable));
+            this.listeners = ImmutableList.<CallableListener<K, T>> builder().addAll(this.listeners)
+                    .addAll(callbackIterable).build();
         }
     }
 
@@ -63,14 +80,15 @@ class KeyedListenableCallable<K, T> implements Callable<T> {
         /*
          * Notify the listeners of either success or the exception
          */
+        final ImmutableList<CallableListener<K, T>> callbacks = this.listeners;
         if (exception == null) {
-            for (final CallableListener<K, T> callback : this.listeners) {
-                callback.onComplete(this.key, result);
+            for (int i = 0; i < callbacks.size(); i++) {
+                callbacks.get(i).onComplete(this.key, result);
             }
         } else {
             boolean rethrow = false;
-            for (final CallableListener<K, T> callback : this.listeners) {
-                final boolean doThrow = callback.onException(this.key, exception);
+            for (int i = 0; i < callbacks.size(); i++) {
+                final boolean doThrow = callbacks.get(i).onException(this.key, exception);
                 rethrow = rethrow || doThrow;
             }
             if (rethrow) {
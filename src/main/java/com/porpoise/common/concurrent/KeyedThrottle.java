@@ -0,0 +1,231 @@
+package com.porpoise.common.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
+
+/**
+ * Rate limits jobs per key (e.g. per tenant), sharing one scheduler and a map of small per-key states between all
+ * keys, so that hundreds of thousands of keys may be throttled at once.
+ * 
+ * Each key has its own {@link RateLimiter}. A job submitted while its key has a permit available is executed straight
+ * away; otherwise it is queued (up to the queue limit) on the shared scheduler until its permit is due, and beyond
+ * that it is rejected. Keys which have been idle for the idle time, with nothing queued, are evicted by a periodic
+ * sweep and start afresh with a full bucket if used again.
+ * 
+ * @param <K>
+ *            the key type
+ */
+public final class KeyedThrottle<K> {
+    /** the default time after which idle keys are evicted */
+    public static final long DEFAULT_IDLE_MINUTES = 1;
+
+    /** marks a state which has been evicted */
+    private static final int EVICTED = -1;
+
+    private final Executor executor;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Ticker ticker;
+
+    private final double permitsPerSecond;
+
+    private final int burstSize;
+
+    private final int queueLimit;
+
+    private final long idleNanos;
+
+    private final ConcurrentMap<K, KeyState> states = Maps.newConcurrentMap();
+
+    private final ScheduledFuture<?> sweep;
+
+    /**
+     * @param executorService
+     *            the executor used to run jobs
+     * @param permitsPerSecond
+     *            the rate at which each key's jobs may run
+     * @param burst
+     *            the number of each key's jobs which may run at once after a quiet period
+     * @param queueLimitPerKey
+     *            the maximum number of each key's jobs waiting for a permit
+     */
+    public KeyedThrottle(final Executor executorService, final double permitsPerSecond, final int burst,
+            final int queueLimitPerKey) {
+        this(executorService, Threads.getDefaultScheduler(), permitsPerSecond, burst, queueLimitPerKey,
+                DEFAULT_IDLE_MINUTES, TimeUnit.MINUTES, Ticker.systemTicker());
+    }
+
+    KeyedThrottle(final Executor executorService, final ScheduledExecutorService timer, final double rate,
+            final int burst, final int queueLimitPerKey, final long idle, final TimeUnit idleUnit, final Ticker source) {
+        checkArgument(rate > 0, "the rate must be positive");
+        checkArgument(burst > 0, "the burst size must be positive");
+        checkArgument(queueLimitPerKey >= 0, "the queue limit must not be negative");
+        checkArgument(idle > 0, "the idle time must be positive");
+        this.executor = checkNotNull(executorService);
+        this.scheduler = checkNotNull(timer);
+        this.permitsPerSecond = rate;
+        this.burstSize = burst;
+        this.queueLimit = queueLimitPerKey;
+        this.idleNanos = idleUnit.toNanos(idle);
+        this.ticker = checkNotNull(source);
+        this.sweep = timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                cleanUp();
+            }
+        }, this.idleNanos, this.idleNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Execute the job, now if the key has a permit available, or once it does if the key's queue is not full
+     * 
+     * @param key
+     *            the key to throttle the job by
+     * @param job
+     *            the job to execute
+     * @return false if the job was rejected as the key's queue is full
+     */
+    public boolean submit(final K key, final Runnable job) {
+        checkNotNull(job);
+        final KeyState state = hold(checkNotNull(key));
+        if (state.limiter.tryAcquire()) {
+            state.release();
+            this.executor.execute(job);
+            return true;
+        }
+        // the hold counts towards the queue, so the queue is full if it holds more than the limit
+        if (state.queued.get() > this.queueLimit) {
+            state.release();
+            return false;
+        }
+        final long delay = state.limiter.reserve(1);
+        this.scheduler.schedule(new Runnable() {
+            @SuppressWarnings("synthetic-access")
+            @Override
+            public void run() {
+                state.release();
+                KeyedThrottle.this.executor.execute(job);
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+        return true;
+    }
+
+    /**
+     * @param key
+     *            the key to throttle the job by
+     * @param job
+     *            the job to throttle
+     * @return a runnable which submits the job for the given key whenever run
+     */
+    public Runnable throttle(final K key, final Runnable job) {
+        checkNotNull(key);
+        checkNotNull(job);
+        return new Runnable() {
+            @Override
+            public void run() {
+                submit(key, job);
+            }
+        };
+    }
+
+    /**
+     * @return the state of the given key, held so that it cannot be evicted until released
+     */
+    private KeyState hold(final K key) {
+        while (true) {
+            KeyState state = this.states.get(key);
+            if (state == null) {
+                final KeyState created = new KeyState();
+                state = this.states.putIfAbsent(key, created);
+                if (state == null) {
+                    state = created;
+                }
+            }
+            if (state.tryHold()) {
+                return state;
+            }
+            this.states.remove(key, state);
+        }
+    }
+
+    /**
+     * evict the keys which have been idle for the idle time and have no queued jobs
+     */
+    public void cleanUp() {
+        final long now = this.ticker.read();
+        for (final Map.Entry<K, KeyState> entry : this.states.entrySet()) {
+            final KeyState state = entry.getValue();
+            if (now - state.lastAccess >= this.idleNanos && state.queued.compareAndSet(0, EVICTED)) {
+                this.states.remove(entry.getKey(), state);
+            }
+        }
+    }
+
+    /**
+     * @return the number of keys currently tracked
+     */
+    public int size() {
+        return this.states.size();
+    }
+
+    /**
+     * stop sweeping idle keys. Jobs already queued are still executed
+     */
+    public void dispose() {
+        this.sweep.cancel(false);
+    }
+
+    /**
+     * The limiter and queued job count of a single key
+     */
+    private final class KeyState {
+        @SuppressWarnings("synthetic-access")
+        final RateLimiter limiter = new RateLimiter(KeyedThrottle.this.permitsPerSecond, KeyedThrottle.this.burstSize,
+                KeyedThrottle.this.ticker);
+
+        /** the jobs queued plus the submissions in progress, or EVICTED */
+        final AtomicInteger queued = new AtomicInteger();
+
+        volatile long lastAccess;
+
+        /**
+         * @return false if the state has been evicted
+         */
+        @SuppressWarnings("synthetic-access")
+        boolean tryHold() {
+            int current;
+            do {
+                current = this.queued.get();
+                if (current == EVICTED) {
+                    return false;
+                }
+            } while (!this.queued.compareAndSet(current, current + 1));
+            this.lastAccess = KeyedThrottle.this.ticker.read();
+            return true;
+        }
+
+        @SuppressWarnings("synthetic-access")
+        void release() {
+            this.lastAccess = KeyedThrottle.this.ticker.read();
+            this.queued.decrementAndGet();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("KeyedThrottle[%.2f/s, burst=%d, %d keys]", Double.valueOf(this.permitsPerSecond),
+                Integer.valueOf(this.burstSize), Integer.valueOf(size()));
+    }
+}
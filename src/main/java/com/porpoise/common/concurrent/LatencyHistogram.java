@@ -0,0 +1,49 @@
+package com.porpoise.common.concurrent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations, in nanoseconds. Durations are recorded in buckets of increasing powers of two,
+ * so bucket 'n' counts the durations of at least 2^(n-1) but less than 2^n nanoseconds (bucket zero counting durations
+ * of zero). The total duration is kept so that a mean may be computed.
+ */
+final class LatencyHistogram {
+    /** one bucket for zero, then one for each power of two */
+    static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final StripedCounter totalNanos = new StripedCounter();
+
+    /**
+     * @param nanos
+     *            the duration to record
+     */
+    void record(final long nanos) {
+        final long duration = Math.max(nanos, 0);
+        this.buckets.incrementAndGet(bucketFor(duration));
+        this.totalNanos.add(duration);
+    }
+
+    static int bucketFor(final long nanos) {
+        return Math.min(BUCKETS - Long.numberOfLeadingZeros(nanos), BUCKETS - 1);
+    }
+
+    /**
+     * @return the total of the durations recorded
+     */
+    long totalNanos() {
+        return this.totalNanos.sum();
+    }
+
+    /**
+     * @return a copy of the bucket counts
+     */
+    long[] snapshot() {
+        final long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.buckets.get(i);
+        }
+        return counts;
+    }
+}
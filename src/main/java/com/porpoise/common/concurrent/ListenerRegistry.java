@@ -0,0 +1,173 @@
+package com.porpoise.common.concurrent;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+
+/**
+ * An immutable snapshot of the listeners subscribed to a {@link DelayedCache} or {@link SingleFlight}. Listeners may be
+ * notified of every key, of specific keys, or of the keys matching a predicate.
+ * 
+ * Registering or removing a listener creates a new snapshot, so a single snapshot can be shared by every computation
+ * and notifying its listeners requires no copying or allocation.
+ * 
+ * @param <K>
+ *            the key type
+ * @param <T>
+ *            the value type
+ */
+final class ListenerRegistry<K, T> implements CallableListener<K, T> {
+    private static final ListenerRegistry<Object, Object> EMPTY = new ListenerRegistry<Object, Object>(
+            ImmutableList.<CallableListener<Object, Object>> of(),
+            ImmutableListMultimap.<Object, CallableListener<Object, Object>> of(),
+            ImmutableList.<Predicate<? super Object>> of(), ImmutableList.<CallableListener<Object, Object>> of());
+
+    /** listeners notified of every key */
+    private final ImmutableList<CallableListener<K, T>> global;
+
+    /** listeners notified of specific keys */
+    private final ImmutableListMultimap<K, CallableListener<K, T>> byKey;
+
+    /** the predicates of listeners notified of matching keys */
+    private final ImmutableList<Predicate<? super K>> predicates;
+
+    /** the listeners for each predicate */
+    private final ImmutableList<CallableListener<K, T>> predicateListeners;
+
+    private ListenerRegistry(final ImmutableList<CallableListener<K, T>> globalListeners,
+            final ImmutableListMultimap<K, CallableListener<K, T>> keyListeners,
+            final ImmutableList<Predicate<? super K>> keyPredicates,
+            final ImmutableList<CallableListener<K, T>> matchingListeners) {
+        this.global = globalListeners;
+        this.byKey = keyListeners;
+        this.predicates = keyPredicates;
+        this.predicateListeners = matchingListeners;
+    }
+
+    /**
+     * @return a registry with no listeners
+     */
+    @SuppressWarnings("unchecked")
+    static <K, T> ListenerRegistry<K, T> empty() {
+        // safe, as the empty registry holds no keys, values or listeners
+        return (ListenerRegistry<K, T>) (ListenerRegistry<?, ?>) EMPTY;
+    }
+
+    /**
+     * @return true if no listeners are registered
+     */
+    boolean isEmpty() {
+        return this.global.isEmpty() && this.byKey.isEmpty() && this.predicates.isEmpty();
+    }
+
+    /**
+     * @return true if the listener is notified of every key
+     */
+    boolean containsGlobal(final CallableListener<K, T> listener) {
+        return this.global.contains(listener);
+    }
+
+    /**
+     * @return true if the listener is subscribed in any way
+     */
+    boolean contains(final CallableListener<?, ?> listener) {
+        return this.global.contains(listener) || this.byKey.containsValue(listener)
+                || this.predicateListeners.contains(listener);
+    }
+
+    /**
+     * @return a copy of this registry which also notifies the given listener of every key
+     */
+    ListenerRegistry<K, T> withListener(final CallableListener<K, T> listener) {
+        final ImmutableList<CallableListener<K, T>> newGlobal = ImmutableList.<CallableListener<K, T>> builder()
+                .addAll(this.global).add(checkNotNull(listener)).build();
+        return new ListenerRegistry<K, T>(newGlobal, this.byKey, this.predicates, this.predicateListeners);
+    }
+
+    /**
+     * @return a copy of this registry which also notifies the given listener of the given key
+     */
+    ListenerRegistry<K, T> withListener(final K key, final CallableListener<K, T> listener) {
+        final ImmutableListMultimap<K, CallableListener<K, T>> newByKey = ImmutableListMultimap
+                .<K, CallableListener<K, T>> builder().putAll(this.byKey)
+                .put(checkNotNull(key), checkNotNull(listener)).build();
+        return new ListenerRegistry<K, T>(this.global, newByKey, this.predicates, this.predicateListeners);
+    }
+
+    /**
+     * @return a copy of this registry which also notifies the given listener of keys matching the given predicate
+     */
+    ListenerRegistry<K, T> withListener(final Predicate<? super K> predicate, final CallableListener<K, T> listener) {
+        final ImmutableList<Predicate<? super K>> newPredicates = ImmutableList.<Predicate<? super K>> builder()
+                .addAll(this.predicates).add(checkNotNull(predicate)).build();
+        final ImmutableList<CallableListener<K, T>> newListeners = ImmutableList.<CallableListener<K, T>> builder()
+                .addAll(this.predicateListeners).add(checkNotNull(listener)).build();
+        return new ListenerRegistry<K, T>(this.global, this.byKey, newPredicates, newListeners);
+    }
+
+    /**
+     * @return a copy of this registry without any subscriptions of the given listener
+     */
+    ListenerRegistry<K, T> without(final CallableListener<?, ?> listener) {
+        final ImmutableList.Builder<CallableListener<K, T>> newGlobal = ImmutableList.builder();
+        for (final CallableListener<K, T> existing : this.global) {
+            if (!existing.equals(listener)) {
+                newGlobal.add(existing);
+            }
+        }
+        final ImmutableListMultimap.Builder<K, CallableListener<K, T>> newByKey = ImmutableListMultimap.builder();
+        for (final Map.Entry<K, CallableListener<K, T>> entry : this.byKey.entries()) {
+            if (!entry.getValue().equals(listener)) {
+                newByKey.put(entry.getKey(), entry.getValue());
+            }
+        }
+        final ImmutableList.Builder<Predicate<? super K>> newPredicates = ImmutableList.builder();
+        final ImmutableList.Builder<CallableListener<K, T>> newListeners = ImmutableList.builder();
+        for (int i = 0; i < this.predicates.size(); i++) {
+            if (!this.predicateListeners.get(i).equals(listener)) {
+                newPredicates.add(this.predicates.get(i));
+                newListeners.add(this.predicateListeners.get(i));
+            }
+        }
+        return new ListenerRegistry<K, T>(newGlobal.build(), newByKey.build(), newPredicates.build(),
+                newListeners.build());
+    }
+
+    @Override
+    public void onComplete(final K key, final T result) {
+        for (int i = 0; i < this.global.size(); i++) {
+            this.global.get(i).onComplete(key, result);
+        }
+        final ImmutableList<CallableListener<K, T>> keyed = this.byKey.get(key);
+        for (int i = 0; i < keyed.size(); i++) {
+            keyed.get(i).onComplete(key, result);
+        }
+        for (int i = 0; i < this.predicates.size(); i++) {
+            if (this.predicates.get(i).apply(key)) {
+                this.predicateListeners.get(i).onComplete(key, result);
+            }
+        }
+    }
+
+    @Override
+    public boolean onException(final K key, final Exception exp) {
+        boolean rethrow = false;
+        for (int i = 0; i < this.global.size(); i++) {
+            rethrow |= this.global.get(i).onException(key, exp);
+        }
+        final ImmutableList<CallableListener<K, T>> keyed = this.byKey.get(key);
+        for (int i = 0; i < keyed.size(); i++) {
+            rethrow |= keyed.get(i).onException(key, exp);
+        }
+        for (int i = 0; i < this.predicates.size(); i++) {
+            if (this.predicates.get(i).apply(key)) {
+                rethrow |= this.predicateListeners.get(i).onException(key, exp);
+            }
+        }
+        return rethrow;
+    }
+}
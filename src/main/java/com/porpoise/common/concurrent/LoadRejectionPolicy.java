@@ -0,0 +1,21 @@
+package com.porpoise.common.concurrent;
+
+/**
+ * What a {@link DelayedCache} does when its loader pool cannot accept another computation
+ */
+public enum LoadRejectionPolicy {
+    /**
+     * serve the default value. The computation is retried when the value is next requested
+     */
+    SERVE_DEFAULT,
+
+    /**
+     * compute the value in the requesting thread
+     */
+    CALLER_RUNS,
+
+    /**
+     * throw the {@link java.util.concurrent.RejectedExecutionException} to the requesting thread
+     */
+    FAIL_FAST;
+}
@@ -0,0 +1,479 @@
+package com.porpoise.common.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.porpoise.common.log.Log;
+
+/**
+ * A chain of stages (e.g. fetch, parse, enrich, store), each transforming the items passed to it by the stage before.
+ * 
+ * Every stage has its own bounded queue and its own threads, so stages run concurrently and a slow stage can be given
+ * more threads. When a stage's queue is full, the stage before it blocks until there is room, so a pipeline never
+ * buffers more than the sum of its queue capacities however fast items are submitted.
+ * 
+ * Each submitted item yields a future of its final result, and {@link CallableListener}s may be registered to be
+ * notified of every item's result keyed by the item submitted. An item whose stage throws an exception skips the
+ * remaining stages. The queue waits and run times of each stage are recorded, see {@link #stats()}.
+ * 
+ * <pre>
+ * Pipeline&lt;URL, Record&gt; pipeline = Pipeline.&lt;URL&gt; builder(&quot;import&quot;)
+ *         .stage(&quot;fetch&quot;, fetch, 8, 100)
+ *         .stage(&quot;parse&quot;, parse, 2, 100)
+ *         .start();
+ * ListenableFuture&lt;Record&gt; record = pipeline.submit(url);
+ * </pre>
+ * 
+ * @param <I>
+ *            the type of item submitted
+ * @param <O>
+ *            the type of item produced by the final stage
+ */
+public final class Pipeline<I, O> {
+    private final String name;
+
+    private final ImmutableList<Stage> stages;
+
+    private final List<CallableListener<I, O>> listeners = new CopyOnWriteArrayList<CallableListener<I, O>>();
+
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    /**
+     * @param <I>
+     *            the type of item submitted
+     * @param pipelineName
+     *            the name of the pipeline, used to name its threads
+     * @return a builder of a pipeline with no stages
+     */
+    public static <I> Builder<I, I> builder(final String pipelineName) {
+        return new Builder<I, I>(checkNotNull(pipelineName), ImmutableList.<StageSpec> of());
+    }
+
+    /**
+     * An immutable builder of pipelines, adding a stage at a time
+     * 
+     * @param <I>
+     *            the type of item submitted
+     * @param <O>
+     *            the type of item produced by the last stage
+     */
+    public static final class Builder<I, O> {
+        private final String name;
+
+        private final ImmutableList<StageSpec> stages;
+
+        Builder(final String pipelineName, final ImmutableList<StageSpec> stageSpecs) {
+            this.name = pipelineName;
+            this.stages = stageSpecs;
+        }
+
+        /**
+         * @param <R>
+         *            the type of item produced by the new stage
+         * @param stageName
+         *            the name of the stage, unique within the pipeline
+         * @param function
+         *            the transformation applied by the stage
+         * @param parallelism
+         *            the number of threads running the stage
+         * @param queueCapacity
+         *            the maximum number of items waiting for the stage
+         * @return a builder of the pipeline with the stage added to the end
+         */
+        @SuppressWarnings({ "unchecked", "synthetic-access" })
+        public <R> Builder<I, R> stage(final String stageName, final Function<? super O, ? extends R> function,
+                final int parallelism, final int queueCapacity) {
+            checkArgument(parallelism > 0, "parallelism must be positive");
+            checkArgument(queueCapacity > 0, "queue capacity must be positive");
+            for (final StageSpec existing : this.stages) {
+                checkArgument(!existing.name.equals(stageName), "duplicate stage '%s'", stageName);
+            }
+            final StageSpec spec = new StageSpec(checkNotNull(stageName),
+                    (Function<Object, Object>) checkNotNull(function), parallelism, queueCapacity);
+            return new Builder<I, R>(this.name, ImmutableList.<StageSpec> builder().addAll(this.stages).add(spec)
+                    .build());
+        }
+
+        /**
+         * @return a pipeline of the stages added, with their threads started
+         */
+        @SuppressWarnings("synthetic-access")
+        public Pipeline<I, O> start() {
+            checkArgument(!this.stages.isEmpty(), "a pipeline needs at least one stage");
+            return new Pipeline<I, O>(this.name, this.stages);
+        }
+    }
+
+    /**
+     * The definition of a stage
+     */
+    private static final class StageSpec {
+        final String name;
+
+        final Function<Object, Object> function;
+
+        final int parallelism;
+
+        final int queueCapacity;
+
+        StageSpec(final String stageName, final Function<Object, Object> fn, final int threads, final int capacity) {
+            this.name = stageName;
+            this.function = fn;
+            this.parallelism = threads;
+            this.queueCapacity = capacity;
+        }
+    }
+
+    /**
+     * An item passing through the pipeline
+     */
+    private static final class Item {
+        final Object input;
+
+        final SettableFuture<Object> result = SettableFuture.create();
+
+        /** the output of the last stage the item passed through */
+        Object value;
+
+        long enqueuedAt;
+
+        Item(final Object submitted) {
+            this.input = submitted;
+            this.value = submitted;
+        }
+    }
+
+    private Pipeline(final String pipelineName, final ImmutableList<StageSpec> specs) {
+        this.name = pipelineName;
+        final List<Stage> created = Lists.newArrayListWithCapacity(specs.size());
+        Stage next = null;
+        for (final StageSpec spec : specs.reverse()) {
+            next = new Stage(spec, next);
+            created.add(0, next);
+        }
+        this.stages = ImmutableList.copyOf(created);
+        for (final Stage stage : this.stages) {
+            stage.start();
+        }
+    }
+
+    /**
+     * A running stage: its queue, threads and statistics
+     */
+    private final class Stage implements Runnable {
+        private final StageSpec spec;
+
+        /** the stage items are passed to, or null if this is the last */
+        private final Stage next;
+
+        private final BlockingQueue<Item> queue;
+
+        private final ExecutorService workers;
+
+        private final StripedCounter submitted = new StripedCounter();
+
+        private final StripedCounter completed = new StripedCounter();
+
+        private final StripedCounter failed = new StripedCounter();
+
+        private final StripedCounter rejected = new StripedCounter();
+
+        private final LatencyHistogram queueWait = new LatencyHistogram();
+
+        private final LatencyHistogram runTime = new LatencyHistogram();
+
+        @SuppressWarnings("synthetic-access")
+        Stage(final StageSpec stageSpec, final Stage nextStage) {
+            this.spec = stageSpec;
+            this.next = nextStage;
+            this.queue = new ArrayBlockingQueue<Item>(stageSpec.queueCapacity);
+            this.workers = Executors.newFixedThreadPool(stageSpec.parallelism,
+                    Threads.newNamedThreadFactory(String.format("%s %s", Pipeline.this.name, stageSpec.name)));
+        }
+
+        void start() {
+            for (int i = 0; i < this.spec.parallelism; i++) {
+                this.workers.execute(this);
+            }
+        }
+
+        /**
+         * add the item to the queue, waiting for room if it is full
+         */
+        void put(final Item item) throws InterruptedException {
+            item.enqueuedAt = System.nanoTime();
+            this.submitted.increment();
+            try {
+                this.queue.put(item);
+            } catch (final InterruptedException e) {
+                this.submitted.decrement();
+                throw e;
+            }
+            cancelIfStopped(item);
+        }
+
+        /**
+         * @return false if the queue remained full for the given time
+         */
+        boolean offer(final Item item, final long timeout, final TimeUnit unit) throws InterruptedException {
+            item.enqueuedAt = System.nanoTime();
+            this.submitted.increment();
+            if (this.queue.offer(item, timeout, unit)) {
+                cancelIfStopped(item);
+                return true;
+            }
+            this.submitted.decrement();
+            this.rejected.increment();
+            return false;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    final Item item = this.queue.take();
+                    try {
+                        process(item);
+                    } catch (final InterruptedException e) {
+                        throw e;
+                    } catch (final Throwable e) {
+                        // keep the worker alive, and never leave the item's future incomplete
+                        Log.error(String.format("stage '%s' failed to process '%s'", this.spec.name, item.input), e);
+                        fail(item, e);
+                    }
+                }
+            } catch (final InterruptedException e) {
+                // the pipeline has been stopped
+            }
+        }
+
+        @SuppressWarnings("synthetic-access")
+        private void process(final Item item) throws InterruptedException {
+            final long start = System.nanoTime();
+            this.queueWait.record(start - item.enqueuedAt);
+            if (item.result.isDone()) {
+                // cancelled by the caller
+                this.completed.increment();
+                return;
+            }
+            final Object output;
+            try {
+                output = this.spec.function.apply(item.value);
+            } catch (final Throwable e) {
+                this.runTime.record(System.nanoTime() - start);
+                this.failed.increment();
+                onException(item, e);
+                return;
+            }
+            this.runTime.record(System.nanoTime() - start);
+            this.completed.increment();
+            if (this.next == null) {
+                onComplete(item, output);
+            } else {
+                item.value = output;
+                try {
+                    this.next.put(item);
+                } catch (final InterruptedException e) {
+                    item.result.cancel(false);
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * an item enqueued whilst the pipeline was being stopped may have missed the queue being drained, so would never
+         * be run. The pipeline is marked as stopped before any queue is drained
+         */
+        @SuppressWarnings("synthetic-access")
+        private void cancelIfStopped(final Item item) {
+            if (Pipeline.this.stopped.get()) {
+                this.queue.remove(item);
+                item.result.cancel(false);
+            }
+        }
+
+        ExecutorStatistics stats() {
+            return new ExecutorStatistics(this.submitted.sum(), this.completed.sum(), this.failed.sum(),
+                    this.rejected.sum(), this.queueWait.totalNanos(), this.runTime.totalNanos(),
+                    this.queueWait.snapshot(), this.runTime.snapshot());
+        }
+
+        void stop() {
+            this.workers.shutdownNow();
+            final List<Item> abandoned = Lists.newArrayList();
+            this.queue.drainTo(abandoned);
+            for (final Item item : abandoned) {
+                item.result.cancel(false);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onComplete(final Item item, final Object output) {
+        final O result = (O) output;
+        // listeners are notified first, so they have seen the result by the time the future completes
+        for (final CallableListener<I, O> listener : this.listeners) {
+            try {
+                listener.onComplete((I) item.input, result);
+            } catch (final RuntimeException e) {
+                Log.error(String.format("listener threw on the result of '%s'", item.input), e);
+            }
+        }
+        item.result.set(result);
+    }
+
+    /**
+     * listeners are notified of errors wrapped in an {@link UncheckedExecutionException}, whereas the future fails with
+     * the error itself
+     */
+    @SuppressWarnings("unchecked")
+    private void onException(final Item item, final Throwable error) {
+        final Exception exception = error instanceof Exception ? (Exception) error : new UncheckedExecutionException(
+                error);
+        for (final CallableListener<I, O> listener : this.listeners) {
+            try {
+                listener.onException((I) item.input, exception);
+            } catch (final RuntimeException e) {
+                Log.error(String.format("listener threw on the failure of '%s'", item.input), e);
+            }
+        }
+        fail(item, error);
+    }
+
+    /**
+     * fail the item's future. {@link SettableFuture#setException(Throwable)} rethrows errors once the future has failed,
+     * which would otherwise kill the worker
+     */
+    private static void fail(final Item item, final Throwable error) {
+        try {
+            item.result.setException(error);
+        } catch (final Error e) {
+            if (e != error) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @param listener
+     *            a listener notified of the result of every item, keyed by the item submitted
+     */
+    public void addListener(final CallableListener<I, O> listener) {
+        this.listeners.add(checkNotNull(listener));
+    }
+
+    /**
+     * @param listener
+     *            the listener to remove
+     * @return true if the listener was removed
+     */
+    public boolean removeListener(final CallableListener<I, O> listener) {
+        return this.listeners.remove(listener);
+    }
+
+    /**
+     * Submit an item, waiting for room in the first stage's queue if it is full
+     * 
+     * @param input
+     *            the item to submit
+     * @return the future result of the last stage
+     * @throws InterruptedException
+     *             if interrupted while waiting for room
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public ListenableFuture<O> submit(final I input) throws InterruptedException {
+        checkStopped();
+        final Item item = new Item(input);
+        this.stages.get(0).put(item);
+        return (ListenableFuture) item.result;
+    }
+
+    /**
+     * Submit an item, waiting no longer than the given time for room in the first stage's queue
+     * 
+     * @param input
+     *            the item to submit
+     * @param timeout
+     *            the maximum time to wait
+     * @param unit
+     *            the timeout time unit
+     * @return the future result of the last stage, or null if the item was rejected as the first stage's queue was full
+     * @throws InterruptedException
+     *             if interrupted while waiting for room
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public ListenableFuture<O> trySubmit(final I input, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        checkStopped();
+        final Item item = new Item(input);
+        return this.stages.get(0).offer(item, timeout, unit) ? (ListenableFuture) item.result : null;
+    }
+
+    private void checkStopped() {
+        if (this.stopped.get()) {
+            throw new IllegalStateException(String.format("pipeline '%s' has been stopped", this.name));
+        }
+    }
+
+    /**
+     * The statistics of each stage, in order. A stage's 'submitted' items are those passed to it by the stage before
+     * (or the caller), and its 'rejected' items those refused by {@link #trySubmit(Object, long, TimeUnit)}
+     * 
+     * @return a snapshot of the statistics of each stage, by stage name
+     */
+    @SuppressWarnings("synthetic-access")
+    public ImmutableMap<String, ExecutorStatistics> stats() {
+        final ImmutableMap.Builder<String, ExecutorStatistics> builder = ImmutableMap.builder();
+        for (final Stage stage : this.stages) {
+            builder.put(stage.spec.name, stage.stats());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param stageName
+     *            the name of a stage
+     * @return the number of items waiting for the given stage
+     */
+    @SuppressWarnings("synthetic-access")
+    public int getQueueDepth(final String stageName) {
+        for (final Stage stage : this.stages) {
+            if (stage.spec.name.equals(stageName)) {
+                return stage.queue.size();
+            }
+        }
+        throw new IllegalArgumentException(String.format("no stage '%s' in pipeline '%s'", stageName, this.name));
+    }
+
+    /**
+     * stop every stage's threads. Items not yet completed have their futures cancelled
+     */
+    public void stop() {
+        if (this.stopped.compareAndSet(false, true)) {
+            for (final Stage stage : this.stages) {
+                stage.stop();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Pipeline[%s, %d stages]", this.name, Integer.valueOf(this.stages.size()));
+    }
+}
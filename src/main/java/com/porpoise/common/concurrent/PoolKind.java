@@ -0,0 +1,62 @@
+package com.porpoise.common.concurrent;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The kinds of executor {@link Threads} can create, so that users of the library (such as {@link DelayedCache}) can
+ * choose how their work is run
+ */
+public enum PoolKind {
+    /**
+     * a fixed number of threads, with an unbounded queue
+     */
+    FIXED {
+        @Override
+        public ExecutorService newPool(final String name, final int parallelism, final int queueLimit) {
+            return Threads.newFixedThreadPool(name, parallelism);
+        }
+    },
+
+    /**
+     * a fixed number of threads, rejecting tasks once the queue limit is reached
+     */
+    BOUNDED {
+        @Override
+        public ExecutorService newPool(final String name, final int parallelism, final int queueLimit) {
+            return Threads.newBoundedThreadPool(name, parallelism, queueLimit);
+        }
+    },
+
+    /**
+     * a work-stealing pool, suiting many small tasks which spawn others. Falls back to {@link #FIXED} where the JVM has
+     * no fork/join pool
+     */
+    WORK_STEALING {
+        @Override
+        public ExecutorService newPool(final String name, final int parallelism, final int queueLimit) {
+            return Threads.newWorkStealingPool(parallelism);
+        }
+    },
+
+    /**
+     * a new virtual thread per task, suiting tasks which spend most of their time blocked. Falls back to a cached pool
+     * of platform threads where the JVM has no virtual threads
+     */
+    VIRTUAL {
+        @Override
+        public ExecutorService newPool(final String name, final int parallelism, final int queueLimit) {
+            return Threads.newVirtualThreadPerTaskExecutor(name);
+        }
+    };
+
+    /**
+     * @param name
+     *            the prefix of the pool's thread names
+     * @param parallelism
+     *            the number of threads, where the kind of pool has a fixed number
+     * @param queueLimit
+     *            the maximum number of waiting tasks, where the kind of pool has a bounded queue
+     * @return a new executor of this kind
+     */
+    public abstract ExecutorService newPool(String name, int parallelism, int queueLimit);
+}
@@ -0,0 +1,195 @@
+package com.porpoise.common.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * A lock-free token bucket, handing out permits at a fixed rate while allowing short bursts.
+ * 
+ * The bucket holds at most 'burst size' permits and refills at the given rate. Rather than storing a count of tokens,
+ * the limiter keeps the time at which the next permit would be due were bursts not allowed (the 'theoretical arrival
+ * time' of the generic cell rate algorithm), so acquiring permits is a single compare-and-set of one long.
+ * 
+ * <pre>
+ * RateLimiter limiter = RateLimiter.create(100, 10); // 100 permits/second, in bursts of up to 10
+ * if (limiter.tryAcquire()) {
+ *     ...
+ * }
+ * </pre>
+ */
+public final class RateLimiter {
+    private final Ticker ticker;
+
+    /** the time between permits */
+    private final long intervalNanos;
+
+    /** how far ahead of the current time permits may be handed out */
+    private final long burstNanos;
+
+    private final int burstSize;
+
+    /** the time at which the next permit would be handed out, were no burst allowed */
+    private final AtomicLong nextFreeNanos;
+
+    RateLimiter(final double permitsPerSecond, final int burst, final Ticker source) {
+        checkArgument(permitsPerSecond > 0, "the rate must be positive");
+        checkArgument(burst > 0, "the burst size must be positive");
+        this.ticker = checkNotNull(source);
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.burstSize = burst;
+        this.burstNanos = (burst - 1) * this.intervalNanos;
+        this.nextFreeNanos = new AtomicLong(source.read());
+    }
+
+    /**
+     * @param permitsPerSecond
+     *            the rate at which permits are handed out
+     * @return a rate limiter which allows no bursts
+     */
+    public static RateLimiter create(final double permitsPerSecond) {
+        return create(permitsPerSecond, 1);
+    }
+
+    /**
+     * @param permitsPerSecond
+     *            the rate at which permits are handed out
+     * @param burstSize
+     *            the maximum number of permits which may be acquired at once after a quiet period
+     * @return a rate limiter
+     */
+    public static RateLimiter create(final double permitsPerSecond, final int burstSize) {
+        return new RateLimiter(permitsPerSecond, burstSize, Ticker.systemTicker());
+    }
+
+    /**
+     * @param interval
+     *            the time between permits
+     * @param unit
+     *            the interval time unit
+     * @return a rate limiter which hands out one permit per interval, allowing no bursts
+     */
+    public static RateLimiter everyInterval(final long interval, final TimeUnit unit) {
+        checkArgument(interval > 0, "the interval must be positive");
+        return create((double) TimeUnit.SECONDS.toNanos(1) / unit.toNanos(interval));
+    }
+
+    /**
+     * @return the rate at which permits are handed out, per second
+     */
+    public double getRate() {
+        return (double) TimeUnit.SECONDS.toNanos(1) / this.intervalNanos;
+    }
+
+    /**
+     * @return the maximum number of permits which may be acquired at once
+     */
+    public int getBurstSize() {
+        return this.burstSize;
+    }
+
+    /**
+     * @return true if a permit was acquired without waiting
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * @param permits
+     *            the number of permits to acquire
+     * @return true if the permits were acquired without waiting
+     */
+    public boolean tryAcquire(final int permits) {
+        checkArgument(permits > 0 && permits <= this.burstSize, "can't acquire %s permits with a burst size of %s",
+                Integer.valueOf(permits), Integer.valueOf(this.burstSize));
+        final long cost = permits * this.intervalNanos;
+        while (true) {
+            final long now = this.ticker.read();
+            final long next = this.nextFreeNanos.get();
+            final long start = Math.max(next, now);
+            if (start + cost - this.intervalNanos - now > this.burstNanos) {
+                return false;
+            }
+            if (this.nextFreeNanos.compareAndSet(next, start + cost)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reserve permits, whether or not they are available now. The caller must wait for the returned time before acting
+     * 
+     * @param permits
+     *            the number of permits to reserve
+     * @return the time in nanoseconds until the permits may be used, which is zero if they are available now
+     */
+    public long reserve(final int permits) {
+        checkArgument(permits > 0, "permits must be positive");
+        final long cost = permits * this.intervalNanos;
+        while (true) {
+            final long now = this.ticker.read();
+            final long next = this.nextFreeNanos.get();
+            final long start = Math.max(next, now);
+            if (this.nextFreeNanos.compareAndSet(next, start + cost)) {
+                return Math.max(0, start + cost - this.intervalNanos - now - this.burstNanos);
+            }
+        }
+    }
+
+    /**
+     * acquire a permit, waiting until one is available
+     */
+    public void acquire() {
+        final long delay = reserve(1);
+        if (delay > 0) {
+            Uninterruptibles.sleepUninterruptibly(delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * acquire a permit without blocking, using the default scheduler to wait for it to become available
+     * 
+     * @return a future which completes once the permit is available
+     */
+    public ListenableFuture<Void> acquireAsync() {
+        return acquireAsync(Threads.getDefaultScheduler());
+    }
+
+    /**
+     * acquire a permit without blocking
+     * 
+     * @param scheduler
+     *            the scheduler used to complete the future once the permit is available
+     * @return a future which completes once the permit is available
+     */
+    public ListenableFuture<Void> acquireAsync(final ScheduledExecutorService scheduler) {
+        final long delay = reserve(1);
+        if (delay == 0) {
+            return Futures.immediateFuture(null);
+        }
+        final SettableFuture<Void> future = SettableFuture.create();
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                future.set(null);
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+        return future;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RateLimiter[%.2f/s, burst=%d]", Double.valueOf(getRate()),
+                Integer.valueOf(this.burstSize));
+    }
+}
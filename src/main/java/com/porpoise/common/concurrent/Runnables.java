@@ -107,4 +107,49 @@ public enum Runnables {
             final TimeUnit timeUnit) {
         return new ThrottledRunnable(executor, interval, timeUnit, runnable);
     }
-}
\ No newline at end of file
+
+    /**
+     * @see #throttle(Runnable, int, TimeUnit)
+     * @param kind
+     *            the kind of shared pool used to execute throttled jobs
+     * @param runnable
+     *            the logic to execute
+     * @param interval
+     *            the interval after which the runnable may be invoked again
+     * @param timeUnit
+     *            the interval time unit
+     * @return a runnable which will only be invoked once within the given interval
+     */
+    public static Runnable throttle(final PoolKind kind, final Runnable runnable, final int interval,
+            final TimeUnit timeUnit) {
+        return throttle(Threads.getSharedPool(kind), runnable, interval, timeUnit);
+    }
+
+    /**
+     * Wrap a runnable so that a burst of invocations results in a single execution, once the returned runnable has not
+     * been invoked for the given interval. Unlike {@link #throttle(Runnable, int, TimeUnit)}, extra invocations are
+     * never queued or dropped individually; they just postpone the one execution.
+     * 
+     * @param executor
+     *            the executor used to run the logic
+     * @param runnable
+     *            the runnable logic to wrap
+     * @param interval
+     *            the quiet interval after which the runnable is executed
+     * @param timeUnit
+     *            the interval time unit
+     * @return a runnable which coalesces invocations within the given interval
+     * @see Debouncer
+     */
+    public static Runnable debounce(final ExecutorService executor, final Runnable runnable, final int interval,
+            final TimeUnit timeUnit) {
+        Preconditions.checkNotNull(runnable);
+        final Debouncer<Runnable> debouncer = new Debouncer<Runnable>(executor, interval, timeUnit);
+        return new Runnable() {
+            @Override
+            public void run() {
+                debouncer.trigger(runnable, runnable);
+            }
+        };
+    }
+}
@@ -0,0 +1,58 @@
+package com.porpoise.common.concurrent;
+
+/**
+ * A slower, larger store beneath an {@link AbstractCache}. Entries evicted from the cache are spilled to the store, and
+ * are reloaded from it (rather than recomputed) when next requested.
+ * 
+ * @see DiskStore
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ */
+public interface SecondLevelStore<K, V> {
+    /**
+     * @param key
+     *            the entry key
+     * @return the stored value for the given key, or null
+     */
+    public V get(K key);
+
+    /**
+     * @param key
+     *            the entry key
+     * @return the stored value for the given key along with the time it was written, or null
+     */
+    public StoredValue<V> getStored(K key);
+
+    /**
+     * Store a value written now
+     * 
+     * @param key
+     *            the entry key
+     * @param value
+     *            the value to store
+     */
+    public void put(K key, V value);
+
+    /**
+     * @param key
+     *            the entry key
+     * @param value
+     *            the value to store
+     * @param writeTimeMillis
+     *            the time the value was originally written to the cache, in milliseconds since the epoch
+     */
+    public void put(K key, V value, long writeTimeMillis);
+
+    /**
+     * @param key
+     *            the key of the entry to remove
+     */
+    public void remove(K key);
+
+    /**
+     * @return a snapshot of the stored keys, used to warm the cache
+     */
+    public Iterable<K> keys();
+}
@@ -0,0 +1,24 @@
+package com.porpoise.common.concurrent;
+
+/**
+ * Converts objects to and from bytes, so they can be written to a {@link DiskStore}
+ * 
+ * @see Serializers
+ * @param <T>
+ *            the type of object serialized
+ */
+public interface Serializer<T> {
+    /**
+     * @param value
+     *            the value to serialize
+     * @return the value as bytes
+     */
+    public byte[] serialize(T value);
+
+    /**
+     * @param bytes
+     *            bytes previously returned from {@link #serialize(Object)}
+     * @return the value represented by the bytes
+     */
+    public T deserialize(byte[] bytes);
+}
@@ -0,0 +1,75 @@
+package com.porpoise.common.concurrent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Common {@link Serializer} implementations
+ */
+public enum Serializers {
+    ;// uninstantiable
+
+    private static final Serializer<String> UTF8 = new Serializer<String>() {
+        @Override
+        public byte[] serialize(final String value) {
+            return value.getBytes(Charsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(final byte[] bytes) {
+            return new String(bytes, Charsets.UTF_8);
+        }
+    };
+
+    /**
+     * @return a serializer which writes strings as UTF-8
+     */
+    public static Serializer<String> utf8() {
+        return UTF8;
+    }
+
+    /**
+     * @param <T>
+     *            the serializable type
+     * @return a serializer which uses java serialization
+     */
+    public static <T extends Serializable> Serializer<T> javaSerialization() {
+        return new Serializer<T>() {
+            @Override
+            public byte[] serialize(final T value) {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try {
+                    final ObjectOutputStream out = new ObjectOutputStream(bytes);
+                    out.writeObject(value);
+                    out.close();
+                } catch (final IOException e) {
+                    throw new IllegalArgumentException(e);
+                }
+                return bytes.toByteArray();
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public T deserialize(final byte[] bytes) {
+                try {
+                    final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                    try {
+                        return (T) in.readObject();
+                    } finally {
+                        in.close();
+                    }
+                } catch (final IOException e) {
+                    throw new IllegalArgumentException(e);
+                } catch (final ClassNotFoundException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            }
+        };
+    }
+}
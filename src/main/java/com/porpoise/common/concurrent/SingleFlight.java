@@ -0,0 +1,224 @@
+package com.porpoise.common.concurrent;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Suppresses duplicate work: while a callable for a key is in flight, requests for the same key share its future
+ * rather than starting another. Once the callable completes its key is forgotten, so the next request starts afresh.
+ * 
+ * In-flight futures are held in a concurrent map, claimed with a single putIfAbsent, so requests never block each other.
+ * Listeners are notified of each completion as with a {@link DelayedCache}, for every key, given keys, or keys matching
+ * a predicate.
+ * 
+ * Note that the future returned is shared by every request for the key, so cancelling it cancels it for them all.
+ * 
+ * @param <K>
+ *            the key type
+ * @param <T>
+ *            the value type
+ */
+public final class SingleFlight<K, T> {
+    private final Executor executor;
+
+    private final ConcurrentMap<K, SettableFuture<T>> inFlight = Maps.newConcurrentMap();
+
+    private final AtomicReference<ListenerRegistry<K, T>> listeners = new AtomicReference<ListenerRegistry<K, T>>(
+            ListenerRegistry.<K, T> empty());
+
+    /**
+     * @param executorService
+     *            the executor used to run callables
+     */
+    public SingleFlight(final Executor executorService) {
+        this.executor = checkNotNull(executorService);
+    }
+
+    /**
+     * @param key
+     *            the key of the work
+     * @param callable
+     *            the work to run, unless work for the key is already in flight
+     * @return the future result of the work in flight for the key
+     */
+    public ListenableFuture<T> execute(final K key, final Callable<T> callable) {
+        checkNotNull(callable);
+        final SettableFuture<T> created = SettableFuture.create();
+        final SettableFuture<T> existing = this.inFlight.putIfAbsent(checkNotNull(key), created);
+        if (existing != null) {
+            return existing;
+        }
+        // forget the key however the future completes, including cancellation by a caller
+        created.addListener(new Runnable() {
+            @SuppressWarnings("synthetic-access")
+            @Override
+            public void run() {
+                SingleFlight.this.inFlight.remove(key, created);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        final CallableListener<K, T> rethrow = new Rethrow<K, T>();
+        final KeyedListenableCallable<K, T> call = new KeyedListenableCallable<K, T>(key, callable,
+                ImmutableList.of(this.listeners.get(), rethrow));
+        final CallableRunnable<T> task = Runnables.asRunnable(call);
+        // forget the key before completing the future, so that callers woken by it never see the work still in flight
+        Futures.addCallback(task.getFuture(), new FutureCallback<T>() {
+            @SuppressWarnings("synthetic-access")
+            @Override
+            public void onSuccess(final T result) {
+                SingleFlight.this.inFlight.remove(key, created);
+                created.set(result);
+            }
+
+            @SuppressWarnings("synthetic-access")
+            @Override
+            public void onFailure(final Throwable error) {
+                SingleFlight.this.inFlight.remove(key, created);
+                created.setException(error);
+            }
+        });
+        try {
+            this.executor.execute(task);
+        } catch (final RejectedExecutionException e) {
+            created.setException(e);
+        }
+        return created;
+    }
+
+    /**
+     * @param key
+     *            the key of the work
+     * @return the future result of the work in flight for the key, or null if there is none
+     */
+    public ListenableFuture<T> getInFlight(final K key) {
+        return this.inFlight.get(key);
+    }
+
+    /**
+     * @return the number of keys with work in flight
+     */
+    public int inFlightCount() {
+        return this.inFlight.size();
+    }
+
+    /**
+     * Registers a callable listener, notified when the work of any key completes.
+     * 
+     * @param listener
+     *            the listener to register
+     * @return true if the listener was added successfully
+     */
+    public boolean addListener(final CallableListener<K, T> listener) {
+        if (listener == null) {
+            return false;
+        }
+        while (true) {
+            final ListenerRegistry<K, T> current = this.listeners.get();
+            if (current.containsGlobal(listener)) {
+                return false;
+            }
+            if (this.listeners.compareAndSet(current, current.withListener(listener))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Registers a callable listener, notified only when the work of the given key completes.
+     * 
+     * @param key
+     *            the key of interest
+     * @param listener
+     *            the listener to register
+     * @return true if the listener was added successfully
+     */
+    public boolean addListener(final K key, final CallableListener<K, T> listener) {
+        if (key == null || listener == null) {
+            return false;
+        }
+        while (true) {
+            final ListenerRegistry<K, T> current = this.listeners.get();
+            if (this.listeners.compareAndSet(current, current.withListener(key, listener))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Registers a callable listener, notified only when the work of keys matching the given predicate completes.
+     * 
+     * @param keys
+     *            the predicate matching the keys of interest
+     * @param listener
+     *            the listener to register
+     * @return true if the listener was added successfully
+     */
+    public boolean addListener(final Predicate<? super K> keys, final CallableListener<K, T> listener) {
+        if (keys == null || listener == null) {
+            return false;
+        }
+        while (true) {
+            final ListenerRegistry<K, T> current = this.listeners.get();
+            if (this.listeners.compareAndSet(current, current.withListener(keys, listener))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Unregisters a callable listener from all the keys to which it was subscribed
+     * 
+     * @param listener
+     *            the listener to remove
+     * @return true if the listener was removed
+     */
+    public boolean removeListener(final CallableListener<K, T> listener) {
+        while (true) {
+            final ListenerRegistry<K, T> current = this.listeners.get();
+            if (!current.contains(listener)) {
+                return false;
+            }
+            if (this.listeners.compareAndSet(current, current.without(listener))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Ensures a failed callable fails its future, whatever the other listeners decide
+     */
+    private static final class Rethrow<K, T> implements CallableListener<K, T> {
+        Rethrow() {
+            // nothing to initialise
+        }
+
+        @Override
+        public void onComplete(final K key, final T result) {
+            // nothing to do
+        }
+
+        @Override
+        public boolean onException(final K key, final Exception exp) {
+            return true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SingleFlight[%d in flight]", Integer.valueOf(inFlightCount()));
+    }
+}
@@ -0,0 +1,46 @@
+package com.porpoise.common.concurrent;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A value held in a {@link SecondLevelStore}, along with the time it was originally written to the cache. The write
+ * time travels with the value between the cache and the store, so that moving between them does not reset its expiry.
+ * 
+ * @param <V>
+ *            the value type
+ */
+public final class StoredValue<V> {
+    private final V value;
+
+    private final long writeTime;
+
+    /**
+     * @param storedValue
+     *            the stored value
+     * @param writeTimeMillis
+     *            the time the value was written, in milliseconds since the epoch
+     */
+    public StoredValue(final V storedValue, final long writeTimeMillis) {
+        this.value = checkNotNull(storedValue);
+        this.writeTime = writeTimeMillis;
+    }
+
+    /**
+     * @return the stored value
+     */
+    public V getValue() {
+        return this.value;
+    }
+
+    /**
+     * @return the time the value was written, in milliseconds since the epoch
+     */
+    public long getWriteTime() {
+        return this.writeTime;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (written at %d)", this.value, Long.valueOf(this.writeTime));
+    }
+}
@@ -0,0 +1,60 @@
+package com.porpoise.common.concurrent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which spreads its updates over several cells, chosen by thread, so that threads incrementing the counter
+ * concurrently rarely contend on the same cell. Reading the counter sums the cells, and so is more expensive than an
+ * update, and only weakly consistent with concurrent updates.
+ * 
+ * Each cell is padded out to its own cache line to prevent false sharing between the cells.
+ */
+final class StripedCounter {
+    private static final int STRIPES = stripeCount();
+
+    /** the number of longs between cells, so that each cell sits on its own 64-byte cache line */
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    private static int stripeCount() {
+        final int processors = Runtime.getRuntime().availableProcessors() * 2;
+        return Math.min(64, Integer.highestOneBit(Math.max(processors - 1, 1)) << 1);
+    }
+
+    /**
+     * @return the cell index for the current thread
+     */
+    private static int index() {
+        final long id = Thread.currentThread().getId();
+        final int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((hash >>> 16) & (STRIPES - 1)) * PADDING;
+    }
+
+    /**
+     * @param delta
+     *            the amount to add to the counter
+     */
+    void add(final long delta) {
+        this.cells.addAndGet(index(), delta);
+    }
+
+    void increment() {
+        add(1);
+    }
+
+    void decrement() {
+        add(-1);
+    }
+
+    /**
+     * @return the sum of the counter's cells
+     */
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += this.cells.get(i * PADDING);
+        }
+        return sum;
+    }
+}
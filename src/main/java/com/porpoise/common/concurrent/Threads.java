@@ -2,13 +2,22 @@ package com.porpoise.common.concurrent;
 
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.porpoise.common.log.Log;
 
@@ -18,7 +27,20 @@ import com.porpoise.common.log.Log;
 public enum Threads {
     ; // unintantiable
 
-    private static ExecutorService defaultThreadPool;
+    private static final String DEFAULT_THREAD_NAME = "Thread-Pool";
+
+    private static final String SCHEDULER_THREAD_NAME = "common-scheduler";
+
+    /** the number of threads in each shared pool with a fixed number of threads */
+    private static final int SHARED_POOL_SIZE = 5;
+
+    /** the queue limit of the shared bounded pool */
+    private static final int SHARED_QUEUE_LIMIT = 10000;
+
+    private static final Map<PoolKind, ExecutorService> sharedPools = new EnumMap<PoolKind, ExecutorService>(
+            PoolKind.class);
+
+    private static ScheduledExecutorService defaultScheduler;
 
     /**
      * @param threadCount
@@ -26,8 +48,93 @@ public enum Threads {
      * @return a fixed thread-pool executor service
      */
     public static ExecutorService newFixedThreadPool(final int threadCount) {
-        final ThreadFactory factory = newLoggingThreadFactory();
-        return Executors.newFixedThreadPool(threadCount, factory);
+        return newFixedThreadPool(DEFAULT_THREAD_NAME, threadCount);
+    }
+
+    /**
+     * @param name
+     *            the prefix of the pool's thread names
+     * @param threadCount
+     *            the initial fixed thread pool count
+     * @return a fixed thread-pool executor service
+     */
+    public static ExecutorService newFixedThreadPool(final String name, final int threadCount) {
+        return Executors.newFixedThreadPool(threadCount, newNamedThreadFactory(name));
+    }
+
+    /**
+     * Create a fixed-size thread pool whose queue of waiting tasks is bounded. Tasks submitted once the queue is full
+     * are rejected with a {@link RejectedExecutionException}, rather than being queued without limit
+     * 
+     * @param threadCount
+     *            the number of threads in the pool
+     * @param queueLimit
+     *            the maximum number of tasks waiting to be run
+     * @return a fixed thread-pool executor service with a bounded queue
+     */
+    public static ThreadPoolExecutor newBoundedThreadPool(final int threadCount, final int queueLimit) {
+        return newBoundedThreadPool(DEFAULT_THREAD_NAME, threadCount, queueLimit);
+    }
+
+    /**
+     * @see #newBoundedThreadPool(int, int)
+     * @param name
+     *            the prefix of the pool's thread names
+     * @param threadCount
+     *            the number of threads in the pool
+     * @param queueLimit
+     *            the maximum number of tasks waiting to be run
+     * @return a fixed thread-pool executor service with a bounded queue
+     */
+    public static ThreadPoolExecutor newBoundedThreadPool(final String name, final int threadCount,
+            final int queueLimit) {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueLimit), newNamedThreadFactory(name),
+                new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Create a work-stealing (fork/join) pool. The library targets JVMs which may predate fork/join, so the pool is
+     * created reflectively, falling back to a fixed thread pool where it is unavailable
+     * 
+     * @param parallelism
+     *            the target number of active threads
+     * @return a work-stealing executor service
+     */
+    public static ExecutorService newWorkStealingPool(final int parallelism) {
+        Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+        try {
+            final Class<?> forkJoinPool = Class.forName("java.util.concurrent.ForkJoinPool");
+            return (ExecutorService) forkJoinPool.getConstructor(int.class).newInstance(Integer.valueOf(parallelism));
+        } catch (final Exception e) {
+            Log.debug("No fork/join pool available (%s), using a fixed thread pool", e);
+            return newFixedThreadPool("Work-Stealing", parallelism);
+        }
+    }
+
+    /**
+     * Create an executor which starts a new virtual thread for each task. Where the JVM has no virtual threads, a
+     * cached pool of (daemon, logging) platform threads is returned instead
+     * 
+     * @param name
+     *            the prefix of the executor's thread names
+     * @return a thread-per-task executor service
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(final String name) {
+        try {
+            final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Object virtual = Thread.class.getMethod("ofVirtual").invoke(null);
+            virtual = builder.getMethod("name", String.class, long.class).invoke(virtual, name + " #",
+                    Long.valueOf(1));
+            final ThreadFactory factory = (ThreadFactory) builder.getMethod("factory").invoke(virtual);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (final Exception e) {
+            Log.debug("No virtual threads available (%s), using a cached thread pool", e);
+            return Executors.newCachedThreadPool(newNamedThreadFactory(name));
+        }
     }
 
     /**
@@ -81,30 +188,78 @@ public enum Threads {
     /**
      * @return A shared thread pool of worker threads
      */
-    public synchronized static ExecutorService getDefaultThreadPool() {
-        if (defaultThreadPool == null) {
-            defaultThreadPool = newFixedThreadPool(5);
+    public static ExecutorService getDefaultThreadPool() {
+        return getSharedPool(PoolKind.FIXED);
+    }
+
+    /**
+     * @param kind
+     *            the kind of pool
+     * @return A shared pool of the given kind, created when first requested. The work-stealing pool runs computations
+     *         across the machine, so has a thread per available processor
+     */
+    public synchronized static ExecutorService getSharedPool(final PoolKind kind) {
+        ExecutorService pool = sharedPools.get(kind);
+        if (pool == null) {
+            final int parallelism = kind == PoolKind.WORK_STEALING ? Runtime.getRuntime().availableProcessors()
+                    : SHARED_POOL_SIZE;
+            pool = kind.newPool(DEFAULT_THREAD_NAME, parallelism, SHARED_QUEUE_LIMIT);
+            sharedPools.put(kind, pool);
         }
-        return defaultThreadPool;
+        return pool;
+    }
 
+    /**
+     * @return A shared single-threaded scheduler for short timer tasks, such as timeouts and rate limits. Its thread runs
+     *         at normal priority, as late timers delay the work waiting on them
+     */
+    public synchronized static ScheduledExecutorService getDefaultScheduler() {
+        if (defaultScheduler == null) {
+            defaultScheduler = Executors.newSingleThreadScheduledExecutor(newNamedThreadFactory(SCHEDULER_THREAD_NAME,
+                    Thread.NORM_PRIORITY));
+        }
+        return defaultScheduler;
     }
 
     /**
      * @return a new initialised thread factory
      */
     public static ThreadFactory newLoggingThreadFactory() {
+        return newNamedThreadFactory(DEFAULT_THREAD_NAME);
+    }
+
+    /**
+     * @param prefix
+     *            the prefix of the thread names, which are numbered from 1
+     * @return a new initialised thread factory, whose threads run at minimum priority
+     */
+    public static ThreadFactory newNamedThreadFactory(final String prefix) {
+        return newNamedThreadFactory(prefix, Thread.MIN_PRIORITY);
+    }
+
+    /**
+     * @param prefix
+     *            the prefix of the thread names, which are numbered from 1
+     * @param priority
+     *            the priority of the threads
+     * @return a new initialised thread factory
+     */
+    public static ThreadFactory newNamedThreadFactory(final String prefix, final int priority) {
+        Preconditions.checkNotNull(prefix);
+        Preconditions.checkArgument(priority >= Thread.MIN_PRIORITY && priority <= Thread.MAX_PRIORITY,
+                "invalid thread priority %s", Integer.valueOf(priority));
         final ThreadFactory factory = new ThreadFactory() {
-            private int count = 1;
+            private final AtomicInteger count = new AtomicInteger(1);
 
             @Override
             public Thread newThread(final Runnable runnable) {
                 final Runnable wrappedRunnable = Runnables.proxyWithLogging(runnable);
                 final Thread thread = new Thread(wrappedRunnable);
-                final String name = String.format("Thread-Pool #%d", Integer.valueOf(this.count++));
+                final String name = String.format("%s #%d", prefix, Integer.valueOf(this.count.getAndIncrement()));
                 Log.debug("Starting thread %s", name);
                 thread.setName(name);
                 thread.setDaemon(true);
-                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setPriority(priority);
                 final UncaughtExceptionHandler handler = new UncaughtExceptionHandler() {
                     @Override
                     public void uncaughtException(final Thread param, final Throwable error) {
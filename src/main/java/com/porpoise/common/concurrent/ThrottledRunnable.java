@@ -3,10 +3,10 @@ package com.porpoise.common.concurrent;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import java.util.concurrent.DelayQueue;
-import java.util.concurrent.Delayed;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A 'throttled' runnable will only allow one invocation within a given time limit.
@@ -15,16 +15,16 @@ import java.util.concurrent.TimeUnit;
  * quick succession. In that instance, it didn't matter if some requests were ignored, just that after invoking 'N'
  * calls to 'refresh' within a certain time frame that at least ONE would be invoked before the deadline.
  * 
- * 
- * Note: Due to this class implementing Delayed, it has a natural ordering that is inconsistent with equals.
- * 
+ * Invocations are admitted by a {@link RateLimiter} issuing one permit per interval. Surplus invocations reserve the
+ * next permit and are scheduled on a shared timer, which hands the job to the executor once the permit is due, so no
+ * pool thread is blocked while waiting.
  */
-class ThrottledRunnable implements Runnable, Delayed {
+class ThrottledRunnable implements Runnable {
     /** The runnable logic we are attempting to throttle */
     private final Runnable job;
 
-    /** The timestamp of the last time the job was run - updated each time the 'job' is invoked */
-    private long lastRunTime = -1;
+    /** hands out one permit per throttle interval */
+    private final RateLimiter limiter;
 
     /**
      * the throttle interval, preventing more than one invocation every so often. The 'so often' is determined by the
@@ -41,21 +41,22 @@ class ThrottledRunnable implements Runnable, Delayed {
      * invocations will be queued. The remaining 4 invocations (1 being executed, 5 are queued) will be handled by the
      * overflow handler
      */
-    private int maxCapacity = 1;
+    private final int maxCapacity;
+
+    /** the number of invocations currently scheduled */
+    private final AtomicInteger queued = new AtomicInteger();
 
     /** handler which deals with invocations which are NOT queued */
     private final IOverflowHandler overflowHandler;
 
     /**
-     * Our delay queue onto which surplus calls are added. They will be taken off the queue by the executor service
-     */
-    private final DelayQueue<ThrottledRunnable> queue;
-
-    /**
-     * An executor service which will submit queued jobs
+     * An executor service which will run queued jobs
      */
     private final ExecutorService executor;
 
+    /** the timer used to wait for queued jobs' permits */
+    private final ScheduledExecutorService scheduler;
+
     /**
      * An {@link IOverflowHandler} is invoked when the queue 'overflows' with calls.
      * 
@@ -123,7 +124,8 @@ class ThrottledRunnable implements Runnable, Delayed {
         this.maxCapacity = jobThreshold;
         this.overflowHandler = checkNotNull(handler);
         this.executor = checkNotNull(executorPool);
-        this.queue = new DelayQueue<ThrottledRunnable>();
+        this.scheduler = Threads.getDefaultScheduler();
+        this.limiter = RateLimiter.everyInterval(minInterval, intervalTimeUnit);
     }
 
     /**
@@ -133,59 +135,30 @@ class ThrottledRunnable implements Runnable, Delayed {
      */
     @Override
     public void run() {
-        final long now = System.currentTimeMillis();
-        final long throttleDelay = TimeUnit.MILLISECONDS.convert(this.interval, this.timeUnit);
-
-        final boolean invokeImmediately = now >= this.lastRunTime + throttleDelay;
-        if (invokeImmediately) {
-            this.lastRunTime = now;
+        if (this.limiter.tryAcquire()) {
             this.job.run();
-        } else {
-            if (this.maxCapacity <= this.queue.size()) {
+            return;
+        }
+        // claim a place in the queue, unless it is full
+        int current;
+        do {
+            current = this.queued.get();
+            if (current >= this.maxCapacity) {
                 this.overflowHandler.onInvocationExceedsThreshold(this.maxCapacity, this.job);
-            } else {
-                // queue up another call
-                this.queue.add(this);
-                this.executor.submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            @SuppressWarnings("synthetic-access")
-                            final ThrottledRunnable task = ThrottledRunnable.this.queue.take();
-                            task.run();
-                        } catch (final InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                        }
-                    }
-                });
+                return;
             }
-        }
-    }
-
-    @Override
-    public long getDelay(final TimeUnit unit) {
-        final long now = System.currentTimeMillis();
-        final long throttleDelay = TimeUnit.MILLISECONDS.convert(this.interval, this.timeUnit);
-
-        final long threshold = this.lastRunTime + throttleDelay;
-        final long delayInMillis = threshold - now;
-
-        final long delay = unit.convert(delayInMillis, TimeUnit.MILLISECONDS);
-        return delay;
-    }
-
-    @Override
-    public int compareTo(final Delayed other) {
-        final long delay1 = getDelay(this.timeUnit);
-        final long delay2 = other.getDelay(this.timeUnit);
-
-        if (delay1 == delay2) {
-            return 0;
-        }
-        if (delay1 > delay2) {
-            return 1;
-        }
-        return -1;
+        } while (!this.queued.compareAndSet(current, current + 1));
+
+        // queue up another call for when its permit is due
+        final long delay = this.limiter.reserve(1);
+        this.scheduler.schedule(new Runnable() {
+            @SuppressWarnings("synthetic-access")
+            @Override
+            public void run() {
+                ThrottledRunnable.this.queued.decrementAndGet();
+                ThrottledRunnable.this.executor.execute(ThrottledRunnable.this.job);
+            }
+        }, delay, TimeUnit.NANOSECONDS);
     }
 
     /**
@@ -0,0 +1,22 @@
+package com.porpoise.common.concurrent;
+
+/**
+ * Calculates the weight of a cache entry, used to bound a cache by the total weight of its entries rather than by
+ * their number
+ * 
+ * @see CacheSpec#maximumWeight(long, Weigher)
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ */
+public interface Weigher<K, V> {
+    /**
+     * @param key
+     *            the entry key
+     * @param value
+     *            the entry value
+     * @return the non-negative weight of the entry. The weight of an entry is only calculated when it is written
+     */
+    public int weigh(K key, V value);
+}
@@ -0,0 +1,90 @@
+package com.porpoise.common.functions;
+
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+/**
+ * Computes the keys of many elements at once, in parallel chunks, for the bulk loading of a {@link FunctionMap} or
+ * {@link FunctionSet}. The keys are returned in the order of the elements, so that the caller can merge them in that
+ * order and keep the same first-wins or last-wins semantics as adding the elements one by one.
+ */
+enum BulkLoad {
+	; // uninstantiable
+
+	/** inputs smaller than this have their keys computed by the caller alone */
+	static final int	PARALLEL_THRESHOLD	= 10000;
+
+	/** the number of chunks per processor, so that uneven chunks still balance across the executor's threads */
+	private static final int	CHUNKS_PER_PROCESSOR	= 4;
+
+	/**
+	 * @return the given objects as a list, without copying them if they are already in a random access list
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> List<T> asList(final Iterable<T> objects) {
+		if (objects instanceof List<?> && objects instanceof RandomAccess) {
+			return (List<T>) objects;
+		}
+		return objects == null ? Lists.<T> newArrayList() : Lists.newArrayList(objects);
+	}
+
+	/**
+	 * @param elements
+	 *            the elements, which may include nulls
+	 * @param keyFunction
+	 *            the function computing the key of each element
+	 * @param executor
+	 *            the executor on which to compute the keys of large inputs
+	 * @return the keys of the elements, at the same indices as the elements, with null keys for null elements
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the keys
+	 */
+	static <T> Object[] keys(final List<T> elements, final Function<? super T, ?> keyFunction,
+	        final ExecutorService executor) throws InterruptedException {
+		final Object[] keys = new Object[elements.size()];
+		if (keys.length < PARALLEL_THRESHOLD) {
+			computeKeys(elements, keyFunction, keys, 0, keys.length);
+			return keys;
+		}
+		final int chunks = Math.min(keys.length / (PARALLEL_THRESHOLD / 2), CHUNKS_PER_PROCESSOR
+		        * Runtime.getRuntime().availableProcessors());
+		final int chunkSize = (keys.length + chunks - 1) / chunks;
+		final List<Callable<Void>> tasks = Lists.newArrayListWithCapacity(chunks);
+		for (int start = 0; start < keys.length; start += chunkSize) {
+			final int from = start;
+			final int to = Math.min(keys.length, start + chunkSize);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					computeKeys(elements, keyFunction, keys, from, to);
+					return null;
+				}
+			});
+		}
+		// invokeAll waits for every chunk, and its completion makes their writes to the array visible to this thread
+		for (final Future<Void> future : executor.invokeAll(tasks)) {
+			try {
+				future.get();
+			} catch (final ExecutionException e) {
+				throw Throwables.propagate(e.getCause());
+			}
+		}
+		return keys;
+	}
+
+	private static <T> void computeKeys(final List<T> elements, final Function<? super T, ?> keyFunction,
+	        final Object[] keys, final int from, final int to) {
+		for (int i = from; i < to; i++) {
+			final T element = elements.get(i);
+			keys[i] = element == null ? null : keyFunction.apply(element);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.porpoise.common.functions;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A map of values by the {@link Key} of the supplied functions, like a {@link FunctionMap}, but which stores only the
+ * values themselves: see {@link CompactFunctionTable}. Prefer it to a FunctionMap for large maps, where the keys would
+ * otherwise take as much memory as the values.
+ * 
+ * Lookups take a value (or anything the functions can be applied to) in place of its key, as with a FunctionMap, and
+ * create no key. Keys are only created on demand when the key or entry sets are iterated. The map is not thread-safe.
+ * 
+ * @param <T>
+ */
+public class CompactFunctionMap<T> extends AbstractMap<Key<T>, T> {
+	private final CompactFunctionTable<T>	table;
+	private final Function<T, Key<T>>	  keyFunction;
+	private Set<Map.Entry<Key<T>, T>>	  entrySet;
+
+	/**
+	 * create a new compact function map
+	 * 
+	 * @param firstFnc
+	 * @param fnc
+	 * @return a compact function map
+	 */
+	public static <T> CompactFunctionMap<T> create(final Function<T, ? extends Object> firstFnc,
+	        final Function<T, ? extends Object>... fnc) {
+		final List<Function<T, ? extends Object>> all = Lists.newArrayList();
+		all.add(firstFnc);
+		all.addAll(Arrays.asList(fnc));
+		return new CompactFunctionMap<T>(all);
+	}
+
+	/**
+	 * @param keyFunctions
+	 *            the functions whose results make up the key of each value
+	 */
+	public CompactFunctionMap(final Iterable<Function<T, ? extends Object>> keyFunctions) {
+		this(keyFunctions, 0);
+	}
+
+	/**
+	 * @param keyFunctions
+	 *            the functions whose results make up the key of each value
+	 * @param expectedSize
+	 *            the number of values the map should hold without growing
+	 */
+	public CompactFunctionMap(final Iterable<Function<T, ? extends Object>> keyFunctions, final int expectedSize) {
+		this.table = new CompactFunctionTable<T>(keyFunctions, expectedSize);
+		this.keyFunction = Keys.keyFunction(this.table.functions());
+	}
+
+	/**
+	 * @param input
+	 * @return the key for the given input value
+	 */
+	public Key<T> asKey(final T input) {
+		return input == null ? null : this.keyFunction.apply(input);
+	}
+
+	@Override
+	public int size() {
+		return this.table.size();
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		return this.table.get(key) != null;
+	}
+
+	@Override
+	public boolean containsValue(final Object value) {
+		final T existing = this.table.get(value);
+		return existing != null && existing.equals(value);
+	}
+
+	@Override
+	public T get(final Object key) {
+		return this.table.get(key);
+	}
+
+	/**
+	 * @param key
+	 *            the key of the value, which must be the key of the value itself as only the value is stored
+	 * @param value
+	 *            the value to put
+	 * @return the value replaced, or null
+	 */
+	@Override
+	public T put(final Key<T> key, final T value) {
+		Preconditions.checkArgument(asKey(value).equals(key), "the key %s is not the key of the value %s", key,
+		        value);
+		return this.table.put(value, true);
+	}
+
+	/**
+	 * put the value under its own key
+	 * 
+	 * @param value
+	 *            the value to put
+	 * @return the value replaced, or null
+	 */
+	public T putValue(final T value) {
+		return this.table.put(value, true);
+	}
+
+	@Override
+	public T remove(final Object key) {
+		return this.table.remove(key);
+	}
+
+	@Override
+	public void clear() {
+		this.table.clear();
+	}
+
+	@Override
+	public Set<Map.Entry<Key<T>, T>> entrySet() {
+		if (this.entrySet == null) {
+			this.entrySet = new AbstractSet<Map.Entry<Key<T>, T>>() {
+				@Override
+				public int size() {
+					return CompactFunctionMap.this.size();
+				}
+
+				@Override
+				public void clear() {
+					CompactFunctionMap.this.clear();
+				}
+
+				@SuppressWarnings("synthetic-access")
+				@Override
+				public Iterator<Map.Entry<Key<T>, T>> iterator() {
+					final Iterator<T> values = CompactFunctionMap.this.table.iterator();
+					return new Iterator<Map.Entry<Key<T>, T>>() {
+						@Override
+						public boolean hasNext() {
+							return values.hasNext();
+						}
+
+						@Override
+						public Map.Entry<Key<T>, T> next() {
+							final T value = values.next();
+							return Maps.immutableEntry(asKey(value), value);
+						}
+
+						@Override
+						public void remove() {
+							values.remove();
+						}
+					};
+				}
+			};
+		}
+		return this.entrySet;
+	}
+}
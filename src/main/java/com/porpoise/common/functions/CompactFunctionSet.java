@@ -0,0 +1,111 @@
+package com.porpoise.common.functions;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+
+/**
+ * A set which uses the results of the supplied functions as the unique key of each element, like a
+ * {@link FunctionSet}, but which stores only the elements themselves: see {@link CompactFunctionTable}. Prefer it to a
+ * FunctionSet for large sets, where the keys would otherwise take as much memory as the elements.
+ * 
+ * As with a FunctionSet, adding an element whose key is already present leaves the set unchanged, an element is
+ * contained only if it is equal to the element held under its key, and removal is by key. Unlike a FunctionSet this
+ * set is not thread-safe.
+ * 
+ * @param <T>
+ */
+public class CompactFunctionSet<T> extends AbstractSet<T> {
+	private final CompactFunctionTable<T>	table;
+
+	/**
+	 * Convenience method for creating a CompactFunctionSet
+	 * 
+	 * @param <T>
+	 * @param first
+	 * @param keyFunctions
+	 * @return a new, empty set
+	 */
+	public static <T> CompactFunctionSet<T> create(final Function<T, ? extends Object> first,
+	        final Function<T, ? extends Object>... keyFunctions) {
+		final List<Function<T, ? extends Object>> all = Lists.newArrayList();
+		all.add(first);
+		all.addAll(Arrays.asList(keyFunctions));
+		return new CompactFunctionSet<T>(all);
+	}
+
+	/**
+	 * @param keyFunctions
+	 *            the functions whose results make up the key of each element
+	 */
+	public CompactFunctionSet(final Iterable<Function<T, ? extends Object>> keyFunctions) {
+		this(keyFunctions, 0);
+	}
+
+	/**
+	 * @param keyFunctions
+	 *            the functions whose results make up the key of each element
+	 * @param expectedSize
+	 *            the number of elements the set should hold without growing
+	 */
+	public CompactFunctionSet(final Iterable<Function<T, ? extends Object>> keyFunctions, final int expectedSize) {
+		this.table = new CompactFunctionTable<T>(keyFunctions, expectedSize);
+	}
+
+	/**
+	 * @param keyFunctions
+	 *            the functions whose results make up the key of each element
+	 * @param objects
+	 *            the initial elements
+	 */
+	public CompactFunctionSet(final Iterable<Function<T, ? extends Object>> keyFunctions, final Iterable<T> objects) {
+		this(keyFunctions);
+		for (final T item : objects) {
+			add(item);
+		}
+	}
+
+	@Override
+	public int size() {
+		return this.table.size();
+	}
+
+	@Override
+	public boolean contains(final Object o) {
+		final T existing = this.table.get(o);
+		return existing != null && existing.equals(o);
+	}
+
+	/**
+	 * @param o
+	 *            the object whose key is to be looked up
+	 * @return the element with the same key as the given object, or null
+	 */
+	public T get(final Object o) {
+		return this.table.get(o);
+	}
+
+	@Override
+	public boolean add(final T e) {
+		return e != null && this.table.put(e, false) == null;
+	}
+
+	@Override
+	public boolean remove(final Object o) {
+		return this.table.remove(o) != null;
+	}
+
+	@Override
+	public void clear() {
+		this.table.clear();
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return this.table.iterator();
+	}
+}
@@ -0,0 +1,317 @@
+package com.porpoise.common.functions;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * An open-addressed hash table of elements, keyed by the results of a list of functions, which holds only the elements
+ * themselves and their hash codes. No key is stored: two elements have the same key if every function returns an equal
+ * result for them, and the results are recomputed whenever they are compared.
+ * 
+ * Slots are probed linearly. The hash code of each element is cached in a parallel array, so most slots can be
+ * skipped without applying any functions, and growing the table never reapplies them. Removed elements leave a marker
+ * behind, which is reused by later additions and cleared whenever the table is rebuilt.
+ * 
+ * The hash code of an element is the same as that of its {@link Key}. The table is not thread-safe.
+ */
+final class CompactFunctionTable<T> {
+	private static final int	                              MIN_CAPACITY	= 8;
+
+	/** marks a slot whose element has been removed */
+	private static final Object	                          REMOVED	    = new Object();
+
+	private final ImmutableList<Function<T, ? extends Object>>	functions;
+	private Object[]	                                      elements;
+	private int[]	                                          hashes;
+	private int	                                              size;
+	private int	                                              removed;
+	private int	                                              modCount;
+
+	CompactFunctionTable(final Iterable<Function<T, ? extends Object>> keyFunctions, final int expectedSize) {
+		this.functions = ImmutableList.copyOf(Preconditions.checkNotNull(keyFunctions));
+		Preconditions.checkArgument(!this.functions.isEmpty(), "at least one key function is required");
+		Preconditions.checkArgument(expectedSize >= 0, "the expected size must not be negative");
+		final int capacity = capacityFor(expectedSize);
+		this.elements = new Object[capacity];
+		this.hashes = new int[capacity];
+	}
+
+	/**
+	 * @return the smallest power of two which holds the given number of elements at a load factor of 3/4
+	 */
+	private static int capacityFor(final int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity - (capacity >> 2) <= expectedSize) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	ImmutableList<Function<T, ? extends Object>> functions() {
+		return this.functions;
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return the element with the same key as the given object, or null if there is none or the object is not a T
+	 */
+	@SuppressWarnings("unchecked")
+	T get(final Object input) {
+		final int index = indexOf(input);
+		return index < 0 ? null : (T) this.elements[index];
+	}
+
+	/**
+	 * @param element
+	 *            the element to add
+	 * @param replace
+	 *            true if the element should replace one with the same key, false to keep the existing one
+	 * @return the existing element with the same key, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	T put(final T element, final boolean replace) {
+		Preconditions.checkNotNull(element);
+		final FixedHashKeys.Probe probe = probe(element);
+		try {
+			final int hash = probe.hashCode();
+			final int mask = this.elements.length - 1;
+			int free = -1;
+			int i = spread(hash) & mask;
+			for (Object existing = this.elements[i]; existing != null; existing = this.elements[i]) {
+				if (existing == REMOVED) {
+					if (free < 0) {
+						free = i;
+					}
+				} else if (this.hashes[i] == hash && matches(probe, (T) existing)) {
+					if (replace) {
+						this.elements[i] = element;
+					}
+					return (T) existing;
+				}
+				i = (i + 1) & mask;
+			}
+			insert(element, hash, free >= 0 ? free : i);
+			return null;
+		} finally {
+			probe.release();
+		}
+	}
+
+	/**
+	 * store a new element in the given free slot, or in a fresh slot if the table has to be rebuilt to make room
+	 */
+	private void insert(final T element, final int hash, final int slot) {
+		int i = slot;
+		if (this.elements[i] == REMOVED) {
+			this.removed--;
+		} else if (this.size + this.removed + 1 > this.elements.length - (this.elements.length >> 2)) {
+			rebuild(capacityFor(this.size + 1));
+			final int mask = this.elements.length - 1;
+			i = spread(hash) & mask;
+			while (this.elements[i] != null) {
+				i = (i + 1) & mask;
+			}
+		}
+		this.elements[i] = element;
+		this.hashes[i] = hash;
+		this.size++;
+		this.modCount++;
+	}
+
+	/**
+	 * @return the element with the same key as the given object which was removed, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	T remove(final Object input) {
+		final int index = indexOf(input);
+		if (index < 0) {
+			return null;
+		}
+		final T existing = (T) this.elements[index];
+		removeAt(index);
+		return existing;
+	}
+
+	private void removeAt(final int index) {
+		this.elements[index] = REMOVED;
+		this.size--;
+		this.removed++;
+		this.modCount++;
+	}
+
+	void clear() {
+		if (this.size + this.removed > 0) {
+			final int capacity = capacityFor(0);
+			this.elements = new Object[capacity];
+			this.hashes = new int[capacity];
+			this.size = 0;
+			this.removed = 0;
+			this.modCount++;
+		}
+	}
+
+	/**
+	 * make room for the given number of elements up front, so that adding them does not rebuild the table repeatedly
+	 */
+	void ensureCapacity(final int expectedSize) {
+		final int capacity = capacityFor(expectedSize);
+		if (capacity > this.elements.length) {
+			rebuild(capacity);
+		}
+	}
+
+	/**
+	 * move the elements into new arrays of the given capacity, using their cached hash codes and dropping the removed
+	 * markers
+	 */
+	private void rebuild(final int capacity) {
+		final Object[] oldElements = this.elements;
+		final int[] oldHashes = this.hashes;
+		final Object[] newElements = new Object[capacity];
+		final int[] newHashes = new int[capacity];
+		final int mask = capacity - 1;
+		for (int j = 0; j < oldElements.length; j++) {
+			final Object element = oldElements[j];
+			if (element != null && element != REMOVED) {
+				int i = spread(oldHashes[j]) & mask;
+				while (newElements[i] != null) {
+					i = (i + 1) & mask;
+				}
+				newElements[i] = element;
+				newHashes[i] = oldHashes[j];
+			}
+		}
+		this.elements = newElements;
+		this.hashes = newHashes;
+		this.removed = 0;
+	}
+
+	/**
+	 * @return the slot of the element with the same key as the given object, or -1
+	 */
+	@SuppressWarnings("unchecked")
+	private int indexOf(final Object input) {
+		if (input == null || this.size == 0) {
+			return -1;
+		}
+		final FixedHashKeys.Probe probe;
+		try {
+			probe = probe((T) input);
+		} catch (final ClassCastException e) {
+			return -1;
+		}
+		try {
+			final int hash = probe.hashCode();
+			final int mask = this.elements.length - 1;
+			for (int i = spread(hash) & mask;; i = (i + 1) & mask) {
+				final Object existing = this.elements[i];
+				if (existing == null) {
+					return -1;
+				}
+				if (existing != REMOVED && this.hashes[i] == hash && matches(probe, (T) existing)) {
+					return i;
+				}
+			}
+		} finally {
+			probe.release();
+		}
+	}
+
+	/**
+	 * @return this thread's probe, holding the function results of the given input. The probe must be released
+	 */
+	private FixedHashKeys.Probe probe(final T input) {
+		final FixedHashKeys.Probe probe = FixedHashKeys.Probe.acquire();
+		try {
+			for (int i = 0; i < this.functions.size(); i++) {
+				probe.add(FixedHashKey.valueOf(this.functions.get(i), input));
+			}
+		} catch (final RuntimeException e) {
+			probe.release();
+			throw e;
+		}
+		return probe;
+	}
+
+	private boolean matches(final FixedHashKeys.Probe probe, final T element) {
+		for (int i = 0; i < this.functions.size(); i++) {
+			if (!Objects.equal(probe.value(i), FixedHashKey.valueOf(this.functions.get(i), element))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * spread the higher bits of the hash code into the lower ones, which alone pick the slot
+	 */
+	private static int spread(final int hash) {
+		final int h = hash ^ (hash >>> 16);
+		return h ^ (h >>> 8);
+	}
+
+	/**
+	 * @return an iterator over the elements, in slot order, which supports removal
+	 */
+	Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private int	next	         = advance(0);
+			private int	last	         = -1;
+			private int	expectedModCount	= CompactFunctionTable.this.modCount;
+
+			@SuppressWarnings("synthetic-access")
+			private int advance(final int from) {
+				final Object[] all = CompactFunctionTable.this.elements;
+				int i = from;
+				while (i < all.length && (all[i] == null || all[i] == REMOVED)) {
+					i++;
+				}
+				return i;
+			}
+
+			@SuppressWarnings("synthetic-access")
+			@Override
+			public boolean hasNext() {
+				return this.next < CompactFunctionTable.this.elements.length;
+			}
+
+			@SuppressWarnings({ "unchecked", "synthetic-access" })
+			@Override
+			public T next() {
+				checkForComodification();
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				this.last = this.next;
+				this.next = advance(this.next + 1);
+				return (T) CompactFunctionTable.this.elements[this.last];
+			}
+
+			@SuppressWarnings("synthetic-access")
+			@Override
+			public void remove() {
+				Preconditions.checkState(this.last >= 0, "next has not been called, or remove already has");
+				checkForComodification();
+				removeAt(this.last);
+				this.last = -1;
+				this.expectedModCount = CompactFunctionTable.this.modCount;
+			}
+
+			@SuppressWarnings("synthetic-access")
+			private void checkForComodification() {
+				if (this.expectedModCount != CompactFunctionTable.this.modCount) {
+					throw new ConcurrentModificationException();
+				}
+			}
+		};
+	}
+}
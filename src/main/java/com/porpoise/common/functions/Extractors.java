@@ -0,0 +1,295 @@
+package com.porpoise.common.functions;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.MapMaker;
+import com.google.common.primitives.Primitives;
+import com.porpoise.common.log.Log;
+
+/**
+ * Creates functions which extract a named property from instances of a class, for use as key functions or metadata
+ * accessors in place of hand-written anonymous functions.
+ * 
+ * A property is read through its public getter (getX, isX or x) where there is one, or else through a field of that
+ * name. Where the JVM supports it (Java 8 or later), the function for a public getter is generated by the
+ * LambdaMetafactory as a class which calls the getter directly, so it runs as fast as a hand-written function. Otherwise
+ * the function invokes the getter or field reflectively, having made it accessible once. As this library targets
+ * Java 6, the method handle classes are only ever used reflectively.
+ * 
+ * Functions are cached per class and property name, so each is normally resolved and generated only once. The cache
+ * does not stop classes from being unloaded, but may be cleared under memory pressure.
+ */
+public enum Extractors {
+	; // uninstantiable
+
+	/**
+	 * the extractors of each class, by property name. The extractors refer to their class, so the maps of extractors
+	 * are held softly: otherwise they would keep their weakly held classes (and class loaders) reachable for good
+	 */
+	private static final ConcurrentMap<Class<?>, ConcurrentMap<String, Function<?, ?>>>	cache	= new MapMaker()
+	                                                                                            .weakKeys()
+	                                                                                            .softValues().makeMap();
+
+	/**
+	 * @param type
+	 *            the class declaring the property
+	 * @param propertyName
+	 *            the property name
+	 * @return a function returning the given property of its input
+	 * @throws IllegalArgumentException
+	 *             if the class has no such property
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Function<T, Object> property(final Class<T> type, final String propertyName) {
+		Preconditions.checkNotNull(type);
+		Preconditions.checkNotNull(propertyName);
+		ConcurrentMap<String, Function<?, ?>> byName = cache.get(type);
+		if (byName == null) {
+			final ConcurrentMap<String, Function<?, ?>> created = new MapMaker().makeMap();
+			byName = cache.putIfAbsent(type, created);
+			if (byName == null) {
+				byName = created;
+			}
+		}
+		Function<?, ?> extractor = byName.get(propertyName);
+		if (extractor == null) {
+			// creating the same extractor twice is harmless, so there is no need to lock
+			extractor = createExtractor(type, propertyName);
+			final Function<?, ?> existing = byName.putIfAbsent(propertyName, extractor);
+			if (existing != null) {
+				extractor = existing;
+			}
+		}
+		return (Function<T, Object>) extractor;
+	}
+
+	/**
+	 * @param type
+	 *            the class declaring the property
+	 * @param propertyName
+	 *            the property name
+	 * @param valueType
+	 *            the type of the property value (the wrapper type for primitive properties)
+	 * @return a function returning the given property of its input
+	 * @throws IllegalArgumentException
+	 *             if the class has no such property, or its values are not of the given type
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T, V> Function<T, V> property(final Class<T> type, final String propertyName,
+	        final Class<V> valueType) {
+		final Class<?> actual = Primitives.wrap(propertyType(type, propertyName));
+		Preconditions.checkArgument(valueType.isAssignableFrom(actual), "%s.%s is a %s, not a %s", type.getName(),
+		        propertyName, actual.getName(), valueType.getName());
+		return (Function<T, V>) property(type, propertyName);
+	}
+
+	/**
+	 * @param type
+	 *            the class declaring the properties
+	 * @param propertyNames
+	 *            the property names
+	 * @return functions returning each of the given properties of their input, in order
+	 */
+	public static <T> List<Function<T, ? extends Object>> properties(final Class<T> type,
+	        final String... propertyNames) {
+		final ImmutableList.Builder<Function<T, ? extends Object>> functions = ImmutableList.builder();
+		for (final String propertyName : propertyNames) {
+			functions.add(property(type, propertyName));
+		}
+		return functions.build();
+	}
+
+	/**
+	 * @return the type of the given property
+	 */
+	static Class<?> propertyType(final Class<?> type, final String propertyName) {
+		final Method getter = findGetter(type, propertyName);
+		if (getter != null) {
+			return getter.getReturnType();
+		}
+		return findField(type, propertyName).getType();
+	}
+
+	private static Function<?, ?> createExtractor(final Class<?> type, final String propertyName) {
+		final Method getter = findGetter(type, propertyName);
+		if (getter == null) {
+			return reflective(findField(type, propertyName));
+		}
+		if (Modifier.isPublic(getter.getDeclaringClass().getModifiers())) {
+			final Function<?, ?> generated = LambdaFactory.generate(getter);
+			if (generated != null) {
+				return generated;
+			}
+		}
+		return reflective(getter);
+	}
+
+	/**
+	 * @return the public, no-argument getter of the given property, or null
+	 */
+	private static Method findGetter(final Class<?> type, final String propertyName) {
+		final String suffix = Character.toUpperCase(propertyName.charAt(0)) + propertyName.substring(1);
+		for (final String name : ImmutableList.of("get" + suffix, "is" + suffix, propertyName)) {
+			try {
+				final Method method = type.getMethod(name);
+				if (method.getReturnType() != void.class && !Modifier.isStatic(method.getModifiers())) {
+					return method;
+				}
+			} catch (final NoSuchMethodException e) {
+				// try the next name
+			}
+		}
+		return null;
+	}
+
+	private static Field findField(final Class<?> type, final String propertyName) {
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			try {
+				final Field field = c.getDeclaredField(propertyName);
+				if (!Modifier.isStatic(field.getModifiers())) {
+					return field;
+				}
+			} catch (final NoSuchFieldException e) {
+				// try the superclass
+			}
+		}
+		throw new IllegalArgumentException(String.format("%s has no property '%s'", type.getName(), propertyName));
+	}
+
+	/**
+	 * @return a function which invokes the given getter reflectively
+	 */
+	static Function<Object, Object> reflective(final Method getter) {
+		getter.setAccessible(true);
+		return new Function<Object, Object>() {
+			@Override
+			public Object apply(final Object input) {
+				try {
+					return getter.invoke(input);
+				} catch (final InvocationTargetException e) {
+					throw Throwables.propagate(e.getCause());
+				} catch (final IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+
+			@Override
+			public String toString() {
+				return getter.getName();
+			}
+		};
+	}
+
+	private static Function<Object, Object> reflective(final Field field) {
+		field.setAccessible(true);
+		return new Function<Object, Object>() {
+			@Override
+			public Object apply(final Object input) {
+				try {
+					return field.get(input);
+				} catch (final IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+
+			@Override
+			public String toString() {
+				return field.getName();
+			}
+		};
+	}
+
+	/**
+	 * Generates functions through java.lang.invoke.LambdaMetafactory, found reflectively once
+	 */
+	static final class LambdaFactory {
+		private static final LambdaFactory	INSTANCE	= create();
+
+		private final Object	           lookup;
+		private final Method	           unreflect;
+		private final Method	           methodType1;
+		private final Method	           methodType2;
+		private final Method	           metafactory;
+		private final Method	           getTarget;
+		private final Method	           invokeWithArguments;
+
+		private LambdaFactory(final Class<?> lookupClass, final Class<?> methodTypeClass,
+		        final Class<?> methodHandleClass, final Class<?> callSiteClass) throws Exception {
+			this.lookup = Class.forName("java.lang.invoke.MethodHandles").getMethod("lookup").invoke(null);
+			Preconditions.checkState(this.lookup.getClass() == lookupClass && lookupClass.getMethod("lookupClass")
+			        .invoke(this.lookup) == LambdaFactory.class, "no private lookup of %s", LambdaFactory.class);
+			this.unreflect = lookupClass.getMethod("unreflect", Method.class);
+			this.methodType1 = methodTypeClass.getMethod("methodType", Class.class);
+			this.methodType2 = methodTypeClass.getMethod("methodType", Class.class, Class.class);
+			this.metafactory = Class.forName("java.lang.invoke.LambdaMetafactory").getMethod("metafactory",
+			        lookupClass, String.class, methodTypeClass, methodTypeClass, methodHandleClass, methodTypeClass);
+			this.getTarget = callSiteClass.getMethod("getTarget");
+			this.invokeWithArguments = methodHandleClass.getMethod("invokeWithArguments", Object[].class);
+		}
+
+		private static LambdaFactory create() {
+			try {
+				return new LambdaFactory(Class.forName("java.lang.invoke.MethodHandles$Lookup"),
+				        Class.forName("java.lang.invoke.MethodType"), Class.forName("java.lang.invoke.MethodHandle"),
+				        Class.forName("java.lang.invoke.CallSite"));
+			} catch (final Exception e) {
+				Log.debug("No lambda metafactory available (%s), extractors will use reflection", e);
+				return null;
+			}
+		}
+
+		/**
+		 * @return a generated function calling the given public getter, or null if one cannot be generated
+		 */
+		static Function<?, ?> generate(final Method getter) {
+			final LambdaFactory factory = INSTANCE;
+			if (factory == null || !isVisible(getter.getDeclaringClass()) || !isVisible(getter.getReturnType())) {
+				return null;
+			}
+			try {
+				return factory.generateFunction(getter);
+			} catch (final Exception e) {
+				Log.debug("Could not generate an extractor for %s (%s), using reflection", getter, e);
+			} catch (final LinkageError e) {
+				// e.g. the class is not visible from this class's loader
+				Log.debug("Could not generate an extractor for %s (%s), using reflection", getter, e);
+			}
+			return null;
+		}
+
+		/**
+		 * @return true if the generated class, defined by this class's loader, could link against the given class
+		 */
+		private static boolean isVisible(final Class<?> type) {
+			if (type.isPrimitive()) {
+				return true;
+			}
+			try {
+				return Class.forName(type.getName(), false, LambdaFactory.class.getClassLoader()) == type;
+			} catch (final ClassNotFoundException e) {
+				return false;
+			}
+		}
+
+		private Function<?, ?> generateFunction(final Method getter) throws Exception {
+			final Object handle = this.unreflect.invoke(this.lookup, getter);
+			final Object factoryType = this.methodType1.invoke(null, Function.class);
+			final Object erasedType = this.methodType2.invoke(null, Object.class, Object.class);
+			final Object instantiatedType = this.methodType2.invoke(null, Primitives.wrap(getter.getReturnType()),
+			        getter.getDeclaringClass());
+			final Object callSite = this.metafactory.invoke(null, this.lookup, "apply", factoryType, erasedType,
+			        handle, instantiatedType);
+			final Object target = this.getTarget.invoke(callSite);
+			return (Function<?, ?>) this.invokeWithArguments.invoke(target, new Object[] { new Object[0] });
+		}
+	}
+}
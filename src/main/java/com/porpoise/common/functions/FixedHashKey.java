@@ -1,30 +1,25 @@
 package com.porpoise.common.functions;
 
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.List;
-
 import com.google.common.base.Equivalence;
 import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
+import com.google.common.collect.Iterables;
 
 /**
  * Object which can be used as the key in a map based on the given functions and input type
  */
-final class FixedHashKey<T> extends Equivalence<T> implements Key<T>, KeyFactory<T> {
+final class FixedHashKey<T> extends Equivalence<T> implements Key<T>, KeyFactory<T>, FixedHashKeys.ProbeableKey {
 
 	/** Any null values returned from key functions will be replaced with this null representation */
 	private static class NullValue {
 	}
 
-	private static final NullValue	                      NULL	= new NullValue();
+	static final Object	                                  NULL	= new NullValue();
 
 	private final T	                                      input;
 	private final int	                                  cachedHashCode;
-	private final Collection<Object>	                  precomputedValues;
+	private final Object[]	                              precomputedValues;
 	private final Iterable<Function<T, ? extends Object>>	functions;
 
 	FixedHashKey(final Iterable<Function<T, ? extends Object>> functions, final T inputParam) {
@@ -32,15 +27,23 @@ final class FixedHashKey<T> extends Equivalence<T> implements Key<T>, KeyFactory
 		this.input = Preconditions.checkNotNull(inputParam);
 
 		// pre-compute our hashCode and values
-		final List<Object> values = Lists.newArrayList();
+		final Object[] values = new Object[Iterables.size(functions)];
 		int hashCode = 31;
+		int i = 0;
 		for (final Function<T, ?> fnc : functions) {
-			final Object object = Objects.firstNonNull(fnc.apply(inputParam), NULL);
-			values.add(object);
-			hashCode = 17 * hashCode + ((object == null) ? 0 : object.hashCode());
+			final Object object = valueOf(fnc, inputParam);
+			values[i++] = object;
+			hashCode = FixedHashKeys.hash(hashCode, object);
 		}
 		this.cachedHashCode = hashCode;
-		this.precomputedValues = ImmutableList.copyOf(values);
+		this.precomputedValues = values;
+	}
+
+	/**
+	 * @return the result of the function, or {@link #NULL} in place of null
+	 */
+	static <T> Object valueOf(final Function<T, ?> fnc, final T inputParam) {
+		return Objects.firstNonNull(fnc.apply(inputParam), NULL);
 	}
 
 	/*
@@ -67,6 +70,9 @@ final class FixedHashKey<T> extends Equivalence<T> implements Key<T>, KeyFactory
 		if (obj == null) {
 			return false;
 		}
+		if (obj instanceof FixedHashKeys.Probe) {
+			return ((FixedHashKeys.Probe) obj).matches(this);
+		}
 		if (getClass() != obj.getClass()) {
 			return false;
 		}
@@ -75,17 +81,23 @@ final class FixedHashKey<T> extends Equivalence<T> implements Key<T>, KeyFactory
 			/*
 			 * Here we assume the hash keys are the same -- that the functions they represent are identical
 			 */
-			if (this.precomputedValues.size() != other.precomputedValues.size()) {
+			if (this.precomputedValues.length != other.precomputedValues.length) {
 				throw new IllegalStateException("Two different hash key types are being used together");
 			}
-			final Iterator<Object> iterOne = this.precomputedValues.iterator();
-			for (final Object second : other.precomputedValues) {
-				final Object first = iterOne.next();
-				if (!Objects.equal(first, second)) {
-					return false;
-				}
+			return matches(other.precomputedValues, other.precomputedValues.length);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean matches(final Object[] values, final int count) {
+		if (count != this.precomputedValues.length) {
+			return false;
+		}
+		for (int i = 0; i < count; i++) {
+			if (!Objects.equal(this.precomputedValues[i], values[i])) {
+				return false;
 			}
-			assert !iterOne.hasNext();
 		}
 		return true;
 	}
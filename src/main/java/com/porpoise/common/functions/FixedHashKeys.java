@@ -0,0 +1,217 @@
+package com.porpoise.common.functions;
+
+import com.google.common.base.Objects;
+
+/**
+ * Keys of one, two or three function results, held in fields rather than a list, and a reusable probe which can be
+ * used to look any of them up without creating a key.
+ * 
+ * All the keys share the hash code of a {@link FixedHashKey} of the same values.
+ */
+enum FixedHashKeys {
+	; // uninstantiable
+
+	/**
+	 * A key which can be compared against function results held in an array
+	 */
+	static interface ProbeableKey {
+		/**
+		 * @param values
+		 *            the function results, with nulls replaced by {@link FixedHashKey#NULL}
+		 * @param count
+		 *            the number of results in the array
+		 * @return true if this key was created from the same results
+		 */
+		boolean matches(Object[] values, int count);
+	}
+
+	static int hash(final int hash, final Object value) {
+		return 17 * hash + value.hashCode();
+	}
+
+	/**
+	 * A key of a single function result
+	 */
+	static final class One<T> implements Key<T>, ProbeableKey {
+		private final Object	value;
+		private final int	 cachedHashCode;
+
+		One(final Object first) {
+			this.value = first;
+			this.cachedHashCode = hash(31, first);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.cachedHashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj instanceof One<?>) {
+				return Objects.equal(this.value, ((One<?>) obj).value);
+			}
+			return obj instanceof Probe && ((Probe) obj).matches(this);
+		}
+
+		@Override
+		public boolean matches(final Object[] values, final int count) {
+			return count == 1 && Objects.equal(this.value, values[0]);
+		}
+	}
+
+	/**
+	 * A key of two function results
+	 */
+	static final class Two<T> implements Key<T>, ProbeableKey {
+		private final Object	first;
+		private final Object	second;
+		private final int	 cachedHashCode;
+
+		Two(final Object firstValue, final Object secondValue) {
+			this.first = firstValue;
+			this.second = secondValue;
+			this.cachedHashCode = hash(hash(31, firstValue), secondValue);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.cachedHashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj instanceof Two<?>) {
+				final Two<?> other = (Two<?>) obj;
+				return this.cachedHashCode == other.cachedHashCode && Objects.equal(this.first, other.first)
+				        && Objects.equal(this.second, other.second);
+			}
+			return obj instanceof Probe && ((Probe) obj).matches(this);
+		}
+
+		@Override
+		public boolean matches(final Object[] values, final int count) {
+			return count == 2 && Objects.equal(this.first, values[0]) && Objects.equal(this.second, values[1]);
+		}
+	}
+
+	/**
+	 * A key of three function results
+	 */
+	static final class Three<T> implements Key<T>, ProbeableKey {
+		private final Object	first;
+		private final Object	second;
+		private final Object	third;
+		private final int	 cachedHashCode;
+
+		Three(final Object firstValue, final Object secondValue, final Object thirdValue) {
+			this.first = firstValue;
+			this.second = secondValue;
+			this.third = thirdValue;
+			this.cachedHashCode = hash(hash(hash(31, firstValue), secondValue), thirdValue);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.cachedHashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj instanceof Three<?>) {
+				final Three<?> other = (Three<?>) obj;
+				return this.cachedHashCode == other.cachedHashCode && Objects.equal(this.first, other.first)
+				        && Objects.equal(this.second, other.second) && Objects.equal(this.third, other.third);
+			}
+			return obj instanceof Probe && ((Probe) obj).matches(this);
+		}
+
+		@Override
+		public boolean matches(final Object[] values, final int count) {
+			return count == 3 && Objects.equal(this.first, values[0]) && Objects.equal(this.second, values[1])
+			        && Objects.equal(this.third, values[2]);
+		}
+	}
+
+	/**
+	 * A mutable stand-in for a key, used only to look keys up. Each thread reuses its own probe, so a lookup allocates
+	 * nothing beyond what the functions themselves allocate. A probe must be released once the lookup is done, and
+	 * must never be stored
+	 */
+	static final class Probe {
+		private static final ThreadLocal<Probe>	CURRENT	= new ThreadLocal<Probe>() {
+			@Override
+			protected Probe initialValue() {
+				return new Probe();
+			}
+		};
+
+		private Object[]	values	= new Object[4];
+		private int	     count;
+		private int	     cachedHashCode;
+		private boolean	 inUse;
+
+		/**
+		 * @return this thread's probe, or a new one if it is already in use (e.g. a function doing a lookup of its own)
+		 */
+		static Probe acquire() {
+			final Probe current = CURRENT.get();
+			final Probe probe = current.inUse ? new Probe() : current;
+			probe.inUse = true;
+			probe.count = 0;
+			probe.cachedHashCode = 31;
+			return probe;
+		}
+
+		void add(final Object value) {
+			if (this.count == this.values.length) {
+				final Object[] larger = new Object[this.count * 2];
+				System.arraycopy(this.values, 0, larger, 0, this.count);
+				this.values = larger;
+			}
+			this.values[this.count++] = value;
+			this.cachedHashCode = hash(this.cachedHashCode, value);
+		}
+
+		/**
+		 * clear the probe's values so they may be collected, and make it available for reuse
+		 */
+		void release() {
+			for (int i = 0; i < this.count; i++) {
+				this.values[i] = null;
+			}
+			this.count = 0;
+			this.inUse = false;
+		}
+
+		/**
+		 * @return the function result at the given index, with null replaced by {@link FixedHashKey#NULL}
+		 */
+		Object value(final int index) {
+			return this.values[index];
+		}
+
+		boolean matches(final ProbeableKey key) {
+			return key.matches(this.values, this.count);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.cachedHashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			return obj instanceof ProbeableKey && ((ProbeableKey) obj).matches(this.values, this.count);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.porpoise.common.functions;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The function returned by {@link Keys#keyFunction(Iterable)}. Keys of up to three functions hold the function results
+ * in fields (see {@link FixedHashKeys}); keys of more are {@link FixedHashKey}s.
+ * 
+ * Lookups can avoid creating a key at all by using a {@link FixedHashKeys.Probe} from {@link #probe(Object)}.
+ */
+final class FixedKeyFunction<T> implements Function<T, Key<T>> {
+	private final ImmutableList<Function<T, ? extends Object>>	functions;
+
+	FixedKeyFunction(final Iterable<Function<T, ? extends Object>> keyFunctions) {
+		this.functions = ImmutableList.copyOf(Preconditions.checkNotNull(keyFunctions));
+	}
+
+	@Override
+	public Key<T> apply(final T input) {
+		Preconditions.checkNotNull(input);
+		switch (this.functions.size()) {
+		case 1:
+			return new FixedHashKeys.One<T>(value(0, input));
+		case 2:
+			return new FixedHashKeys.Two<T>(value(0, input), value(1, input));
+		case 3:
+			return new FixedHashKeys.Three<T>(value(0, input), value(1, input), value(2, input));
+		default:
+			return new FixedHashKey<T>(this.functions, input);
+		}
+	}
+
+	private Object value(final int index, final T input) {
+		return FixedHashKey.valueOf(this.functions.get(index), input);
+	}
+
+	/**
+	 * @param input
+	 *            the object whose key is to be looked up
+	 * @return this thread's probe, equal to the key of the given input. The probe must be released once used
+	 */
+	FixedHashKeys.Probe probe(final T input) {
+		final FixedHashKeys.Probe probe = FixedHashKeys.Probe.acquire();
+		try {
+			for (int i = 0; i < this.functions.size(); i++) {
+				probe.add(value(i, input));
+			}
+		} catch (final RuntimeException e) {
+			probe.release();
+			throw e;
+		}
+		return probe;
+	}
+
+	/**
+	 * @param keyFunction
+	 *            the key function of a map or set
+	 * @param input
+	 *            the object whose key is to be looked up
+	 * @return a probe for the object's key, or null if the key function does not support probes or cannot be applied
+	 *         to the object. The probe must be released once used
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> FixedHashKeys.Probe probeFor(final Function<T, ?> keyFunction, final Object input) {
+		if (input == null || !(keyFunction instanceof FixedKeyFunction<?>)) {
+			return null;
+		}
+		try {
+			return ((FixedKeyFunction<T>) keyFunction).probe((T) input);
+		} catch (final ClassCastException e) {
+			return null;
+		}
+	}
+}
@@ -5,10 +5,13 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.porpoise.common.concurrent.PoolKind;
+import com.porpoise.common.concurrent.Threads;
 import com.porpoise.common.core.Pair;
 
 /**
@@ -31,12 +34,57 @@ public class FunctionMap<T> implements Map<Key<T>, T> {
 		return new FunctionMap<T>(key);
 	}
 
+	/**
+	 * Create a map of the given objects, computing their keys in parallel on the shared work-stealing pool, which has a
+	 * thread per available processor (see {@link #load(Function, Iterable, ExecutorService)})
+	 * 
+	 * @param keyFunction
+	 * @param objects
+	 * @return a new map of the objects
+	 * @throws InterruptedException
+	 *             if interrupted while the keys are computed
+	 */
+	public static <T> FunctionMap<T> load(final Function<T, Key<T>> keyFunction, final Iterable<T> objects)
+	        throws InterruptedException {
+		return load(keyFunction, objects, Threads.getSharedPool(PoolKind.WORK_STEALING));
+	}
+
+	/**
+	 * Create a map of the given objects, computing their keys in parallel on the given executor. The map is sized for
+	 * the objects up front, and they are put in their iteration order once all their keys are known, so a later object
+	 * replaces an earlier one with the same key, exactly as when the objects are put one by one.
+	 * 
+	 * @param keyFunction
+	 * @param objects
+	 * @param executor
+	 *            the executor on which to compute the keys
+	 * @return a new map of the objects
+	 * @throws InterruptedException
+	 *             if interrupted while the keys are computed
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> FunctionMap<T> load(final Function<T, Key<T>> keyFunction, final Iterable<T> objects,
+	        final ExecutorService executor) throws InterruptedException {
+		final List<T> elements = BulkLoad.asList(objects);
+		final Object[] keys = BulkLoad.keys(elements, keyFunction, executor);
+		final Map<Key<T>, T> delegate = Maps.newHashMapWithExpectedSize(keys.length);
+		final FunctionMap<T> map = new FunctionMap<T>(keyFunction, delegate);
+		for (int i = 0; i < keys.length; i++) {
+			map.putInternal((Key<T>) keys[i], elements.get(i));
+		}
+		return map;
+	}
+
 	/**
 	 * @param keyFunction
 	 */
 	public FunctionMap(final Function<T, Key<T>> keyFunction) {
+		this(keyFunction, Maps.<Key<T>, T> newHashMap());
+	}
+
+	private FunctionMap(final Function<T, Key<T>> keyFunction, final Map<Key<T>, T> map) {
 		this.keyFunction = keyFunction;
-		this.delegate = Maps.newHashMap();
+		this.delegate = map;
 	}
 
 	/**
@@ -108,11 +156,26 @@ public class FunctionMap<T> implements Map<Key<T>, T> {
 		return this.delegate.isEmpty();
 	}
 
+	/**
+	 * @return a probe for the given object's key, if the key function supports them and the object is suitable
+	 */
+	private FixedHashKeys.Probe probe(final Object key) {
+		return FixedKeyFunction.probeFor(this.keyFunction, key);
+	}
+
 	@Override
 	public boolean containsKey(final Object key) {
 		if (key == null) {
 			return false;
 		}
+		final FixedHashKeys.Probe probe = probe(key);
+		if (probe != null) {
+			try {
+				return this.delegate.containsKey(probe);
+			} finally {
+				probe.release();
+			}
+		}
 		final Key<T> wrappedKey = makeKey(key);
 		return wrappedKey != null && this.delegate.containsKey(wrappedKey);
 	}
@@ -124,6 +187,14 @@ public class FunctionMap<T> implements Map<Key<T>, T> {
 
 	@Override
 	public T get(final Object key) {
+		final FixedHashKeys.Probe probe = probe(key);
+		if (probe != null) {
+			try {
+				return this.delegate.get(probe);
+			} finally {
+				probe.release();
+			}
+		}
 		return this.delegate.get(makeKey(key));
 	}
 
@@ -142,6 +213,14 @@ public class FunctionMap<T> implements Map<Key<T>, T> {
 
 	@Override
 	public T remove(final Object key) {
+		final FixedHashKeys.Probe probe = probe(key);
+		if (probe != null) {
+			try {
+				return this.delegate.remove(probe);
+			} finally {
+				probe.release();
+			}
+		}
 		return this.delegate.remove(makeKey(key));
 	}
 
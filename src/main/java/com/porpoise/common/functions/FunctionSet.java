@@ -6,14 +6,15 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 
 import com.google.common.base.Function;
-import com.google.common.base.Predicates;
-import com.google.common.collect.Collections2;
 import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.common.collect.Sets.SetView;
+import com.porpoise.common.concurrent.PoolKind;
+import com.porpoise.common.concurrent.Threads;
 
 /**
  * A set implementation which will use a supplied function to create a unique key
@@ -40,12 +41,58 @@ public class FunctionSet<T> implements Set<T> {
 		return new FunctionSet<T>(composite);
 	}
 
+	/**
+	 * Create a set of the given objects, computing their keys in parallel on the shared work-stealing pool, which has a
+	 * thread per available processor (see {@link #load(Function, Iterable, ExecutorService)})
+	 * 
+	 * @param keyFunction
+	 * @param objects
+	 * @return a new set of the objects
+	 * @throws InterruptedException
+	 *             if interrupted while the keys are computed
+	 */
+	public static <T> FunctionSet<T> load(final Function<T, ? extends Object> keyFunction, final Iterable<T> objects)
+	        throws InterruptedException {
+		return load(keyFunction, objects, Threads.getSharedPool(PoolKind.WORK_STEALING));
+	}
+
+	/**
+	 * Create a set of the given objects, computing their keys in parallel on the given executor. The set is sized for
+	 * the objects up front, and they are added in their iteration order once all their keys are known, so the first
+	 * object with each key is kept, exactly as when the objects are added one by one.
+	 * 
+	 * @param keyFunction
+	 * @param objects
+	 * @param executor
+	 *            the executor on which to compute the keys
+	 * @return a new set of the objects
+	 * @throws InterruptedException
+	 *             if interrupted while the keys are computed
+	 */
+	public static <T> FunctionSet<T> load(final Function<T, ? extends Object> keyFunction, final Iterable<T> objects,
+	        final ExecutorService executor) throws InterruptedException {
+		final List<T> elements = BulkLoad.asList(objects);
+		final Object[] keys = BulkLoad.keys(elements, keyFunction, executor);
+		final FunctionSet<T> set = new FunctionSet<T>(keyFunction, new MapMaker().initialCapacity(keys.length)
+		        .<Object, T> makeMap());
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				set.delegate.putIfAbsent(keys[i], elements.get(i));
+			}
+		}
+		return set;
+	}
+
 	/**
 	 * @param keyFunction
 	 */
 	public FunctionSet(final Function<T, ? extends Object> keyFunction) {
+		this(keyFunction, Maps.<Object, T> newConcurrentMap());
+	}
+
+	private FunctionSet(final Function<T, ? extends Object> keyFunction, final ConcurrentMap<Object, T> map) {
 		this.keyFunction = keyFunction;
-		this.delegate = Maps.newConcurrentMap();
+		this.delegate = map;
 	}
 
 	/**
@@ -83,9 +130,32 @@ public class FunctionSet<T> implements Set<T> {
 		return this.delegate.isEmpty();
 	}
 
+	/**
+	 * An element is contained if an equal element is held under its key, so membership takes a single lookup
+	 */
 	@Override
 	public boolean contains(final Object o) {
-		return o != null && this.delegate.values().contains(o);
+		if (o == null) {
+			return false;
+		}
+		final T existing = lookup(o);
+		return existing != null && existing.equals(o);
+	}
+
+	/**
+	 * @return the element held under the given object's key, or null
+	 */
+	private T lookup(final Object o) {
+		final FixedHashKeys.Probe probe = FixedKeyFunction.probeFor(this.keyFunction, o);
+		if (probe != null) {
+			try {
+				return this.delegate.get(probe);
+			} finally {
+				probe.release();
+			}
+		}
+		final Object key = keyObj(o);
+		return key == null ? null : this.delegate.get(key);
 	}
 
 	@Override
@@ -128,12 +198,26 @@ public class FunctionSet<T> implements Set<T> {
 
 	@Override
 	public boolean remove(final Object o) {
-		return this.delegate.remove(keyObj(o)) != null;
+		final FixedHashKeys.Probe probe = FixedKeyFunction.probeFor(this.keyFunction, o);
+		if (probe != null) {
+			try {
+				return this.delegate.remove(probe) != null;
+			} finally {
+				probe.release();
+			}
+		}
+		final Object key = keyObj(o);
+		return key != null && this.delegate.remove(key) != null;
 	}
 
 	@Override
 	public boolean containsAll(final Collection<?> c) {
-		return this.delegate.values().containsAll(c);
+		for (final Object o : c) {
+			if (!contains(o)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	@Override
@@ -152,38 +236,31 @@ public class FunctionSet<T> implements Set<T> {
 		return changed;
 	}
 
-	private boolean removeAllKeysInternal(final Set<Object> blackListKeys) {
-		boolean changed = false;
-		for (final Object key : blackListKeys) {
-			final T removed = this.delegate.remove(key);
-			final boolean isRemoved = removed != null;
-			changed = changed || isRemoved;
-		}
-		return changed;
-	}
-
 	private Set<Object> makeKeys(final Collection<?> c) {
-		final Collection<Object> transform = Collections2.transform(c, new Function<Object, Object>() {
-			@SuppressWarnings("synthetic-access")
-			@Override
-			public Object apply(final Object input) {
-				return keyObj(input);
+		final Set<Object> keys = Sets.newHashSetWithExpectedSize(c.size());
+		for (final Object o : c) {
+			final Object key = keyObj(o);
+			if (key != null) {
+				keys.add(key);
 			}
-		});
-		return Sets.newHashSet(Collections2.filter(transform, Predicates.notNull()));
+		}
+		return keys;
 	}
 
 	@Override
 	public boolean retainAll(final Collection<?> c) {
 		final Set<Object> whiteList = makeKeys(c);
-		final SetView<Object> blackList = Sets.difference(this.delegate.keySet(), whiteList);
-		return removeAllKeysInternal(blackList);
+		return this.delegate.keySet().retainAll(whiteList);
 	}
 
 	@Override
 	public boolean removeAll(final Collection<?> c) {
-		final Set<Object> blackList = makeKeys(c);
-		return removeAllKeysInternal(blackList);
+		boolean changed = false;
+		for (final Object o : c) {
+			final boolean removed = remove(o);
+			changed = changed || removed;
+		}
+		return changed;
 	}
 
 	@Override
@@ -0,0 +1,448 @@
+package com.porpoise.common.functions;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * A collection which holds each element once, and maintains any number of named indexes of them, each keyed by the
+ * results of its own key functions (as with a {@link FunctionMap}). A unique index holds at most one element per key;
+ * other indexes group the elements sharing a key.
+ * 
+ * Adding or removing an element updates every index together under a write lock, so readers always see the indexes
+ * consistent with each other. An element which is already contained, or whose key is already taken in a unique index,
+ * is not added. Keys are computed before the lock is taken, and lookups by key values create no key.
+ * 
+ * <pre>
+ * IndexedCollection&lt;Person&gt; people = IndexedCollection.&lt;Person&gt; builder()//
+ *         .uniqueIndex(&quot;id&quot;, ID)//
+ *         .index(&quot;name&quot;, SURNAME, FORENAME)//
+ *         .build();
+ * people.add(person);
+ * Person found = people.getBy(&quot;id&quot;, Integer.valueOf(123));
+ * Set&lt;Person&gt; smiths = people.getAllBy(&quot;name&quot;, &quot;Smith&quot;, &quot;John&quot;);
+ * </pre>
+ * 
+ * Elements must not change in ways which change their keys while they are in the collection.
+ * 
+ * @param <T>
+ *            the element type
+ */
+public final class IndexedCollection<T> extends AbstractCollection<T> {
+	private final ReadWriteLock	                  lock	   = new ReentrantReadWriteLock();
+	private final Set<T>	                      elements	= Sets.newHashSet();
+	private final ImmutableMap<String, Index<T>>	indexes;
+	private final ImmutableList<Index<T>>	      indexList;
+
+	/**
+	 * @return a builder of an indexed collection
+	 */
+	public static <T> Builder<T> builder() {
+		return new Builder<T>();
+	}
+
+	/**
+	 * Declares the indexes of an indexed collection
+	 * 
+	 * @param <T>
+	 *            the element type
+	 */
+	public static final class Builder<T> {
+		private final Map<String, Index<T>>	indexes	= Maps.newLinkedHashMap();
+
+		Builder() {
+			// use IndexedCollection.builder()
+		}
+
+		/**
+		 * @param name
+		 *            the index name
+		 * @param first
+		 *            the first key function
+		 * @param more
+		 *            any further key functions
+		 * @return this builder, with an index holding at most one element for each key
+		 */
+		public Builder<T> uniqueIndex(final String name, final Function<T, ? extends Object> first,
+		        final Function<T, ? extends Object>... more) {
+			return add(new UniqueIndex<T>(name, functions(first, more)));
+		}
+
+		/**
+		 * @param name
+		 *            the index name
+		 * @param first
+		 *            the first key function
+		 * @param more
+		 *            any further key functions
+		 * @return this builder, with an index grouping all the elements which share a key
+		 */
+		public Builder<T> index(final String name, final Function<T, ? extends Object> first,
+		        final Function<T, ? extends Object>... more) {
+			return add(new GroupIndex<T>(name, functions(first, more)));
+		}
+
+		private Builder<T> add(final Index<T> index) {
+			Preconditions.checkArgument(!this.indexes.containsKey(index.name), "duplicate index name '%s'", index.name);
+			this.indexes.put(index.name, index);
+			return this;
+		}
+
+		private static <T> List<Function<T, ? extends Object>> functions(final Function<T, ? extends Object> first,
+		        final Function<T, ? extends Object>[] more) {
+			final List<Function<T, ? extends Object>> all = Lists.newArrayList();
+			all.add(Preconditions.checkNotNull(first));
+			all.addAll(Arrays.asList(more));
+			return all;
+		}
+
+		/**
+		 * @return a new, empty collection with the declared indexes
+		 */
+		@SuppressWarnings("synthetic-access")
+		public IndexedCollection<T> build() {
+			final Map<String, Index<T>> copies = Maps.newLinkedHashMap();
+			for (final Index<T> index : this.indexes.values()) {
+				copies.put(index.name, index.emptyCopy());
+			}
+			return new IndexedCollection<T>(ImmutableMap.copyOf(copies));
+		}
+	}
+
+	private IndexedCollection(final ImmutableMap<String, Index<T>> indexMap) {
+		this.indexes = indexMap;
+		this.indexList = indexMap.values().asList();
+	}
+
+	/**
+	 * @param element
+	 *            the element to add
+	 * @return false if the element is already contained, or another element has the same key in a unique index
+	 */
+	@Override
+	public boolean add(final T element) {
+		Preconditions.checkNotNull(element);
+		final Key<T>[] keys = keysOf(element);
+		this.lock.writeLock().lock();
+		try {
+			if (this.elements.contains(element)) {
+				return false;
+			}
+			for (int i = 0; i < keys.length; i++) {
+				if (!this.indexList.get(i).canAdd(keys[i])) {
+					return false;
+				}
+			}
+			this.elements.add(element);
+			for (int i = 0; i < keys.length; i++) {
+				this.indexList.get(i).add(keys[i], element);
+			}
+			return true;
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public boolean remove(final Object o) {
+		if (o == null) {
+			return false;
+		}
+		final Key<T>[] keys;
+		try {
+			keys = keysOf((T) o);
+		} catch (final ClassCastException e) {
+			return false;
+		}
+		this.lock.writeLock().lock();
+		try {
+			if (!this.elements.remove(o)) {
+				return false;
+			}
+			for (int i = 0; i < keys.length; i++) {
+				this.indexList.get(i).remove(keys[i], (T) o);
+			}
+			return true;
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Key<T>[] keysOf(final T element) {
+		final Key<T>[] keys = (Key<T>[]) new Key<?>[this.indexList.size()];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = this.indexList.get(i).keyFunction.apply(element);
+		}
+		return keys;
+	}
+
+	/**
+	 * @param indexName
+	 *            the name of a unique index
+	 * @param keyValues
+	 *            the results of the index's key functions, in order
+	 * @return the element with the given key, or null
+	 */
+	public T getBy(final String indexName, final Object... keyValues) {
+		final Index<T> index = index(indexName);
+		Preconditions.checkArgument(index instanceof UniqueIndex<?>, "'%s' is not a unique index", indexName);
+		final FixedHashKeys.Probe probe = probe(index, keyValues);
+		this.lock.readLock().lock();
+		try {
+			return ((UniqueIndex<T>) index).byKey.get(probe);
+		} finally {
+			this.lock.readLock().unlock();
+			probe.release();
+		}
+	}
+
+	/**
+	 * @param indexName
+	 *            the name of any index
+	 * @param keyValues
+	 *            the results of the index's key functions, in order
+	 * @return a snapshot of the elements with the given key
+	 */
+	public ImmutableSet<T> getAllBy(final String indexName, final Object... keyValues) {
+		final Index<T> index = index(indexName);
+		final FixedHashKeys.Probe probe = probe(index, keyValues);
+		this.lock.readLock().lock();
+		try {
+			return index.getAll(probe);
+		} finally {
+			this.lock.readLock().unlock();
+			probe.release();
+		}
+	}
+
+	/**
+	 * @return the names of the indexes, in the order they were declared
+	 */
+	public ImmutableSet<String> getIndexNames() {
+		return this.indexes.keySet();
+	}
+
+	private Index<T> index(final String indexName) {
+		final Index<T> index = this.indexes.get(indexName);
+		Preconditions.checkArgument(index != null, "unknown index '%s'", indexName);
+		return index;
+	}
+
+	private static FixedHashKeys.Probe probe(final Index<?> index, final Object[] keyValues) {
+		Preconditions.checkArgument(keyValues.length == index.functionCount, "index '%s' takes %s key values, not %s",
+		        index.name, Integer.valueOf(index.functionCount), Integer.valueOf(keyValues.length));
+		final FixedHashKeys.Probe probe = FixedHashKeys.Probe.acquire();
+		for (final Object value : keyValues) {
+			probe.add(Objects.firstNonNull(value, FixedHashKey.NULL));
+		}
+		return probe;
+	}
+
+	@Override
+	public boolean contains(final Object o) {
+		this.lock.readLock().lock();
+		try {
+			return this.elements.contains(o);
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		this.lock.readLock().lock();
+		try {
+			return this.elements.size();
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void clear() {
+		this.lock.writeLock().lock();
+		try {
+			this.elements.clear();
+			for (final Index<T> index : this.indexList) {
+				index.clear();
+			}
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return an iterator over a snapshot of the elements. Removing through it removes from the collection
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		final Iterator<T> snapshot;
+		this.lock.readLock().lock();
+		try {
+			snapshot = ImmutableList.copyOf(this.elements).iterator();
+		} finally {
+			this.lock.readLock().unlock();
+		}
+		return new Iterator<T>() {
+			private T	last;
+
+			@Override
+			public boolean hasNext() {
+				return snapshot.hasNext();
+			}
+
+			@Override
+			public T next() {
+				this.last = snapshot.next();
+				return this.last;
+			}
+
+			@Override
+			public void remove() {
+				Preconditions.checkState(this.last != null, "next has not been called, or remove already has");
+				IndexedCollection.this.remove(this.last);
+				this.last = null;
+			}
+		};
+	}
+
+	/**
+	 * An index of the elements by the key of its functions. Indexes are only accessed under the collection's lock
+	 */
+	private abstract static class Index<T> {
+		final String	          name;
+		final List<Function<T, ? extends Object>>	functions;
+		final int	              functionCount;
+		final Function<T, Key<T>>	keyFunction;
+
+		Index(final String indexName, final List<Function<T, ? extends Object>> keyFunctions) {
+			this.name = Preconditions.checkNotNull(indexName);
+			this.functions = keyFunctions;
+			this.functionCount = keyFunctions.size();
+			this.keyFunction = Keys.keyFunction(keyFunctions);
+		}
+
+		abstract Index<T> emptyCopy();
+
+		abstract boolean canAdd(Key<T> key);
+
+		abstract void add(Key<T> key, T element);
+
+		abstract void remove(Key<T> key, T element);
+
+		abstract ImmutableSet<T> getAll(Object key);
+
+		abstract void clear();
+	}
+
+	private static final class UniqueIndex<T> extends Index<T> {
+		final Map<Object, T>	byKey	= Maps.newHashMap();
+
+		UniqueIndex(final String indexName, final List<Function<T, ? extends Object>> keyFunctions) {
+			super(indexName, keyFunctions);
+		}
+
+		@Override
+		Index<T> emptyCopy() {
+			return new UniqueIndex<T>(this.name, this.functions);
+		}
+
+		@Override
+		boolean canAdd(final Key<T> key) {
+			return !this.byKey.containsKey(key);
+		}
+
+		@Override
+		void add(final Key<T> key, final T element) {
+			this.byKey.put(key, element);
+		}
+
+		@Override
+		void remove(final Key<T> key, final T element) {
+			if (element.equals(this.byKey.get(key))) {
+				this.byKey.remove(key);
+			}
+		}
+
+		@Override
+		ImmutableSet<T> getAll(final Object key) {
+			final T element = this.byKey.get(key);
+			return element == null ? ImmutableSet.<T> of() : ImmutableSet.of(element);
+		}
+
+		@Override
+		void clear() {
+			this.byKey.clear();
+		}
+	}
+
+	private static final class GroupIndex<T> extends Index<T> {
+		final Map<Object, Set<T>>	byKey	= Maps.newHashMap();
+
+		GroupIndex(final String indexName, final List<Function<T, ? extends Object>> keyFunctions) {
+			super(indexName, keyFunctions);
+		}
+
+		@Override
+		Index<T> emptyCopy() {
+			return new GroupIndex<T>(this.name, this.functions);
+		}
+
+		@Override
+		boolean canAdd(final Key<T> key) {
+			return true;
+		}
+
+		@Override
+		void add(final Key<T> key, final T element) {
+			Set<T> group = this.byKey.get(key);
+			if (group == null) {
+				group = Sets.newHashSet();
+				this.byKey.put(key, group);
+			}
+			group.add(element);
+		}
+
+		@Override
+		void remove(final Key<T> key, final T element) {
+			final Set<T> group = this.byKey.get(key);
+			if (group != null && group.remove(element) && group.isEmpty()) {
+				this.byKey.remove(key);
+			}
+		}
+
+		@Override
+		ImmutableSet<T> getAll(final Object key) {
+			final Set<T> group = this.byKey.get(key);
+			return group == null ? ImmutableSet.<T> of() : ImmutableSet.copyOf(group);
+		}
+
+		@Override
+		void clear() {
+			this.byKey.clear();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("IndexedCollection[%d elements, indexes=%s]", Integer.valueOf(size()),
+		        this.indexes.keySet());
+	}
+}
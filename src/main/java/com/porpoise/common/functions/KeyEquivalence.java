@@ -0,0 +1,45 @@
+package com.porpoise.common.functions;
+
+import com.google.common.base.Equivalence;
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The equivalence returned by {@link Keys#equivalence(Iterable)}: two objects are equivalent if every key function
+ * returns an equal result for them. Unlike the equivalence of a {@link FixedHashKey}, no keys are created, and the hash
+ * code of an object is the same as that of its {@link Key}.
+ */
+final class KeyEquivalence<T> extends Equivalence<T> {
+	private final ImmutableList<Function<T, ? extends Object>>	functions;
+
+	KeyEquivalence(final Iterable<Function<T, ? extends Object>> keyFunctions) {
+		this.functions = ImmutableList.copyOf(Preconditions.checkNotNull(keyFunctions));
+		Preconditions.checkArgument(!this.functions.isEmpty(), "at least one key function is required");
+	}
+
+	@Override
+	protected boolean doEquivalent(final T a, final T b) {
+		for (final Function<T, ? extends Object> fnc : this.functions) {
+			if (!Objects.equal(FixedHashKey.valueOf(fnc, a), FixedHashKey.valueOf(fnc, b))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	protected int doHash(final T t) {
+		int hashCode = 31;
+		for (final Function<T, ? extends Object> fnc : this.functions) {
+			hashCode = FixedHashKeys.hash(hashCode, FixedHashKey.valueOf(fnc, t));
+		}
+		return hashCode;
+	}
+
+	@Override
+	public String toString() {
+		return "KeyEquivalence" + this.functions;
+	}
+}
@@ -3,6 +3,7 @@ package com.porpoise.common.functions;
 import java.util.Arrays;
 import java.util.Collection;
 
+import com.google.common.base.Equivalence;
 import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 
@@ -30,16 +31,57 @@ public enum Keys {
     }
 
     /**
+     * Convenience method for creating key functions from named properties, read by functions from {@link Extractors}
+     * 
+     * @param type
+     *            the class declaring the properties
+     * @param first
+     *            the first property name
+     * @param propertyNames
+     *            any further property names
+     * @return a function which can create keys based on the given properties
+     */
+    public static <T> Function<T, Key<T>> keyFunction(final Class<T> type, final String first,
+            final String... propertyNames) {
+        final Collection<Function<T, ? extends Object>> all = Lists.newArrayList();
+        all.add(Extractors.property(type, first));
+        all.addAll(Extractors.properties(type, propertyNames));
+        return keyFunction(all);
+    }
+
+    /**
+     * Keys of up to three functions hold the function results in fields, and maps built with the returned function (such
+     * as {@link FunctionMap}) can look keys up without creating one
+     * 
      * @param functionCollection
      * @return a function which can create keys based on the given functions
      */
     public static <T> Function<T, Key<T>> keyFunction(final Iterable<Function<T, ?>> functionCollection) {
-        return new Function<T, Key<T>>() {
-            @Override
-            public Key<T> apply(final T input) {
-                return new FixedHashKey<T>(functionCollection, input);
-            }
-        };
+        return new FixedKeyFunction<T>(functionCollection);
+    }
+
+    /**
+     * Convenience method for creating an equivalence from at least one function
+     * 
+     * @param first
+     * @param functions
+     * @return an equivalence of objects for which every function returns an equal result
+     */
+    public static <T> Equivalence<T> equivalence(final Function<T, ?> first, final Function<T, ?>... functions) {
+        final Collection<Function<T, ? extends Object>> all = Lists.newArrayList();
+        all.add(first);
+        all.addAll(Arrays.asList(functions));
+        return equivalence(all);
     }
 
+    /**
+     * The equivalence compares the function results directly, without creating keys, and hashes objects to the hash
+     * codes of their keys
+     * 
+     * @param functionCollection
+     * @return an equivalence of objects for which every function returns an equal result
+     */
+    public static <T> Equivalence<T> equivalence(final Iterable<Function<T, ?>> functionCollection) {
+        return new KeyEquivalence<T>(functionCollection);
+    }
 }
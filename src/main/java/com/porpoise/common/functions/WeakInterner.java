@@ -0,0 +1,185 @@
+package com.porpoise.common.functions;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Equivalence;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Maps;
+
+/**
+ * An interner which collapses equivalent objects to one canonical instance, where objects are equivalent by a given
+ * {@link Equivalence} rather than by equals: typically by the results of key functions (see
+ * {@link Keys#equivalence(Iterable)}), so that objects loaded from a feed with the same key share one instance.
+ * 
+ * Canonical instances are only weakly held, so an instance no longer used elsewhere is collected and its entry
+ * dropped. The interner is thread-safe, and interning an object which already has a canonical instance allocates only
+ * a small lookup object.
+ * 
+ * <pre>
+ * Interner&lt;Quote&gt; quotes = WeakInterner.byKey(SYMBOL, PRICE);
+ * quote = quotes.intern(quote);
+ * </pre>
+ * 
+ * @param <T>
+ *            the type of the interned objects
+ */
+public final class WeakInterner<T> implements Interner<T> {
+	private final Equivalence<? super T>	                      equivalence;
+	private final ConcurrentMap<Object, CanonicalReference<T>>	canonical	= Maps.newConcurrentMap();
+	private final ReferenceQueue<T>	                          queue	    = new ReferenceQueue<T>();
+
+	/**
+	 * @param equivalence
+	 *            the equivalence of interned objects
+	 * @return a new interner
+	 */
+	public static <T> WeakInterner<T> create(final Equivalence<? super T> equivalence) {
+		return new WeakInterner<T>(equivalence);
+	}
+
+	/**
+	 * @param first
+	 *            the first key function
+	 * @param keyFunctions
+	 *            any further key functions
+	 * @return a new interner of objects which are equivalent when the key functions return equal results for them
+	 */
+	public static <T> WeakInterner<T> byKey(final Function<T, ? extends Object> first,
+	        final Function<T, ? extends Object>... keyFunctions) {
+		return new WeakInterner<T>(Keys.equivalence(first, keyFunctions));
+	}
+
+	private WeakInterner(final Equivalence<? super T> equivalenceParam) {
+		this.equivalence = Preconditions.checkNotNull(equivalenceParam);
+	}
+
+	/**
+	 * @param sample
+	 *            the object to intern
+	 * @return the canonical instance equivalent to the sample, which is the sample itself if there was none
+	 */
+	@Override
+	public T intern(final T sample) {
+		Preconditions.checkNotNull(sample);
+		expungeStaleEntries();
+		final int hash = this.equivalence.hash(sample);
+		final CanonicalReference<T> found = this.canonical.get(new Lookup<T>(sample, hash, this.equivalence));
+		if (found != null) {
+			final T existing = found.get();
+			if (existing != null) {
+				return existing;
+			}
+		}
+		final CanonicalReference<T> created = new CanonicalReference<T>(sample, hash, this.equivalence, this.queue);
+		while (true) {
+			final CanonicalReference<T> existingReference = this.canonical.putIfAbsent(created, created);
+			if (existingReference == null) {
+				return sample;
+			}
+			final T existing = existingReference.get();
+			if (existing != null) {
+				return existing;
+			}
+			// the canonical instance has just been collected, so replace it
+			this.canonical.remove(existingReference, existingReference);
+		}
+	}
+
+	/**
+	 * @return the number of canonical instances held which have not yet been collected
+	 */
+	public int size() {
+		expungeStaleEntries();
+		return this.canonical.size();
+	}
+
+	/**
+	 * drop the entries of collected instances
+	 */
+	private void expungeStaleEntries() {
+		Reference<? extends T> stale;
+		while ((stale = this.queue.poll()) != null) {
+			this.canonical.remove(stale, stale);
+		}
+	}
+
+	/**
+	 * A weak reference to a canonical instance, used as both the key and the value of its entry. While its instance
+	 * is reachable it equals the references and lookups of equivalent objects; once the instance is collected it
+	 * equals only itself, so that it can still be removed
+	 */
+	private static final class CanonicalReference<T> extends WeakReference<T> {
+		private final int	                    hash;
+		private final Equivalence<? super T>	equivalence;
+
+		CanonicalReference(final T referent, final int hashCode, final Equivalence<? super T> equivalenceParam,
+		        final ReferenceQueue<T> queue) {
+			super(referent, queue);
+			this.hash = hashCode;
+			this.equivalence = equivalenceParam;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj instanceof CanonicalReference<?>) {
+				final CanonicalReference<T> other = (CanonicalReference<T>) obj;
+				final T value = get();
+				final T otherValue = other.get();
+				return this.hash == other.hash && value != null && otherValue != null
+				        && this.equivalence.equivalent(value, otherValue);
+			}
+			return obj instanceof Lookup<?> && obj.equals(this);
+		}
+	}
+
+	/**
+	 * Stands in for a sample while looking up its canonical reference, without creating a reference for it
+	 */
+	private static final class Lookup<T> {
+		private final T	                        sample;
+		private final int	                    hash;
+		private final Equivalence<? super T>	equivalence;
+
+		Lookup(final T sampleParam, final int hashCode, final Equivalence<? super T> equivalenceParam) {
+			this.sample = sampleParam;
+			this.hash = hashCode;
+			this.equivalence = equivalenceParam;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean equals(final Object obj) {
+			if (obj instanceof CanonicalReference<?>) {
+				final CanonicalReference<T> reference = (CanonicalReference<T>) obj;
+				final T value = reference.get();
+				return reference.hashCode() == this.hash && value != null
+				        && this.equivalence.equivalent(this.sample, value);
+			}
+			return false;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("WeakInterner[%s, %d instances]", this.equivalence, Integer.valueOf(size()));
+	}
+}
@@ -177,6 +177,13 @@ public class Delta<T> {
         return paths;
     }
 
+    /**
+     * @return the child deltas
+     */
+    Collection<Delta<?>> children() {
+        return this.childDeltasByProperty.values();
+    }
+
     protected boolean hasChildren() {
         return !this.childDeltasByProperty.isEmpty();
     }
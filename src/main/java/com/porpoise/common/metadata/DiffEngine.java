@@ -0,0 +1,358 @@
+package com.porpoise.common.metadata;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.porpoise.common.annotation.IgnoreMetadata;
+
+/**
+ * Compares two object graphs by the {@link Metadata} registered for their types, producing a {@link Delta} tree of
+ * their differences.
+ * 
+ * Each registered property of the two objects is compared:
+ * <ul>
+ * <li>values which are the same reference are equal, and are not walked any further</li>
+ * <li>values of registered types are compared property by property, adding a child delta if any differ</li>
+ * <li>iterables are compared element by element, and maps entry by entry, in the same way</li>
+ * <li>other values are compared with equals</li>
+ * </ul>
+ * Each pair of objects is only walked once, so cyclic graphs terminate and shared subgraphs are not compared twice.
+ * Properties whose getter, and values whose class, is annotated {@link IgnoreMetadata} are skipped.
+ * 
+ * <pre>
+ * DiffEngine engine = DiffEngine.builder()//
+ *         .register(Person.class, NAME, ADDRESS)//
+ *         .register(Address.class, STREET, TOWN)//
+ *         .build();
+ * Delta&lt;Person&gt; delta = engine.diff(before, after);
+ * </pre>
+ */
+public final class DiffEngine {
+    private static final ImmutableList<Metadata<Object, ?>> UNREGISTERED = ImmutableList.of();
+
+    private final ImmutableMap<Class<?>, ImmutableList<Metadata<Object, ?>>> registry;
+
+    /** the properties of each class compared so far, resolved through its superclasses and interfaces */
+    private final ConcurrentMap<Class<?>, ImmutableList<Metadata<Object, ?>>> resolved = Maps.newConcurrentMap();
+
+    /**
+     * @return a builder of a diff engine
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Registers the properties of each type
+     */
+    public static final class Builder {
+        private final Map<Class<?>, List<Metadata<Object, ?>>> registry = Maps.newLinkedHashMap();
+
+        Builder() {
+            // use DiffEngine.builder()
+        }
+
+        /**
+         * @param type
+         *            the type whose properties are to be compared, including those of its subtypes unless they are
+         *            registered themselves
+         * @param properties
+         *            the properties to compare
+         * @return this builder
+         */
+        public <T> Builder register(final Class<T> type, final Metadata<? super T, ?>... properties) {
+            return register(type, Arrays.asList(properties));
+        }
+
+        /**
+         * @param type
+         *            the type whose properties are to be compared, including those of its subtypes unless they are
+         *            registered themselves
+         * @param properties
+         *            the properties to compare. Those whose getter is annotated {@link IgnoreMetadata} are skipped
+         * @return this builder
+         */
+        @SuppressWarnings("unchecked")
+        public <T> Builder register(final Class<T> type, final Iterable<? extends Metadata<? super T, ?>> properties) {
+            Preconditions.checkNotNull(type);
+            List<Metadata<Object, ?>> registered = this.registry.get(type);
+            if (registered == null) {
+                registered = Lists.newArrayList();
+                this.registry.put(type, registered);
+            }
+            for (final Metadata<? super T, ?> property : properties) {
+                if (!isIgnored(type, property.propertyName())) {
+                    registered.add((Metadata<Object, ?>) property);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * @return a new diff engine of the registered types
+         */
+        @SuppressWarnings("synthetic-access")
+        public DiffEngine build() {
+            final ImmutableMap.Builder<Class<?>, ImmutableList<Metadata<Object, ?>>> copy = ImmutableMap.builder();
+            for (final Map.Entry<Class<?>, List<Metadata<Object, ?>>> entry : this.registry.entrySet()) {
+                copy.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+            }
+            return new DiffEngine(copy.build());
+        }
+    }
+
+    /**
+     * @return true if the getter of the given property is annotated {@link IgnoreMetadata}
+     */
+    static boolean isIgnored(final Class<?> type, final String propertyName) {
+        if (propertyName.length() == 0) {
+            return false;
+        }
+        final String suffix = Character.toUpperCase(propertyName.charAt(0)) + propertyName.substring(1);
+        for (final String name : ImmutableList.of("get" + suffix, "is" + suffix, propertyName)) {
+            try {
+                final Method getter = type.getMethod(name);
+                return getter.isAnnotationPresent(IgnoreMetadata.class);
+            } catch (final NoSuchMethodException e) {
+                // try the next name
+            }
+        }
+        return false;
+    }
+
+    private DiffEngine(final ImmutableMap<Class<?>, ImmutableList<Metadata<Object, ?>>> registryMap) {
+        this.registry = registryMap;
+    }
+
+    /**
+     * @param left
+     *            the first object
+     * @param right
+     *            the second object
+     * @return the differences between the two objects, which is empty if there are none
+     * @throws IllegalArgumentException
+     *             if the objects are not the same reference, and are not both of the same registered type. Their
+     *             differences could not be expressed as differences of their properties
+     */
+    public <T> Delta<T> diff(final T left, final T right) {
+        final Delta<T> root = Delta.root(left, right);
+        if (left == right) {
+            return root;
+        }
+        Preconditions.checkArgument(left != null && right != null, "cannot diff %s against %s", left, right);
+        Preconditions.checkArgument(left.getClass() == right.getClass(), "cannot diff a %s against a %s",
+                left.getClass().getName(), right.getClass().getName());
+        Preconditions.checkArgument(isRegistered(left.getClass()), "no properties are registered for %s", left
+                .getClass().getName());
+        walk(root, left, right, new Visits());
+        return root;
+    }
+
+    /**
+     * @return true if the two objects are compared property by property
+     */
+    public boolean isRegistered(final Class<?> type) {
+        return !propertiesOf(type).isEmpty();
+    }
+
+    private void diffProperties(final Delta<?> parent, final Object left, final Object right, final Visits visits) {
+        for (final Metadata<Object, ?> property : propertiesOf(left.getClass())) {
+            final Object leftValue = property.accessor().apply(left);
+            final Object rightValue = property.accessor().apply(right);
+            diffValues(parent, property, leftValue, rightValue, visits);
+        }
+    }
+
+    private void diffValues(final Delta<?> parent, final Metadata<?, ?> property, final Object left,
+            final Object right, final Visits visits) {
+        if (left == right) {
+            return;
+        }
+        if (left == null || right == null) {
+            parent.addDiff(property, left, right);
+            return;
+        }
+        if (isIgnored(left.getClass()) || isIgnored(right.getClass())) {
+            return;
+        }
+        if (left instanceof Map<?, ?> && right instanceof Map<?, ?>) {
+            diffMaps(parent, property, (Map<?, ?>) left, (Map<?, ?>) right, visits);
+        } else if (left instanceof Iterable<?> && right instanceof Iterable<?>) {
+            diffIterables(parent, property, (Iterable<?>) left, (Iterable<?>) right, visits);
+        } else if (isComparedByProperty(left, right)) {
+            final Delta<Object> child = new Delta<Object>(property, left, right);
+            if (walk(child, left, right, visits)) {
+                parent.addChild(child);
+            }
+        } else if (!left.equals(right)) {
+            parent.addDiff(property, left, right);
+        }
+    }
+
+    private void diffIterables(final Delta<?> parent, final Metadata<?, ?> property, final Iterable<?> left,
+            final Iterable<?> right, final Visits visits) {
+        final Iterator<?> leftIter = left.iterator();
+        final Iterator<?> rightIter = right.iterator();
+        for (int index = 0; leftIter.hasNext() || rightIter.hasNext(); index++) {
+            final boolean bothPresent = leftIter.hasNext() && rightIter.hasNext();
+            final Object leftValue = leftIter.hasNext() ? leftIter.next() : null;
+            final Object rightValue = rightIter.hasNext() ? rightIter.next() : null;
+            if (bothPresent && (leftValue == rightValue || isIgnored(leftValue) || isIgnored(rightValue))) {
+                continue;
+            }
+            if (bothPresent && isComparedByProperty(leftValue, rightValue)) {
+                final Delta<Object> child = new IterableDelta<Object>(property, index, leftValue, rightValue);
+                if (walk(child, leftValue, rightValue, visits)) {
+                    parent.addChild(child);
+                }
+            } else if (!bothPresent || !Objects.equal(leftValue, rightValue)) {
+                // leaf iterable deltas hold the iterables, and show the elements at their index
+                parent.addIterableDiff(property, index, left, right);
+            }
+        }
+    }
+
+    private void diffMaps(final Delta<?> parent, final Metadata<?, ?> property, final Map<?, ?> left,
+            final Map<?, ?> right, final Visits visits) {
+        final Set<Object> keys = Sets.newLinkedHashSet(left.keySet());
+        keys.addAll(right.keySet());
+        for (final Object key : keys) {
+            final Object leftValue = left.get(key);
+            final Object rightValue = right.get(key);
+            final boolean bothPresent = left.containsKey(key) && right.containsKey(key);
+            if (bothPresent && (leftValue == rightValue || isIgnored(leftValue) || isIgnored(rightValue))) {
+                continue;
+            }
+            if (bothPresent && isComparedByProperty(leftValue, rightValue)) {
+                final MapEntryDelta<Object> child = new MapEntryDelta<Object>(property, key, left, right);
+                if (walk(child, leftValue, rightValue, visits)) {
+                    parent.addChild(child);
+                }
+            } else if (!bothPresent || !Objects.equal(leftValue, rightValue)) {
+                parent.addMapDiff(property, key, left, right);
+            }
+        }
+    }
+
+    /**
+     * compare the properties of the two objects into the given delta. A pair already being compared further up the
+     * graph is part of a cycle, and is not compared again; a pair already compared by another path shares the
+     * differences found then
+     * 
+     * @return true if any differences were found
+     */
+    private boolean walk(final Delta<?> child, final Object left, final Object right, final Visits visits) {
+        final Pair pair = new Pair(left, right);
+        final Delta<?> done = visits.done.get(pair);
+        if (done != null) {
+            for (final Delta<?> grandChild : done.children()) {
+                child.addChild(grandChild);
+            }
+            return child.hasChildren();
+        }
+        if (!visits.inProgress.add(pair)) {
+            return false;
+        }
+        diffProperties(child, left, right, visits);
+        visits.inProgress.remove(pair);
+        visits.done.put(pair, child);
+        return child.hasChildren();
+    }
+
+    private boolean isComparedByProperty(final Object left, final Object right) {
+        return left != null && right != null && left.getClass() == right.getClass()
+                && !isIgnored(left.getClass()) && isRegistered(left.getClass());
+    }
+
+    private static boolean isIgnored(final Class<?> type) {
+        return type.isAnnotationPresent(IgnoreMetadata.class);
+    }
+
+    private static boolean isIgnored(final Object value) {
+        return value != null && isIgnored(value.getClass());
+    }
+
+    /**
+     * @return the properties registered for the class, or else for its nearest registered superclass or interface
+     */
+    private ImmutableList<Metadata<Object, ?>> propertiesOf(final Class<?> type) {
+        ImmutableList<Metadata<Object, ?>> properties = this.resolved.get(type);
+        if (properties == null) {
+            properties = resolve(type);
+            this.resolved.putIfAbsent(type, properties);
+        }
+        return properties;
+    }
+
+    private ImmutableList<Metadata<Object, ?>> resolve(final Class<?> type) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            final ImmutableList<Metadata<Object, ?>> properties = this.registry.get(c);
+            if (properties != null) {
+                return properties;
+            }
+            for (final Class<?> iface : c.getInterfaces()) {
+                final ImmutableList<Metadata<Object, ?>> ifaceProperties = this.registry.get(iface);
+                if (ifaceProperties != null) {
+                    return ifaceProperties;
+                }
+            }
+        }
+        return UNREGISTERED;
+    }
+
+    /**
+     * The pairs of objects being compared, and those which have been
+     */
+    private static final class Visits {
+        final Set<Pair> inProgress = Sets.newHashSet();
+        final Map<Pair, Delta<?>> done = Maps.newHashMap();
+
+        Visits() {
+            // nothing to initialise
+        }
+    }
+
+    /**
+     * A pair of objects compared by identity, recording that they have been walked
+     */
+    private static final class Pair {
+        private final Object left;
+        private final Object right;
+
+        Pair(final Object leftValue, final Object rightValue) {
+            this.left = leftValue;
+            this.right = rightValue;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(this.left) + System.identityHashCode(this.right);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj instanceof Pair) {
+                final Pair other = (Pair) obj;
+                return this.left == other.left && this.right == other.right;
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DiffEngine%s", this.registry.keySet());
+    }
+}
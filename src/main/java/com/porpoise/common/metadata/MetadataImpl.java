@@ -2,6 +2,7 @@ package com.porpoise.common.metadata;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.porpoise.common.functions.Extractors;
 
 /**
  * Implementation of the metadata interface
@@ -40,6 +41,22 @@ public class MetadataImpl<T, V> implements Metadata<T, V> {
         this.accessor = Preconditions.checkNotNull(accessor);
     }
 
+    /**
+     * Create metadata for a named property, read by a function from {@link Extractors}
+     * 
+     * @param type
+     *            the class declaring the property
+     * @param name
+     *            the property name
+     * @param valueType
+     *            the type of the property value (the wrapper type for primitive properties)
+     * @return metadata for the property
+     */
+    public static <T, V> MetadataImpl<T, V> forProperty(final Class<T> type, final String name,
+            final Class<V> valueType) {
+        return new MetadataImpl<T, V>(name, Extractors.property(type, name, valueType));
+    }
+
     /**
      * @return the accessor function
      */
@@ -2,16 +2,25 @@ package com.porpoise.common.collect;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.util.concurrent.ForwardingListenableFuture.SimpleForwardingListenableFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.porpoise.common.collect.ExpiryViceroy.IExpiryAction;
 import com.porpoise.common.core.Pair;
 
@@ -236,4 +245,119 @@ public class ExpiryViceroyTest {
                 TimeUnit.MILLISECONDS);
         Assert.assertFalse("a second timeout should never have been called", timeoutNeverReceived);
     }
+
+    /**
+     * test a future which completes within its deadline does not invoke the timeout action, whereas one which does not
+     * complete is cancelled
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void test_withDeadline() throws Exception {
+        final CountDownLatch timeoutLatch = new CountDownLatch(1);
+        final List<String> timeouts = new CopyOnWriteArrayList<String>();
+        final IExpiryAction<String> action = new IExpiryAction<String>() {
+            @Override
+            public void onTimeout(final String payload) {
+                timeouts.add(payload);
+                timeoutLatch.countDown();
+            }
+        };
+        final ExpiryViceroy<String> viceroy = ExpiryViceroy.start(action, 50, TimeUnit.MILLISECONDS);
+
+        final SettableFuture<String> onTime = SettableFuture.create();
+        viceroy.withDeadline(onTime, "on time");
+        onTime.set("done");
+
+        final SettableFuture<String> late = SettableFuture.create();
+        Assert.assertSame(late, viceroy.withDeadline(late, "late"));
+
+        Assert.assertTrue("timeout reached", timeoutLatch.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(late.isCancelled());
+        Assert.assertEquals("done", onTime.get());
+        Assert.assertEquals(Collections.singletonList("late"), timeouts);
+
+        viceroy.stop();
+    }
+
+    /**
+     * test a future which completed as its deadline was reached is not reported as timed out, even though its
+     * completion listener has yet to remove its deadline
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void test_completedFutureIsNotTimedOut() throws Exception {
+        final CountDownLatch timeoutLatch = new CountDownLatch(1);
+        final List<String> timeouts = new CopyOnWriteArrayList<String>();
+        final IExpiryAction<String> action = new IExpiryAction<String>() {
+            @Override
+            public void onTimeout(final String payload) {
+                timeouts.add(payload);
+                timeoutLatch.countDown();
+            }
+        };
+        final ExpiryViceroy<String> viceroy = ExpiryViceroy.start(action, 50, TimeUnit.MILLISECONDS);
+
+        final SettableFuture<String> done = SettableFuture.create();
+        done.set("done");
+        // a future whose completion listener has not run
+        final ListenableFuture<String> unnotified = new SimpleForwardingListenableFuture<String>(done) {
+            @Override
+            public void addListener(final Runnable listener, final Executor exec) {
+                // never run
+            }
+        };
+        viceroy.withDeadline(unnotified, "completed", 10, TimeUnit.MILLISECONDS);
+        viceroy.withDeadline(SettableFuture.<String> create(), "late", 20, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue("timeout reached", timeoutLatch.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(Collections.singletonList("late"), timeouts);
+        viceroy.stop();
+    }
+
+    /**
+     * test callables submitted with a deadline are interrupted once they exceed it
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void test_submitWithDeadline() throws Exception {
+        final IExpiryAction<String> action = new IExpiryAction<String>() {
+            @Override
+            public void onTimeout(final String payload) {
+                // ignore
+            }
+        };
+        final ExpiryViceroy<String> viceroy = ExpiryViceroy.start(action, 1, TimeUnit.SECONDS);
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            final CountDownLatch interruptedLatch = new CountDownLatch(1);
+            final ListenableFuture<Integer> slow = viceroy.submit(pool, new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    try {
+                        Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                    } catch (final InterruptedException e) {
+                        interruptedLatch.countDown();
+                        throw e;
+                    }
+                    return Integer.valueOf(1);
+                }
+            }, "slow", 20, TimeUnit.MILLISECONDS);
+            Assert.assertTrue("worker interrupted", interruptedLatch.await(1, TimeUnit.SECONDS));
+            Assert.assertTrue(slow.isCancelled());
+
+            final ListenableFuture<Integer> fast = viceroy.submit(pool, new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return Integer.valueOf(2);
+                }
+            }, "fast");
+            Assert.assertEquals(Integer.valueOf(2), fast.get(1, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+            viceroy.stop();
+        }
+    }
 }
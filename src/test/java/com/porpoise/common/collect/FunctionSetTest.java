@@ -128,6 +128,35 @@ public class FunctionSetTest {
         Assert.assertFalse(set.containsAll(ImmutableList.of(Integer.valueOf(123))));
     }
 
+    /**
+     */
+    @Test
+    public void testMembershipWithCompositeKeyFunction() {
+        final Function<String, Character> first = new Function<String, Character>() {
+            @Override
+            public Character apply(final String input) {
+                return Character.valueOf(input.charAt(0));
+            }
+        };
+        @SuppressWarnings("unchecked")
+        final FunctionSet<String> set = FunctionSet.create(this.lengthFunction, first);
+        Assert.assertTrue(set.addAll(ImmutableList.of("ab", "ac", "bc", "abc")));
+        Assert.assertEquals(3, set.size());
+
+        // "ac" has the same key as "ab", but is not equal to it
+        Assert.assertTrue(set.contains("ab"));
+        Assert.assertFalse(set.contains("ac"));
+        Assert.assertTrue(set.containsAll(ImmutableList.of("ab", "bc", "abc")));
+        Assert.assertFalse(set.containsAll(ImmutableList.of("ab", "ac")));
+        Assert.assertFalse(set.contains(Integer.valueOf(2)));
+
+        Assert.assertTrue(set.retainAll(ImmutableList.of("ab", "abc", Integer.valueOf(3))));
+        Assert.assertEquals(2, set.size());
+        Assert.assertTrue(set.removeAll(ImmutableList.of("abc", "xyz")));
+        Assert.assertFalse(set.removeAll(ImmutableList.of("abc", Integer.valueOf(3))));
+        Assert.assertEquals("ab", Iterables.getOnlyElement(set));
+    }
+
     /**
 	 */
     @Test
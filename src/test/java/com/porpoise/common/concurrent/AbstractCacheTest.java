@@ -0,0 +1,261 @@
+package com.porpoise.common.concurrent;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for the {@link AbstractCache} class
+ */
+public class AbstractCacheTest {
+
+    /**
+     * a cache which computes the length of its keys, failing for empty keys
+     */
+    static class LengthCache extends AbstractCache<String, Integer> {
+        int created;
+
+        LengthCache(final CacheSpec spec) {
+            super(spec);
+        }
+
+        LengthCache(final CacheSpec spec, final SecondLevelStore<String, Integer> store) {
+            super(spec, store);
+        }
+
+        @Override
+        protected Integer createValue(final String key) {
+            this.created++;
+            if (key.length() == 0) {
+                throw new IllegalArgumentException("empty key");
+            }
+            return Integer.valueOf(key.length());
+        }
+    }
+
+    /**
+     * test hits, misses, computations and evictions are recorded
+     */
+    @Test
+    public void testStats() {
+        final LengthCache cache = new LengthCache(CacheSpec.newSpec().maximumSize(2));
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+        cache.get("bb");
+        cache.get("ccc");
+        try {
+            cache.get("");
+            Assert.fail("expected the computation to fail");
+        } catch (final RuntimeException e) {
+            // expected
+        }
+
+        final CacheStatistics stats = cache.stats();
+        Assert.assertEquals(1, stats.hitCount());
+        Assert.assertEquals(4, stats.missCount());
+        Assert.assertEquals(3, stats.loadSuccessCount());
+        Assert.assertEquals(1, stats.loadFailureCount());
+        Assert.assertEquals(0, stats.inFlightCount());
+        Assert.assertEquals(1, stats.evictionCount());
+        Assert.assertEquals(0.2, stats.hitRate(), 0.0001);
+
+        long histogramTotal = 0;
+        for (final long count : stats.loadLatencyHistogram()) {
+            histogramTotal += count;
+        }
+        Assert.assertEquals(4, histogramTotal);
+
+        final CacheStatistics delta = cache.stats().minus(stats);
+        Assert.assertEquals(0, delta.requestCount());
+        cache.get("a");
+        Assert.assertEquals(1, cache.stats().minus(stats).requestCount());
+    }
+
+    /**
+     * test missing values are computed in a single batch, and present values are not recomputed
+     */
+    @Test
+    public void testGetAll() {
+        final List<Set<String>> batches = Lists.newArrayList();
+        final LengthCache cache = new LengthCache(CacheSpec.newSpec()) {
+            @Override
+            protected Map<String, Integer> createValues(final Set<String> keys) {
+                batches.add(ImmutableSet.copyOf(keys));
+                return super.createValues(keys);
+            }
+        };
+        cache.get("a");
+        final Map<String, Integer> values = cache.getAll(Arrays.asList("ccc", "a", "bb", "ccc"));
+        Assert.assertEquals(Arrays.asList("ccc", "a", "bb"), Lists.newArrayList(values.keySet()));
+        Assert.assertEquals(Arrays.asList(Integer.valueOf(3), Integer.valueOf(1), Integer.valueOf(2)),
+                Lists.newArrayList(values.values()));
+        Assert.assertEquals(1, batches.size());
+        Assert.assertEquals(ImmutableSet.of("ccc", "bb"), batches.get(0));
+
+        Assert.assertEquals(3, cache.getAll(Arrays.asList("a", "bb", "ccc")).size());
+        Assert.assertEquals(1, batches.size());
+        Assert.assertEquals(2, cache.stats().loadSuccessCount());
+    }
+
+    /**
+     * test evicted entries are spilled to, and reloaded from, the second level store
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testSecondLevelStore() throws IOException {
+        final File file = File.createTempFile("AbstractCacheTest", ".store");
+        try {
+            final Serializer<Integer> integers = Serializers.javaSerialization();
+            DiskStore<String, Integer> store = new DiskStore<String, Integer>(file, Serializers.utf8(), integers);
+            final LengthCache cache = new LengthCache(CacheSpec.newSpec().maximumSize(1), store);
+            cache.get("a");
+            cache.get("bb");
+            Assert.assertEquals(1, cache.size());
+            Assert.assertEquals(1, store.size());
+
+            // the evicted entry is read from the store rather than recomputed
+            cache.get("a");
+            cache.get("bb");
+            Assert.assertEquals(2, cache.created);
+            cache.persist();
+            store.close();
+
+            // a new cache is warmed from the store
+            store = new DiskStore<String, Integer>(file, Serializers.utf8(), integers);
+            final LengthCache restarted = new LengthCache(CacheSpec.newSpec(), store);
+            Assert.assertEquals(2, restarted.size());
+            Assert.assertEquals(Integer.valueOf(2), restarted.get("bb"));
+            Assert.assertEquals(0, restarted.created);
+            store.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * test expired entries are recomputed rather than spilled to, and read back from, the second level store
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testExpiredEntriesAreNotSpilled() throws Exception {
+        final List<CacheSpec> specs = Arrays.asList(
+                CacheSpec.newSpec().maximumSize(10).expireAfterWrite(50, TimeUnit.MILLISECONDS), CacheSpec.newSpec()
+                        .expireAfterWrite(50, TimeUnit.MILLISECONDS));
+        for (final CacheSpec spec : specs) {
+            final File file = File.createTempFile("AbstractCacheTest", ".store");
+            final DiskStore<String, Integer> store = new DiskStore<String, Integer>(file, Serializers.utf8(),
+                    Serializers.<Integer> javaSerialization());
+            try {
+                final LengthCache cache = new LengthCache(spec, store);
+                cache.get("a");
+                Thread.sleep(100);
+                Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+                Assert.assertEquals(spec.toString(), 2, cache.created);
+                Assert.assertEquals(spec.toString(), 0, store.size());
+            } finally {
+                store.close();
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * test entries moved from the cache to the second level store and back keep their original write time, and so
+     * still expire
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testSpilledEntriesKeepTheirWriteTime() throws Exception {
+        final File file = File.createTempFile("AbstractCacheTest", ".store");
+        final DiskStore<String, Integer> store = new DiskStore<String, Integer>(file, Serializers.utf8(),
+                Serializers.<Integer> javaSerialization());
+        try {
+            final LengthCache cache = new LengthCache(CacheSpec.newSpec().maximumSize(1)
+                    .expireAfterWrite(500, TimeUnit.MILLISECONDS), store);
+            cache.get("a");
+            cache.get("bb");
+            // 'a' is read back from the store, spilling 'bb'
+            Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+            Assert.assertEquals(2, cache.created);
+
+            // 'a' is spilled again, then expires in the store
+            Thread.sleep(300);
+            Assert.assertEquals(Integer.valueOf(2), cache.get("bb"));
+            Assert.assertEquals(2, cache.created);
+            Thread.sleep(300);
+            Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+            Assert.assertEquals(3, cache.created);
+        } finally {
+            store.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * test the map view reflects the cache's contents without computing missing values
+     */
+    @Test
+    public void testAsMapIsLiveReadOnlyView() {
+        final LengthCache cache = new LengthCache(CacheSpec.newSpec());
+        final Map<String, Integer> view = cache.asMap();
+        Assert.assertTrue(view.isEmpty());
+        Assert.assertNull(view.get("abc"));
+        Assert.assertNull(cache.getIfPresent("abc"));
+        Assert.assertEquals(0, cache.size());
+
+        cache.get("abc");
+        Assert.assertEquals(1, view.size());
+        Assert.assertEquals(Integer.valueOf(3), view.get("abc"));
+        Assert.assertEquals(Integer.valueOf(3), cache.getIfPresent("abc"));
+        for (final Map.Entry<String, Integer> entry : view.entrySet()) {
+            Assert.assertEquals("abc", entry.getKey());
+        }
+        try {
+            view.put("a", Integer.valueOf(1));
+            Assert.fail("the view should be read-only");
+        } catch (final UnsupportedOperationException e) {
+            // expected
+        }
+        Assert.assertEquals(1, cache.stats().loadSuccessCount());
+    }
+
+    /**
+     * test statistics can be registered and unregistered with the platform MBean server
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testRegisterMBean() throws Exception {
+        final LengthCache cache = new LengthCache(CacheSpec.newSpec());
+        cache.get("abc");
+        cache.get("abc");
+
+        final ObjectName name = cache.registerMBean("lengths");
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            Assert.assertTrue(server.isRegistered(name));
+            Assert.assertEquals(Long.valueOf(1), server.getAttribute(name, "HitCount"));
+            Assert.assertEquals(Long.valueOf(1), server.getAttribute(name, "Size"));
+        } finally {
+            cache.unregisterMBean();
+        }
+        Assert.assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,179 @@
+package com.porpoise.common.concurrent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the size-bounded caches created by {@link CacheSpec}
+ */
+public class BoundedMapTest {
+
+    /**
+     * test the cache never holds more than its maximum number of entries
+     */
+    @Test
+    public void testMaximumSize() {
+        final ConcurrentMap<Integer, String> map = CacheSpec.newSpec().maximumSize(100).newMap();
+        for (int i = 0; i < 1000; i++) {
+            map.put(Integer.valueOf(i), "value " + i);
+            Assert.assertTrue(map.size() <= 100);
+        }
+        Assert.assertEquals(100, map.size());
+    }
+
+    /**
+     * test the cache never holds more than its maximum total weight
+     */
+    @Test
+    public void testMaximumWeight() {
+        final Weigher<Integer, String> byLength = new Weigher<Integer, String>() {
+            @Override
+            public int weigh(final Integer key, final String value) {
+                return value.length();
+            }
+        };
+        final ConcurrentMap<Integer, String> map = CacheSpec.newSpec().maximumWeight(50, byLength).newMap();
+        for (int i = 0; i < 100; i++) {
+            map.put(Integer.valueOf(i), "0123456789");
+        }
+        Assert.assertEquals(5, map.size());
+
+        // a single entry heavier than the maximum is evicted straight away
+        map.put(Integer.valueOf(-1), "012345678901234567890123456789012345678901234567890123456789");
+        Assert.assertFalse(map.containsKey(Integer.valueOf(-1)));
+    }
+
+    /**
+     * test frequently read entries survive a scan of keys which are only used once
+     */
+    @SuppressWarnings("boxing")
+    @Test
+    public void testPopularEntriesSurviveScan() {
+        final ConcurrentMap<Integer, Integer> map = CacheSpec.newSpec().maximumSize(100).newMap();
+        for (int i = 0; i < 50; i++) {
+            map.put(i, i);
+        }
+        for (int read = 0; read < 20; read++) {
+            for (int i = 0; i < 50; i++) {
+                map.get(i);
+            }
+        }
+        for (int i = 1000; i < 10000; i++) {
+            map.put(i, i);
+        }
+        int survivors = 0;
+        for (int i = 0; i < 50; i++) {
+            if (map.containsKey(i)) {
+                survivors++;
+            }
+        }
+        Assert.assertTrue("only " + survivors + " popular entries survived", survivors >= 40);
+    }
+
+    /**
+     * test updates and removals are reflected in the map
+     */
+    @Test
+    public void testUpdateAndRemove() {
+        final ConcurrentMap<String, String> map = CacheSpec.newSpec().maximumSize(10).newMap();
+        Assert.assertNull(map.putIfAbsent("a", "1"));
+        Assert.assertEquals("1", map.putIfAbsent("a", "2"));
+        Assert.assertEquals("1", map.put("a", "3"));
+        Assert.assertTrue(map.replace("a", "3", "4"));
+        Assert.assertFalse(map.remove("a", "3"));
+        Assert.assertEquals("4", map.get("a"));
+        for (final Map.Entry<String, String> entry : map.entrySet()) {
+            Assert.assertEquals("a", entry.getKey());
+            Assert.assertEquals("4", entry.getValue());
+        }
+        Assert.assertEquals("4", map.remove("a"));
+        Assert.assertTrue(map.isEmpty());
+    }
+
+    /**
+     * test entries expire after they are written
+     * 
+     * @throws InterruptedException
+     */
+    @Test
+    public void testExpireAfterWrite() throws InterruptedException {
+        final ConcurrentMap<String, String> map = CacheSpec.newSpec().maximumSize(10)
+                .expireAfterWrite(10, TimeUnit.MILLISECONDS).newMap();
+        map.put("a", "1");
+        Thread.sleep(20);
+        Assert.assertNull(map.get("a"));
+        Assert.assertTrue(map.isEmpty());
+    }
+
+    /**
+     * test expired entries are removed as the map is maintained, so they are not counted and do not displace live entries
+     * 
+     * @throws InterruptedException
+     */
+    @SuppressWarnings("boxing")
+    @Test
+    public void testExpiredEntriesAreRemovedByMaintenance() throws InterruptedException {
+        final ConcurrentMap<Integer, Integer> map = CacheSpec.newSpec().maximumSize(10)
+                .expireAfterWrite(50, TimeUnit.MILLISECONDS).newMap();
+        for (int i = 0; i < 10; i++) {
+            map.put(i, i);
+        }
+        Thread.sleep(100);
+        Assert.assertEquals(0, map.size());
+
+        for (int i = 0; i < 10; i++) {
+            map.put(i, i);
+        }
+        Thread.sleep(100);
+        for (int i = 100; i < 110; i++) {
+            map.put(i, i);
+        }
+        for (int i = 100; i < 110; i++) {
+            Assert.assertTrue("live entry " + i + " was evicted", map.containsKey(i));
+        }
+        Assert.assertEquals(10, map.size());
+    }
+
+    /**
+     * test concurrent writers keep the map within its maximum
+     * 
+     * @throws InterruptedException
+     */
+    @SuppressWarnings("boxing")
+    @Test
+    public void testConcurrentWriters() throws InterruptedException {
+        final ConcurrentMap<Integer, Integer> map = CacheSpec.newSpec().maximumSize(100).concurrencyLevel(8).newMap();
+        final Thread[] writers = new Thread[8];
+        for (int t = 0; t < writers.length; t++) {
+            final int offset = t * 10000;
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        map.put(offset + i, i);
+                        if (i % 3 == 0) {
+                            map.remove(offset + i - 1);
+                        }
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (final Thread writer : writers) {
+            writer.join();
+        }
+        Assert.assertEquals(100, map.size());
+    }
+
+    /**
+     * test size bounds cannot be mixed with reference-based eviction
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testBoundedWithWeakValues() {
+        CacheSpec.newSpec().maximumSize(10).weakValues().newMap();
+    }
+}
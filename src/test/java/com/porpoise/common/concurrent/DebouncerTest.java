@@ -0,0 +1,98 @@
+package com.porpoise.common.concurrent;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Tests for the {@link Debouncer} class
+ */
+public class DebouncerTest {
+
+    private static Runnable append(final List<String> runs, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                runs.add(name);
+            }
+        };
+    }
+
+    /**
+     * test a burst of triggers results in one trailing execution of the latest job, per key
+     * 
+     * @throws InterruptedException
+     */
+    @Test
+    public void testTrailingEdge() throws InterruptedException {
+        final List<String> runs = new CopyOnWriteArrayList<String>();
+        final Debouncer<String> debouncer = new Debouncer<String>(MoreExecutors.sameThreadExecutor(), 100,
+                TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 5; i++) {
+            debouncer.trigger("a", append(runs, "a" + i));
+        }
+        debouncer.trigger("b", append(runs, "b"));
+        Assert.assertTrue(runs.isEmpty());
+        Assert.assertTrue(debouncer.isPending("a"));
+
+        Thread.sleep(400);
+        Assert.assertEquals(2, runs.size());
+        Assert.assertEquals(ImmutableSet.of("a4", "b"), ImmutableSet.copyOf(runs));
+        Assert.assertEquals(0, debouncer.size());
+    }
+
+    /**
+     * test the leading edge runs immediately, and a trailing execution only follows further triggers
+     * 
+     * @throws InterruptedException
+     */
+    @Test
+    public void testLeadingEdge() throws InterruptedException {
+        final List<String> runs = new CopyOnWriteArrayList<String>();
+        final Debouncer<String> debouncer = new Debouncer<String>(MoreExecutors.sameThreadExecutor(), 100,
+                TimeUnit.MILLISECONDS);
+        debouncer.setLeading(true);
+        debouncer.trigger("a", append(runs, "first"));
+        Assert.assertEquals(ImmutableList.of("first"), ImmutableList.copyOf(runs));
+        Thread.sleep(300);
+        Assert.assertEquals(ImmutableList.of("first"), ImmutableList.copyOf(runs));
+
+        debouncer.trigger("a", append(runs, "second"));
+        debouncer.trigger("a", append(runs, "third"));
+        Thread.sleep(300);
+        Assert.assertEquals(ImmutableList.of("first", "second", "third"), ImmutableList.copyOf(runs));
+    }
+
+    /**
+     * test a key triggered continuously still executes once the max wait has passed
+     * 
+     * @throws InterruptedException
+     */
+    @Test
+    public void testMaxWait() throws InterruptedException {
+        final AtomicInteger runs = new AtomicInteger();
+        final Runnable job = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        final Debouncer<String> debouncer = new Debouncer<String>(MoreExecutors.sameThreadExecutor(), 100,
+                TimeUnit.MILLISECONDS);
+        debouncer.setMaxWait(150, TimeUnit.MILLISECONDS);
+        final long end = System.currentTimeMillis() + 600;
+        while (System.currentTimeMillis() < end) {
+            debouncer.trigger("a", job);
+            Thread.sleep(10);
+        }
+        Assert.assertTrue("expected forced executions, but ran " + runs.get(), runs.get() >= 2);
+    }
+}
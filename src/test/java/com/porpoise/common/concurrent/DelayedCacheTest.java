@@ -1,16 +1,24 @@
 package com.porpoise.common.concurrent;
 
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /**
  * Tests for the {@link DelayedCache} class
@@ -94,4 +102,152 @@ public class DelayedCacheTest {
         Assert.assertEquals(123, Iterables.getOnlyElement(this.resultMap.values()).intValue());
     }
 
+    /**
+     * test stale values continue to be served while they are recomputed
+     * 
+     * @throws InterruptedException
+     */
+    @Test
+    public void testRefreshAfterWrite() throws InterruptedException {
+        final AtomicInteger computations = new AtomicInteger();
+        final DelayedCache<String, Integer> refreshing = new DelayedCache<String, Integer>() {
+            @SuppressWarnings("boxing")
+            @Override
+            protected Integer computeValue(final String key) {
+                return computations.incrementAndGet();
+            }
+        };
+        refreshing.setRefreshAfterWrite(1, TimeUnit.MILLISECONDS);
+        final BlockingQueue<Integer> computed = new LinkedBlockingQueue<Integer>();
+        refreshing.addListener(new CallableListenerAdapter<String, Integer>() {
+            @Override
+            public void onComplete(final String key, final Integer result) {
+                computed.add(result);
+            }
+        });
+        try {
+            final AtomicReference<Integer> ref = refreshing.get("key");
+            Assert.assertEquals(Integer.valueOf(1), computed.poll(1, TimeUnit.SECONDS));
+            Assert.assertEquals(Integer.valueOf(1), ref.get());
+
+            Thread.sleep(5);
+            final AtomicReference<Integer> stale = refreshing.get("key");
+            Assert.assertSame(ref, stale);
+            Assert.assertNotNull("the old value should be served while refreshing", stale.get());
+            Assert.assertEquals(Integer.valueOf(2), computed.poll(1, TimeUnit.SECONDS));
+            Assert.assertEquals(Integer.valueOf(2), refreshing.get("key").get());
+        } finally {
+            refreshing.dispose();
+        }
+    }
+
+    /**
+     * test computations beyond the loader pool's queue limit are handled by the rejection policy
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testBoundedLoaderPool() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final DelayedCache<String, Integer> bounded = new DelayedCache<String, Integer>(CacheSpec.newSpec(), 1, 1,
+                LoadRejectionPolicy.SERVE_DEFAULT) {
+            @SuppressWarnings("boxing")
+            @Override
+            protected Integer computeValue(final String key) {
+                if (!"4".equals(key)) {
+                    Uninterruptibles.awaitUninterruptibly(release);
+                }
+                return Integer.parseInt(key);
+            }
+        };
+        bounded.setDefaultValue(Integer.valueOf(-1));
+        try {
+            bounded.get("1");
+            // wait for the first computation to start, leaving the queue empty
+            while (bounded.stats().inFlightCount() != 1 || bounded.getQueueDepth() != 0) {
+                Thread.yield();
+            }
+            bounded.get("2");
+            Assert.assertEquals(1, bounded.getQueueDepth());
+
+            // the queue is full, so the default is served...
+            Assert.assertEquals(Integer.valueOf(-1), bounded.get("3").get());
+            Assert.assertEquals(1, bounded.stats().loadFailureCount());
+            // ... including to asynchronous requests, rather than waiting on a computation which never started
+            Assert.assertEquals(Integer.valueOf(-1), bounded.getAsync("5").get(5, TimeUnit.SECONDS));
+
+            // ... or the value computed by the caller
+            bounded.setRejectionPolicy(LoadRejectionPolicy.CALLER_RUNS);
+            Assert.assertEquals(Integer.valueOf(4), bounded.get("4").get());
+        } finally {
+            release.countDown();
+            bounded.dispose();
+        }
+    }
+
+    /**
+     * test the future returned by getAsync completes once the value is computed, or times out
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testGetAsync() throws Exception {
+        final ListenableFuture<Integer> timed = this.cache.getAsync("456", 10, TimeUnit.MILLISECONDS);
+        try {
+            timed.get(1, TimeUnit.SECONDS);
+            Assert.fail("expected a timeout");
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        final ListenableFuture<Integer> future = this.cache.getAsync("456");
+        Assert.assertFalse(future.isDone());
+        this.pauseComputationLatch.countDown();
+        Assert.assertEquals(456, future.get(1, TimeUnit.SECONDS).intValue());
+
+        // once computed, values are available immediately
+        Assert.assertTrue(this.cache.getAsync("456", 10, TimeUnit.MILLISECONDS).isDone());
+    }
+
+    /**
+     * test listeners subscribed to specific keys, or keys matching a predicate, are only notified of those keys
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testKeyedListeners() throws Exception {
+        final BlockingQueue<String> keyed = new LinkedBlockingQueue<String>();
+        final BlockingQueue<String> matched = new LinkedBlockingQueue<String>();
+        this.cache.addListener("1", new CallableListenerAdapter<String, Integer>() {
+            @Override
+            public void onComplete(final String key, final Integer result) {
+                keyed.add(key);
+            }
+        });
+        final CallableListener<String, Integer> twoDigits = new CallableListenerAdapter<String, Integer>() {
+            @Override
+            public void onComplete(final String key, final Integer result) {
+                matched.add(key);
+            }
+        };
+        this.cache.addListener(new Predicate<String>() {
+            @Override
+            public boolean apply(final String key) {
+                return key.length() == 2;
+            }
+        }, twoDigits);
+
+        this.pauseComputationLatch.countDown();
+        this.cache.get("1");
+        this.cache.get("12");
+        Assert.assertEquals("1", keyed.poll(1, TimeUnit.SECONDS));
+        Assert.assertEquals("12", matched.poll(1, TimeUnit.SECONDS));
+
+        Assert.assertTrue(this.cache.removeListener(twoDigits));
+        Assert.assertFalse(this.cache.removeListener(twoDigits));
+        this.cache.get("34");
+        Assert.assertEquals("34", this.cache.getAsync("34").get().toString());
+        Assert.assertTrue(keyed.isEmpty());
+        Assert.assertTrue(matched.isEmpty());
+    }
 }
@@ -0,0 +1,128 @@
+package com.porpoise.common.concurrent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Tests for the {@link DiskStore} class
+ */
+public class DiskStoreTest {
+
+    private File file;
+
+    /**
+     * @throws IOException
+     */
+    @Before
+    public void setup() throws IOException {
+        this.file = File.createTempFile("DiskStoreTest", ".store");
+    }
+
+    /**
+     * delete the store file
+     */
+    @After
+    public void tearDown() {
+        this.file.delete();
+    }
+
+    private DiskStore<String, String> open() throws IOException {
+        return new DiskStore<String, String>(this.file, Serializers.utf8(), Serializers.utf8());
+    }
+
+    /**
+     * test entries are written, overwritten, removed and survive being reopened
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testPutGetRemoveAndReopen() throws IOException {
+        final DiskStore<String, String> store = open();
+        store.put("a", "1");
+        store.put("b", "2");
+        store.put("a", "3");
+        store.remove("b");
+        Assert.assertEquals("3", store.get("a"));
+        Assert.assertNull(store.get("b"));
+        store.close();
+
+        final DiskStore<String, String> reopened = open();
+        Assert.assertEquals(1, reopened.size());
+        Assert.assertEquals("3", reopened.get("a"));
+        Assert.assertEquals(ImmutableSet.of("a"), ImmutableSet.copyOf(reopened.keys()));
+        reopened.compact();
+        Assert.assertEquals("3", reopened.get("a"));
+        reopened.close();
+    }
+
+    /**
+     * test a partially written record at the end of the file is discarded
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testIncompleteRecordIsDiscarded() throws IOException {
+        final DiskStore<String, String> store = open();
+        store.put("a", "1");
+        store.put("b", "2");
+        store.close();
+
+        final RandomAccessFile raw = new RandomAccessFile(this.file, "rw");
+        raw.setLength(raw.length() - 1);
+        raw.close();
+
+        final DiskStore<String, String> reopened = open();
+        Assert.assertEquals("1", reopened.get("a"));
+        Assert.assertNull(reopened.get("b"));
+        reopened.put("b", "4");
+        Assert.assertEquals("4", reopened.get("b"));
+        reopened.close();
+    }
+
+    /**
+     * test concurrent writers which overwrite the same keys compact the file without losing any entries
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentWritesAreCompacted() throws Exception {
+        final DiskStore<String, String> store = open();
+        final String padding = Strings.repeat("x", 10000);
+        final Thread[] writers = new Thread[4];
+        for (int i = 0; i < writers.length; i++) {
+            final String key = "key" + i;
+            writers[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 500; j++) {
+                        store.put(key, j + padding);
+                    }
+                }
+            };
+            writers[i].start();
+        }
+        for (final Thread writer : writers) {
+            writer.join();
+        }
+        Assert.assertTrue("the file should have been compacted", this.file.length() < 2 * 1024 * 1024);
+        for (int i = 0; i < writers.length; i++) {
+            Assert.assertEquals(499 + padding, store.get("key" + i));
+        }
+        store.close();
+        Assert.assertFalse(new File(this.file.getPath() + ".compact").exists());
+
+        final DiskStore<String, String> reopened = open();
+        Assert.assertEquals(writers.length, reopened.size());
+        Assert.assertEquals(499 + padding, reopened.get("key0"));
+        reopened.close();
+    }
+}
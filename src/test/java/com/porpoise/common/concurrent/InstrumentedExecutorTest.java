@@ -0,0 +1,78 @@
+package com.porpoise.common.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Tests for the {@link InstrumentedExecutor} class
+ */
+public class InstrumentedExecutorTest {
+
+    /**
+     * test completed, failed and rejected tasks are counted, and their queue and run times recorded
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testStats() throws Exception {
+        final InstrumentedExecutor executor = InstrumentedExecutor.instrument(Threads.newBoundedThreadPool(1, 1));
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                Uninterruptibles.awaitUninterruptibly(release);
+            }
+        });
+        // the future catches the exception, so the task must be counted as failed by the executor
+        final Future<Object> failing = executor.submit(new Callable<Object>() {
+            @Override
+            public Object call() {
+                throw new IllegalStateException("expected");
+            }
+        });
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // never run
+                }
+            });
+            Assert.fail("the queue should be full");
+        } catch (final RejectedExecutionException e) {
+            // expected
+        }
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(20);
+        release.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        try {
+            failing.get();
+            Assert.fail("the task should have failed");
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        final ExecutorStatistics stats = executor.stats();
+        Assert.assertEquals(2, stats.submittedCount());
+        Assert.assertEquals(1, stats.completedCount());
+        Assert.assertEquals(1, stats.failedCount());
+        Assert.assertEquals(1, stats.rejectedCount());
+        Assert.assertEquals(0, stats.pendingCount());
+        // the failing task waited for the first to finish
+        Assert.assertTrue(stats.queueWaitPercentileNanos(100) >= TimeUnit.MILLISECONDS.toNanos(20));
+        Assert.assertTrue(stats.runTimePercentileNanos(100) >= TimeUnit.MILLISECONDS.toNanos(20));
+        Assert.assertTrue(stats.averageRunTimeNanos() > 0);
+    }
+}
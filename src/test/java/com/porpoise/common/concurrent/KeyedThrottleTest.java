@@ -0,0 +1,62 @@
+package com.porpoise.common.concurrent;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.porpoise.common.concurrent.RateLimiterTest.FakeTicker;
+
+/**
+ * Tests for the {@link KeyedThrottle} class
+ */
+public class KeyedThrottleTest {
+
+    /**
+     * test each key is limited independently, queueing then rejecting jobs, and idle keys are evicted
+     */
+    @Test
+    public void testKeysAreThrottledIndependentlyAndEvicted() {
+        final FakeTicker ticker = new FakeTicker();
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final AtomicInteger runs = new AtomicInteger();
+        final Runnable job = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        try {
+            final KeyedThrottle<String> throttle = new KeyedThrottle<String>(MoreExecutors.sameThreadExecutor(),
+                    scheduler, 1, 2, 1, 1, TimeUnit.MINUTES, ticker);
+            Assert.assertTrue(throttle.submit("a", job));
+            Assert.assertTrue(throttle.submit("a", job));
+            Assert.assertEquals(2, runs.get());
+            // the third is queued, and the fourth rejected
+            Assert.assertTrue(throttle.submit("a", job));
+            Assert.assertFalse(throttle.submit("a", job));
+            Assert.assertEquals(2, runs.get());
+
+            Assert.assertTrue(throttle.submit("b", job));
+            Assert.assertEquals(3, runs.get());
+            Assert.assertEquals(2, throttle.size());
+
+            ticker.advance(2, TimeUnit.MINUTES);
+            throttle.cleanUp();
+            // 'a' still has a job queued
+            Assert.assertEquals(1, throttle.size());
+
+            ticker.advance(1, TimeUnit.SECONDS);
+            Assert.assertTrue(throttle.submit("b", job));
+            Assert.assertTrue(throttle.submit("b", job));
+            Assert.assertEquals(5, runs.get());
+            throttle.dispose();
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.porpoise.common.concurrent;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Tests for the {@link Pipeline} class
+ */
+public class PipelineTest {
+
+    private static final Function<String, Integer> PARSE = new Function<String, Integer>() {
+        @Override
+        public Integer apply(final String input) {
+            return Integer.valueOf(input);
+        }
+    };
+
+    private static final Function<Integer, Integer> SQUARE = new Function<Integer, Integer>() {
+        @Override
+        public Integer apply(final Integer input) {
+            return Integer.valueOf(input.intValue() * input.intValue());
+        }
+    };
+
+    /**
+     * test items flow through every stage, failures skip later stages and listeners are notified
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testItemsFlowThroughStages() throws Exception {
+        final Pipeline<String, Integer> pipeline = Pipeline.<String> builder("test").stage("parse", PARSE, 2, 10)
+                .stage("square", SQUARE, 2, 10).start();
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        pipeline.addListener(new CallableListener<String, Integer>() {
+            @Override
+            public void onComplete(final String key, final Integer result) {
+                completed.incrementAndGet();
+            }
+
+            @Override
+            public boolean onException(final String key, final Exception exp) {
+                failed.incrementAndGet();
+                return false;
+            }
+        });
+        try {
+            final List<ListenableFuture<Integer>> results = Lists.newArrayList();
+            for (int i = 0; i < 50; i++) {
+                results.add(pipeline.submit(String.valueOf(i)));
+            }
+            final ListenableFuture<Integer> bad = pipeline.submit("not a number");
+            for (int i = 0; i < 50; i++) {
+                Assert.assertEquals(Integer.valueOf(i * i), results.get(i).get(5, TimeUnit.SECONDS));
+            }
+            try {
+                bad.get(5, TimeUnit.SECONDS);
+                Assert.fail("expected the parse to fail");
+            } catch (final ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof NumberFormatException);
+            }
+            Assert.assertEquals(50, completed.get());
+            Assert.assertEquals(1, failed.get());
+            Assert.assertEquals(51, pipeline.stats().get("parse").submittedCount());
+            Assert.assertEquals(1, pipeline.stats().get("parse").failedCount());
+            Assert.assertEquals(50, pipeline.stats().get("square").completedCount());
+        } finally {
+            pipeline.stop();
+        }
+    }
+
+    /**
+     * test a blocked stage applies back-pressure, bounding the items buffered
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testBackPressure() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Function<Integer, Integer> blocked = new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(final Integer input) {
+                Uninterruptibles.awaitUninterruptibly(release);
+                return input;
+            }
+        };
+        final Pipeline<String, Integer> pipeline = Pipeline.<String> builder("test").stage("parse", PARSE, 1, 1)
+                .stage("blocked", blocked, 1, 1).start();
+        try {
+            int accepted = 0;
+            while (pipeline.trySubmit(String.valueOf(accepted), 50, TimeUnit.MILLISECONDS) != null) {
+                accepted++;
+                Assert.assertTrue("the pipeline should have blocked", accepted < 10);
+            }
+            // one item in each stage's worker and queue
+            Assert.assertEquals(4, accepted);
+            Assert.assertEquals(1, pipeline.stats().get("parse").rejectedCount());
+            release.countDown();
+            Assert.assertEquals(Integer.valueOf(5), pipeline.submit("5").get(5, TimeUnit.SECONDS));
+        } finally {
+            pipeline.stop();
+        }
+    }
+
+    /**
+     * test an error thrown by a stage fails the item without stopping the stage's worker
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testErrorFailsItem() throws Exception {
+        final Function<Integer, Integer> erroring = new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(final Integer input) {
+                if (input.intValue() == 0) {
+                    throw new AssertionError("zero");
+                }
+                return input;
+            }
+        };
+        final Pipeline<String, Integer> pipeline = Pipeline.<String> builder("test").stage("parse", PARSE, 1, 10)
+                .stage("erroring", erroring, 1, 10).start();
+        final AtomicReference<Exception> notified = new AtomicReference<Exception>();
+        pipeline.addListener(new CallableListener<String, Integer>() {
+            @Override
+            public void onComplete(final String key, final Integer result) {
+                // ignored
+            }
+
+            @Override
+            public boolean onException(final String key, final Exception exp) {
+                notified.set(exp);
+                return false;
+            }
+        });
+        try {
+            final ListenableFuture<Integer> bad = pipeline.submit("0");
+            final ListenableFuture<Integer> good = pipeline.submit("1");
+            try {
+                bad.get(5, TimeUnit.SECONDS);
+                Assert.fail("expected the stage to fail");
+            } catch (final ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof AssertionError);
+            }
+            Assert.assertEquals(Integer.valueOf(1), good.get(5, TimeUnit.SECONDS));
+            Assert.assertTrue(notified.get() instanceof UncheckedExecutionException);
+            Assert.assertTrue(notified.get().getCause() instanceof AssertionError);
+            Assert.assertEquals(1, pipeline.stats().get("erroring").failedCount());
+        } finally {
+            pipeline.stop();
+        }
+    }
+
+    /**
+     * test a throwing listener neither stops the other listeners nor leaves futures incomplete
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testThrowingListener() throws Exception {
+        final Pipeline<String, Integer> pipeline = Pipeline.<String> builder("test").stage("parse", PARSE, 1, 10)
+                .start();
+        final AtomicInteger notified = new AtomicInteger();
+        final CallableListener<String, Integer> throwing = new CallableListener<String, Integer>() {
+            @Override
+            public void onComplete(final String key, final Integer result) {
+                throw new IllegalStateException("complete");
+            }
+
+            @Override
+            public boolean onException(final String key, final Exception exp) {
+                throw new IllegalStateException("exception");
+            }
+        };
+        pipeline.addListener(throwing);
+        pipeline.addListener(new CallableListener<String, Integer>() {
+            @Override
+            public void onComplete(final String key, final Integer result) {
+                notified.incrementAndGet();
+            }
+
+            @Override
+            public boolean onException(final String key, final Exception exp) {
+                notified.incrementAndGet();
+                return false;
+            }
+        });
+        try {
+            Assert.assertEquals(Integer.valueOf(1), pipeline.submit("1").get(5, TimeUnit.SECONDS));
+            try {
+                pipeline.submit("not a number").get(5, TimeUnit.SECONDS);
+                Assert.fail("expected the parse to fail");
+            } catch (final ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof NumberFormatException);
+            }
+            Assert.assertEquals(Integer.valueOf(2), pipeline.submit("2").get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(3, notified.get());
+        } finally {
+            pipeline.stop();
+        }
+    }
+
+    /**
+     * test items submitted whilst the pipeline is being stopped are either run or cancelled, never left incomplete
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testSubmitRacingStop() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            final Pipeline<String, Integer> pipeline = Pipeline.<String> builder("test").stage("parse", PARSE, 2, 4)
+                    .stage("square", SQUARE, 2, 4).start();
+            final List<ListenableFuture<Integer>> results = new CopyOnWriteArrayList<ListenableFuture<Integer>>();
+            final Thread submitter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0;; i++) {
+                            results.add(pipeline.submit(String.valueOf(i)));
+                        }
+                    } catch (final IllegalStateException e) {
+                        // stopped
+                    } catch (final InterruptedException e) {
+                        // stopped
+                    }
+                }
+            });
+            submitter.start();
+            Thread.sleep(5);
+            pipeline.stop();
+            submitter.join(TimeUnit.SECONDS.toMillis(5));
+            Assert.assertFalse("the submitter should have stopped", submitter.isAlive());
+            for (final ListenableFuture<Integer> result : results) {
+                try {
+                    result.get(5, TimeUnit.SECONDS);
+                } catch (final CancellationException e) {
+                    // cancelled by stop
+                }
+            }
+        }
+    }
+}
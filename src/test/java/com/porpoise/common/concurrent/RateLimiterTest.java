@@ -0,0 +1,111 @@
+package com.porpoise.common.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Tests for the {@link RateLimiter} class
+ */
+public class RateLimiterTest {
+
+    /**
+     * a ticker which only moves when told to
+     */
+    static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return this.nanos;
+        }
+
+        void advance(final long time, final TimeUnit unit) {
+            this.nanos += unit.toNanos(time);
+        }
+    }
+
+    /**
+     * test a full bucket allows a burst, after which permits are handed out at the given rate
+     */
+    @Test
+    public void testBurstThenRefill() {
+        final FakeTicker ticker = new FakeTicker();
+        final RateLimiter limiter = new RateLimiter(10, 3, ticker);
+        Assert.assertEquals(10.0, limiter.getRate(), 0.001);
+        Assert.assertEquals(3, limiter.getBurstSize());
+
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertFalse(limiter.tryAcquire());
+
+        ticker.advance(50, TimeUnit.MILLISECONDS);
+        Assert.assertFalse(limiter.tryAcquire());
+        ticker.advance(50, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertFalse(limiter.tryAcquire());
+
+        // a long quiet period refills the bucket, but no further than the burst size
+        ticker.advance(10, TimeUnit.SECONDS);
+        Assert.assertTrue(limiter.tryAcquire(3));
+        Assert.assertFalse(limiter.tryAcquire());
+    }
+
+    /**
+     * test reservations are granted immediately while permits remain, then queue up behind each other
+     */
+    @Test
+    public void testReserve() {
+        final FakeTicker ticker = new FakeTicker();
+        final RateLimiter limiter = new RateLimiter(10, 2, ticker);
+        final long interval = TimeUnit.MILLISECONDS.toNanos(100);
+
+        Assert.assertEquals(0, limiter.reserve(1));
+        Assert.assertEquals(0, limiter.reserve(1));
+        Assert.assertEquals(interval, limiter.reserve(1));
+        Assert.assertEquals(2 * interval, limiter.reserve(1));
+        Assert.assertFalse(limiter.tryAcquire());
+
+        ticker.advance(300, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertFalse(limiter.tryAcquire());
+    }
+
+    /**
+     * test a throttled runnable runs its first invocation immediately, queues the next and ignores the rest
+     * 
+     * @throws InterruptedException
+     */
+    @Test
+    public void testThrottle() throws InterruptedException {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch queuedRun = new CountDownLatch(2);
+        final Runnable job = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                queuedRun.countDown();
+            }
+        };
+        final ExecutorService executor = Threads.newFixedThreadPool(1);
+        try {
+            final Runnable throttled = Runnables.throttle(executor, job, 200, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < 5; i++) {
+                throttled.run();
+            }
+            Assert.assertEquals(1, runs.get());
+            Assert.assertTrue(queuedRun.await(2, TimeUnit.SECONDS));
+            Thread.sleep(300);
+            Assert.assertEquals(2, runs.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
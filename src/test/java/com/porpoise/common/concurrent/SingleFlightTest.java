@@ -0,0 +1,93 @@
+package com.porpoise.common.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Tests for the {@link SingleFlight} class
+ */
+public class SingleFlightTest {
+
+    /**
+     * test concurrent requests for a key share one call, and the key is forgotten once it completes
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testRequestsAreCoalesced() throws Exception {
+        final ExecutorService pool = Threads.newFixedThreadPool(2);
+        final SingleFlight<String, Integer> flights = new SingleFlight<String, Integer>(pool);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger notified = new AtomicInteger();
+        flights.addListener("a", new CallableListener<String, Integer>() {
+            @Override
+            public void onComplete(final String key, final Integer result) {
+                notified.incrementAndGet();
+            }
+
+            @Override
+            public boolean onException(final String key, final Exception exp) {
+                return false;
+            }
+        });
+        final Callable<Integer> call = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                Uninterruptibles.awaitUninterruptibly(release);
+                return Integer.valueOf(calls.incrementAndGet());
+            }
+        };
+        try {
+            final ListenableFuture<Integer> first = flights.execute("a", call);
+            final ListenableFuture<Integer> second = flights.execute("a", call);
+            Assert.assertSame(first, second);
+            Assert.assertSame(first, flights.getInFlight("a"));
+            Assert.assertEquals(1, flights.inFlightCount());
+
+            release.countDown();
+            Assert.assertEquals(Integer.valueOf(1), first.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(1, notified.get());
+            Assert.assertNull(flights.getInFlight("a"));
+
+            Assert.assertEquals(Integer.valueOf(2), flights.execute("a", call).get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * test a failed call fails its future, even if no listener asks for the exception to be rethrown
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testFailure() throws Exception {
+        final ExecutorService pool = Threads.newFixedThreadPool(1);
+        final SingleFlight<String, Integer> flights = new SingleFlight<String, Integer>(pool);
+        try {
+            flights.execute("a", new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    throw new IllegalStateException("expected");
+                }
+            }).get(5, TimeUnit.SECONDS);
+            Assert.fail("expected the call to fail");
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertEquals(0, flights.inFlightCount());
+    }
+}
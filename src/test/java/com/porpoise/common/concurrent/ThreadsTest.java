@@ -0,0 +1,73 @@
+package com.porpoise.common.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link Threads} class
+ */
+public class ThreadsTest {
+
+    /**
+     * test every kind of pool can be created and runs tasks, falling back where the JVM lacks support
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testEveryPoolKindRunsTasks() throws Exception {
+        for (final PoolKind kind : PoolKind.values()) {
+            final ExecutorService pool = kind.newPool("ThreadsTest", 2, 10);
+            try {
+                final String result = pool.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return "ran";
+                    }
+                }).get(5, TimeUnit.SECONDS);
+                Assert.assertEquals(kind.name(), "ran", result);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * test shared pools are created once per kind, and the work-stealing pool uses every processor
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testSharedPools() throws Exception {
+        Assert.assertSame(Threads.getDefaultThreadPool(), Threads.getSharedPool(PoolKind.FIXED));
+        Assert.assertSame(Threads.getSharedPool(PoolKind.BOUNDED), Threads.getSharedPool(PoolKind.BOUNDED));
+        Assert.assertNotSame(Threads.getSharedPool(PoolKind.FIXED), Threads.getSharedPool(PoolKind.BOUNDED));
+
+        final ExecutorService workStealing = Threads.getSharedPool(PoolKind.WORK_STEALING);
+        final int parallelism = workStealing instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) workStealing)
+                .getCorePoolSize() : ((Integer) workStealing.getClass().getMethod("getParallelism").invoke(
+                workStealing)).intValue();
+        Assert.assertEquals(Runtime.getRuntime().availableProcessors(), parallelism);
+    }
+
+    /**
+     * test the shared scheduler's thread is named as such and runs at normal priority
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testDefaultSchedulerThread() throws Exception {
+        final Thread thread = Threads.getDefaultScheduler().schedule(new Callable<Thread>() {
+            @Override
+            public Thread call() {
+                return Thread.currentThread();
+            }
+        }, 0, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(thread.getName(), thread.getName().startsWith("common-scheduler"));
+        Assert.assertEquals(Thread.NORM_PRIORITY, thread.getPriority());
+    }
+}
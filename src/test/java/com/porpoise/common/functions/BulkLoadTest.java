@@ -0,0 +1,113 @@
+package com.porpoise.common.functions;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.porpoise.common.concurrent.Threads;
+
+/**
+ * Tests for the parallel bulk loading of {@link FunctionMap}s and {@link FunctionSet}s
+ */
+public class BulkLoadTest {
+
+	private static final Function<String, Integer>	 LENGTH	= new Function<String, Integer>() {
+		                                                       @Override
+		                                                       public Integer apply(final String input) {
+			                                                       return Integer.valueOf(input.length());
+		                                                       }
+	                                                       };
+
+	private static final Function<String, Character>	FIRST	= new Function<String, Character>() {
+		                                                       @Override
+		                                                       public Character apply(final String input) {
+			                                                       return Character.valueOf(input.charAt(0));
+		                                                       }
+	                                                       };
+
+	private ExecutorService	                       pool;
+	private List<String>	                           values;
+
+	@Before
+	public void setup() {
+		this.pool = Threads.newFixedThreadPool(4);
+		// enough values to be loaded in parallel, with many sharing a key
+		final Random random = new Random(7);
+		this.values = Lists.newArrayList();
+		for (int i = 0; i < 5 * BulkLoad.PARALLEL_THRESHOLD; i++) {
+			this.values.add((char) ('a' + random.nextInt(26)) + Integer.toString(random.nextInt(100000)));
+			if (i % 1000 == 0) {
+				this.values.add(null);
+			}
+		}
+	}
+
+	@After
+	public void tearDown() {
+		this.pool.shutdown();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testMapLoadKeepsTheLastValueOfEachKey() throws InterruptedException {
+		final Function<String, Key<String>> keyFunction = Keys.keyFunction(FIRST, LENGTH);
+		final FunctionMap<String> serial = new FunctionMap<String>(keyFunction, this.values);
+		final FunctionMap<String> parallel = FunctionMap.load(keyFunction, this.values, this.pool);
+
+		Assert.assertEquals(serial.size(), parallel.size());
+		for (final String value : serial.values()) {
+			Assert.assertSame(value, parallel.get(value));
+		}
+	}
+
+	@Test
+	public void testSetLoadKeepsTheFirstValueOfEachKey() throws InterruptedException {
+		final FunctionSet<String> parallel = FunctionSet.load(LENGTH, this.values, this.pool);
+
+		// the first value of each length in the input is kept
+		for (final String value : parallel) {
+			for (final String earlier : this.values) {
+				if (earlier != null && earlier.length() == value.length()) {
+					Assert.assertSame(earlier, value);
+					break;
+				}
+			}
+		}
+		final FunctionSet<String> serialAll = new FunctionSet<String>(LENGTH);
+		for (final String value : this.values) {
+			if (value != null) {
+				serialAll.add(value);
+			}
+		}
+		Assert.assertEquals(Sets.newHashSet(serialAll), Sets.newHashSet(parallel));
+	}
+
+	@Test
+	public void testSmallLoadsAreComputedSerially() throws InterruptedException {
+		final FunctionSet<String> set = FunctionSet.load(LENGTH, ImmutableList.of("a", "b", "cc"));
+		Assert.assertEquals(Sets.newHashSet("a", "cc"), Sets.newHashSet(set));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testKeyFunctionFailuresPropagate() throws InterruptedException {
+		final Function<String, Object> failing = new Function<String, Object>() {
+			@Override
+			public Object apply(final String input) {
+				if (input.startsWith("z")) {
+					throw new IllegalStateException("expected");
+				}
+				return input;
+			}
+		};
+		FunctionSet.load(failing, this.values, this.pool);
+	}
+}
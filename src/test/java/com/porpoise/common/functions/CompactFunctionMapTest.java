@@ -0,0 +1,146 @@
+package com.porpoise.common.functions;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Tests for {@link CompactFunctionMap} and {@link CompactFunctionSet}
+ */
+public class CompactFunctionMapTest extends FunctionMapTestSupport {
+
+	private static final Function<Thing, Character>	STARTS_WITH	= new Function<Thing, Character>() {
+		                                                            @Override
+		                                                            public Character apply(final Thing input) {
+			                                                            return Character.valueOf(input.getValue()
+			                                                                    .charAt(0));
+		                                                            }
+	                                                            };
+
+	private static final Function<Thing, Integer>	LENGTH	    = new Function<Thing, Integer>() {
+		                                                            @Override
+		                                                            public Integer apply(final Thing input) {
+			                                                            return Integer.valueOf(input.getLength());
+		                                                            }
+	                                                            };
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testPutAndLookupByEquivalentValue() {
+		final CompactFunctionMap<Thing> map = CompactFunctionMap.create(STARTS_WITH, LENGTH);
+		Assert.assertTrue(map.isEmpty());
+
+		final Thing a1 = new Thing("A1");
+		Assert.assertNull(map.putValue(a1));
+		Assert.assertNull(map.putValue(new Thing("B1")));
+		Assert.assertEquals(2, map.size());
+
+		// "A2" has the same first letter and length as "A1", so is a lookup for it and replaces it
+		Assert.assertSame(a1, map.get(new Thing("A2")));
+		Assert.assertTrue(map.containsKey(new Thing("A2")));
+		Assert.assertTrue(map.containsValue(a1));
+		Assert.assertFalse(map.containsValue(new Thing("A2")));
+		Assert.assertFalse(map.containsKey(null));
+		Assert.assertFalse(map.containsKey(new Object()));
+		Assert.assertNull(map.get(new Thing("C1")));
+
+		final Thing a2 = new Thing("A2");
+		Assert.assertSame(a1, map.put(map.asKey(a2), a2));
+		Assert.assertSame(a2, map.get(a1));
+		Assert.assertEquals(2, map.size());
+
+		// keys are created on demand, and equal those of a FunctionMap
+		final FunctionMap<Thing> functionMap = FunctionMap.create(STARTS_WITH, LENGTH);
+		functionMap.put(a2);
+		functionMap.put(new Thing("B1"));
+		Assert.assertEquals(Sets.newHashSet(functionMap.keySet()), Sets.newHashSet(map.keySet()));
+
+		Assert.assertSame(a2, map.remove(new Thing("A3")));
+		Assert.assertNull(map.remove(new Thing("A3")));
+		Assert.assertEquals(1, map.size());
+		map.clear();
+		Assert.assertTrue(map.isEmpty());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test(expected = IllegalArgumentException.class)
+	public void testPutUnderAnotherKey() {
+		final CompactFunctionMap<Thing> map = CompactFunctionMap.create(STARTS_WITH, LENGTH);
+		map.put(map.asKey(new Thing("A1")), new Thing("B1"));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRandomOperationsMatchAHashMap() {
+		final CompactFunctionMap<Thing> map = CompactFunctionMap.create(STARTS_WITH, LENGTH);
+		final Map<String, Thing> expected = Maps.newHashMap();
+		final Random random = new Random(42);
+		for (int i = 0; i < 20000; i++) {
+			// keys are unique by first letter and length, so key a reference map the same way
+			final Thing thing = new Thing(((char) ('A' + random.nextInt(10))) + repeat(random.nextInt(30)));
+			final String key = thing.getValue().charAt(0) + ":" + thing.getLength();
+			if (random.nextInt(3) == 0) {
+				Assert.assertSame(expected.remove(key), map.remove(thing));
+			} else {
+				Assert.assertSame(expected.put(key, thing), map.putValue(thing));
+			}
+			Assert.assertEquals(expected.size(), map.size());
+		}
+		for (final Thing thing : expected.values()) {
+			Assert.assertSame(thing, map.get(thing));
+		}
+
+		// remove through the entry set iterator
+		final Iterator<Entry<Key<Thing>, Thing>> iter = map.entrySet().iterator();
+		while (iter.hasNext()) {
+			final Thing thing = iter.next().getValue();
+			if (thing.getLength() % 2 == 0) {
+				iter.remove();
+				expected.remove(thing.getValue().charAt(0) + ":" + thing.getLength());
+			}
+		}
+		Assert.assertEquals(expected.size(), map.size());
+		Assert.assertEquals(expected.size(), map.values().size());
+		for (final Thing thing : expected.values()) {
+			Assert.assertSame(thing, map.get(thing));
+		}
+	}
+
+	private static String repeat(final int count) {
+		final StringBuilder b = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			b.append('x');
+		}
+		return b.toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testCompactSet() {
+		final CompactFunctionSet<Thing> set = CompactFunctionSet.create(STARTS_WITH, LENGTH);
+		final Thing a1 = new Thing("A1");
+		Assert.assertTrue(set.add(a1));
+		Assert.assertFalse(set.add(new Thing("A2")));
+		Assert.assertFalse(set.add(null));
+		Assert.assertEquals(1, set.size());
+
+		// the first element added is kept, and only it is contained
+		Assert.assertSame(a1, set.get(new Thing("A2")));
+		Assert.assertTrue(set.contains(a1));
+		Assert.assertFalse(set.contains(new Thing("A2")));
+		Assert.assertFalse(set.contains("A1"));
+
+		Assert.assertTrue(set.add(new Thing("B22")));
+		Assert.assertTrue(set.remove(new Thing("A3")));
+		Assert.assertFalse(set.remove(a1));
+		Assert.assertEquals("B22", set.iterator().next().getValue());
+	}
+}
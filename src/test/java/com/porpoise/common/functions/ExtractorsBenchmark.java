@@ -0,0 +1,80 @@
+package com.porpoise.common.functions;
+
+import java.util.List;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+
+/**
+ * Compares the cost of reading a property through a hand-written function, a function from {@link Extractors}, and a
+ * reflective function.
+ * 
+ * Run as a main class, e.g. with the number of calls as an argument. It is not a unit test as the timings vary by
+ * machine.
+ */
+public class ExtractorsBenchmark {
+
+	/**
+	 * the benchmarked bean
+	 */
+	public static class Bean {
+		private final String	name;
+
+		public Bean(final String beanName) {
+			this.name = beanName;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+	}
+
+	static final Function<Bean, String>	HAND_WRITTEN	= new Function<Bean, String>() {
+		                                                    @Override
+		                                                    public String apply(final Bean input) {
+			                                                    return input.getName();
+		                                                    }
+	                                                    };
+
+	/**
+	 * @param args
+	 *            the number of calls per round, and the number of rounds
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public static void main(final String[] args) throws Exception {
+		final int calls = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		final List<Bean> beans = Lists.newArrayList();
+		for (int i = 0; i < 1024; i++) {
+			beans.add(new Bean("bean" + i));
+		}
+		final Function<Bean, ?> generated = Extractors.property(Bean.class, "name");
+		final Function<Bean, ?> reflective = (Function<Bean, ?>) (Function<?, ?>) Extractors.reflective(Bean.class
+		        .getMethod("getName"));
+		System.out.println("extractor: " + generated.getClass().getName());
+
+		for (int round = 0; round < rounds; round++) {
+			System.out.println(String.format("round %d: hand-written %.2fns, extractor %.2fns, reflective %.2fns",
+			        Integer.valueOf(round), Double.valueOf(time(HAND_WRITTEN, beans, calls)),
+			        Double.valueOf(time(generated, beans, calls)), Double.valueOf(time(reflective, beans, calls))));
+		}
+	}
+
+	/**
+	 * @return the average nanoseconds per call
+	 */
+	private static double time(final Function<Bean, ?> function, final List<Bean> beans, final int calls) {
+		final long start = System.nanoTime();
+		int hash = 0;
+		for (int i = 0; i < calls; i++) {
+			hash += function.apply(beans.get(i & 1023)).hashCode();
+		}
+		final long elapsed = System.nanoTime() - start;
+		if (hash == 42) {
+			System.out.println("(unlikely)");
+		}
+		return (double) elapsed / calls;
+	}
+}
@@ -0,0 +1,110 @@
+package com.porpoise.common.functions;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.porpoise.common.metadata.MetadataImpl;
+
+/**
+ * Tests for {@link Extractors}
+ */
+public class ExtractorsTest {
+
+	/**
+	 * A bean with each kind of property
+	 */
+	public static class Bean {
+		private final String	name;
+		private final int	 count;
+		private final boolean	active;
+		@SuppressWarnings("unused")
+		private final String	hidden;
+
+		public Bean(final String beanName, final int beanCount, final boolean isActive, final String hiddenValue) {
+			this.name = beanName;
+			this.count = beanCount;
+			this.active = isActive;
+			this.hidden = hiddenValue;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public int getCount() {
+			return this.count;
+		}
+
+		public boolean isActive() {
+			return this.active;
+		}
+
+		public String size() {
+			return "size" + this.count;
+		}
+
+		public String getBroken() {
+			throw new UnsupportedOperationException("expected");
+		}
+	}
+
+	private final Bean	bean	= new Bean("bean", 3, true, "secret");
+
+	@Test
+	public void testGettersAndFields() {
+		Assert.assertEquals("bean", Extractors.property(Bean.class, "name").apply(this.bean));
+		Assert.assertEquals(Integer.valueOf(3), Extractors.property(Bean.class, "count").apply(this.bean));
+		Assert.assertEquals(Boolean.TRUE, Extractors.property(Bean.class, "active").apply(this.bean));
+		Assert.assertEquals("size3", Extractors.property(Bean.class, "size").apply(this.bean));
+		Assert.assertEquals("secret", Extractors.property(Bean.class, "hidden").apply(this.bean));
+	}
+
+	@Test
+	public void testExtractorsAreCached() {
+		Assert.assertSame(Extractors.property(Bean.class, "name"), Extractors.property(Bean.class, "name"));
+	}
+
+	@Test
+	public void testPublicGettersAreGeneratedWhereSupported() {
+		final Function<Bean, Object> name = Extractors.property(Bean.class, "name");
+		final boolean hasLambdas = System.getProperty("java.specification.version").compareTo("1.8") >= 0;
+		if (hasLambdas) {
+			Assert.assertTrue(name.getClass().getName(), name.getClass().getName().contains("$$Lambda"));
+		}
+	}
+
+	@Test
+	public void testTypedProperty() {
+		final Function<Bean, Integer> count = Extractors.property(Bean.class, "count", Integer.class);
+		Assert.assertEquals(Integer.valueOf(3), count.apply(this.bean));
+		try {
+			Extractors.property(Bean.class, "count", String.class);
+			Assert.fail("expected the wrong value type to be rejected");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownProperty() {
+		Extractors.property(Bean.class, "unknown");
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testGetterExceptionsPropagate() {
+		Extractors.property(Bean.class, "broken").apply(this.bean);
+	}
+
+	@Test
+	public void testKeyFunctionAndMetadataFromProperties() {
+		final FunctionMap<Bean> map = new FunctionMap<Bean>(Keys.keyFunction(Bean.class, "name", "count"));
+		map.put(this.bean);
+		Assert.assertSame(this.bean, map.get(new Bean("bean", 3, false, null)));
+		Assert.assertNull(map.get(new Bean("bean", 4, true, null)));
+
+		final MetadataImpl<Bean, String> metadata = MetadataImpl.forProperty(Bean.class, "name", String.class);
+		Assert.assertEquals("name", metadata.propertyName());
+		Assert.assertEquals("bean", metadata.accessor().apply(this.bean));
+	}
+}
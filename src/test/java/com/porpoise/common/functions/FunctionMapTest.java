@@ -1,8 +1,12 @@
 package com.porpoise.common.functions;
 
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
 import com.porpoise.common.core.Pair;
 
 /**
@@ -77,4 +81,45 @@ public class FunctionMapTest extends FunctionMapTestSupport {
 		assertContents(thingByStartsWithAndLength, a1, longerEntry);
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testLookupsWithOneToFourKeyFunctions() {
+		final Function<Thing, Integer> length = new Function<Thing, Integer>() {
+			@Override
+			public Integer apply(final Thing input) {
+				return Integer.valueOf(input.getLength());
+			}
+		};
+		final Function<Thing, Character> last = new Function<Thing, Character>() {
+			@Override
+			public Character apply(final Thing input) {
+				return Character.valueOf(input.getValue().charAt(input.getLength() - 1));
+			}
+		};
+		final Function<Thing, String> nothing = new Function<Thing, String>() {
+			@Override
+			public String apply(final Thing input) {
+				return null;
+			}
+		};
+		final List<FunctionMap<Thing>> maps = Lists.newArrayList();
+		maps.add(FunctionMap.<Thing> create(length));
+		maps.add(FunctionMap.<Thing> create(length, last));
+		maps.add(FunctionMap.<Thing> create(length, last, nothing));
+		maps.add(FunctionMap.<Thing> create(length, last, nothing, length));
+		for (final FunctionMap<Thing> map : maps) {
+			final Thing abc = verifyAdd(map, new Thing("abc"));
+			final Thing xyz12 = verifyAdd(map, new Thing("xyz12"));
+
+			Assert.assertSame(abc, map.get(new Thing("abc")));
+			Assert.assertTrue(map.containsKey(new Thing("abc")));
+			Assert.assertNull(map.get(new Thing("ab")));
+			Assert.assertFalse(map.containsKey(new Thing("ab")));
+			Assert.assertEquals(map.asKey(abc), map.asKey(new Thing("abc")));
+			Assert.assertEquals(map.asKey(abc).hashCode(), map.asKey(new Thing("abc")).hashCode());
+
+			Assert.assertSame(xyz12, map.remove(new Thing("xyz12")));
+			assertContents(map, abc);
+		}
+	}
 }
@@ -0,0 +1,112 @@
+package com.porpoise.common.functions;
+
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Compares membership checks of a {@link FunctionSet} with those of a plain {@link java.util.HashSet} of elements whose
+ * equals and hashCode use the same properties as the set's key functions.
+ * 
+ * Run as a main class, e.g. with the set size as an argument. It is not a unit test as the timings vary by machine.
+ */
+public class FunctionSetBenchmark {
+
+	static final class Bean {
+		final String	name;
+		final int		id;
+
+		Bean(final String beanName, final int beanId) {
+			this.name = beanName;
+			this.id = beanId;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(this.name, Integer.valueOf(this.id));
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (obj instanceof Bean) {
+				final Bean other = (Bean) obj;
+				return this.id == other.id && this.name.equals(other.name);
+			}
+			return false;
+		}
+	}
+
+	static final Function<Bean, String> NAME = new Function<Bean, String>() {
+		@Override
+		public String apply(final Bean input) {
+			return input.name;
+		}
+	};
+
+	static final Function<Bean, Integer> ID = new Function<Bean, Integer>() {
+		@Override
+		public Integer apply(final Bean input) {
+			return Integer.valueOf(input.id);
+		}
+	};
+
+	/**
+	 * @param args
+	 *            the number of elements in the sets, and the number of rounds of lookups
+	 */
+	public static void main(final String[] args) {
+		final int size = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		final List<Bean> beans = Lists.newArrayListWithCapacity(size);
+		for (int i = 0; i < size; i++) {
+			beans.add(new Bean("bean" + i, i));
+		}
+		@SuppressWarnings("unchecked")
+		final FunctionSet<Bean> functionSet = FunctionSet.create(NAME, ID);
+		functionSet.addAll(beans);
+		final Set<Bean> hashSet = Sets.newHashSet(beans);
+
+		// look up copies, so that neither set can rely on identity
+		final List<Bean> lookups = Lists.newArrayListWithCapacity(size);
+		for (final Bean bean : beans) {
+			lookups.add(new Bean(bean.name, bean.id));
+		}
+
+		for (int round = 0; round < rounds; round++) {
+			final long functionSetNanos = time(functionSet, lookups);
+			final long hashSetNanos = time(hashSet, lookups);
+			System.out.println(String.format("round %d: FunctionSet %.1fns/contains, HashSet %.1fns/contains, "
+					+ "containsAll %dms", Integer.valueOf(round), Double.valueOf((double) functionSetNanos / size),
+					Double.valueOf((double) hashSetNanos / size), Long.valueOf(timeContainsAll(functionSet, lookups))));
+		}
+	}
+
+	private static long time(final Set<Bean> set, final List<Bean> lookups) {
+		final long start = System.nanoTime();
+		int found = 0;
+		for (final Bean bean : lookups) {
+			if (set.contains(bean)) {
+				found++;
+			}
+		}
+		final long elapsed = System.nanoTime() - start;
+		if (found != lookups.size()) {
+			throw new IllegalStateException(String.format("found %d of %d", Integer.valueOf(found),
+					Integer.valueOf(lookups.size())));
+		}
+		return elapsed;
+	}
+
+	private static long timeContainsAll(final Set<Bean> set, final List<Bean> lookups) {
+		final long start = System.nanoTime();
+		if (!set.containsAll(lookups)) {
+			throw new IllegalStateException("containsAll failed");
+		}
+		return (System.nanoTime() - start) / 1000000;
+	}
+}
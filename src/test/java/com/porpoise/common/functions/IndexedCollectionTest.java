@@ -0,0 +1,198 @@
+package com.porpoise.common.functions;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.porpoise.common.concurrent.Threads;
+
+/**
+ * Tests for {@link IndexedCollection}
+ */
+public class IndexedCollectionTest {
+
+	static final class Person {
+		final int	   id;
+		final String	surname;
+		final String	forename;
+
+		Person(final int personId, final String surnameValue, final String forenameValue) {
+			this.id = personId;
+			this.surname = surnameValue;
+			this.forename = forenameValue;
+		}
+
+		@Override
+		public String toString() {
+			return this.id + ":" + this.forename + " " + this.surname;
+		}
+	}
+
+	private static final Function<Person, Integer>	ID	     = new Function<Person, Integer>() {
+		                                                         @Override
+		                                                         public Integer apply(final Person input) {
+			                                                         return Integer.valueOf(input.id);
+		                                                         }
+	                                                         };
+
+	private static final Function<Person, String>	SURNAME	 = new Function<Person, String>() {
+		                                                         @Override
+		                                                         public String apply(final Person input) {
+			                                                         return input.surname;
+		                                                         }
+	                                                         };
+
+	private static final Function<Person, String>	FORENAME	= new Function<Person, String>() {
+		                                                         @Override
+		                                                         public String apply(final Person input) {
+			                                                         return input.forename;
+		                                                         }
+	                                                         };
+
+	private IndexedCollection<Person>	          people;
+
+	@SuppressWarnings("unchecked")
+	@Before
+	public void setup() {
+		this.people = IndexedCollection.<Person> builder()//
+		        .uniqueIndex("id", ID)//
+		        .index("surname", SURNAME)//
+		        .index("name", SURNAME, FORENAME)//
+		        .build();
+	}
+
+	@Test
+	public void testLookupsByEachIndex() {
+		final Person john = new Person(1, "Smith", "John");
+		final Person jane = new Person(2, "Smith", "Jane");
+		final Person anon = new Person(3, "Doe", null);
+		Assert.assertTrue(this.people.add(john));
+		Assert.assertTrue(this.people.add(jane));
+		Assert.assertTrue(this.people.add(anon));
+		Assert.assertFalse(this.people.add(john));
+		Assert.assertEquals(3, this.people.size());
+
+		Assert.assertSame(jane, this.people.getBy("id", Integer.valueOf(2)));
+		Assert.assertNull(this.people.getBy("id", Integer.valueOf(4)));
+		Assert.assertEquals(ImmutableSet.of(john, jane), this.people.getAllBy("surname", "Smith"));
+		Assert.assertEquals(ImmutableSet.of(john), this.people.getAllBy("name", "Smith", "John"));
+		Assert.assertEquals(ImmutableSet.of(anon), this.people.getAllBy("name", "Doe", null));
+		Assert.assertEquals(ImmutableSet.of(jane), this.people.getAllBy("id", Integer.valueOf(2)));
+		Assert.assertTrue(this.people.getAllBy("surname", "Jones").isEmpty());
+	}
+
+	@Test
+	public void testUniqueIndexRejectsDuplicateKeys() {
+		final Person john = new Person(1, "Smith", "John");
+		Assert.assertTrue(this.people.add(john));
+		Assert.assertFalse(this.people.add(new Person(1, "Jones", "Tom")));
+
+		// a rejected element is in none of the indexes
+		Assert.assertEquals(1, this.people.size());
+		Assert.assertTrue(this.people.getAllBy("surname", "Jones").isEmpty());
+		Assert.assertSame(john, this.people.getBy("id", Integer.valueOf(1)));
+	}
+
+	@Test
+	public void testRemoveUpdatesEveryIndex() {
+		final Person john = new Person(1, "Smith", "John");
+		final Person jane = new Person(2, "Smith", "Jane");
+		this.people.addAll(Lists.newArrayList(john, jane));
+
+		Assert.assertTrue(this.people.remove(john));
+		Assert.assertFalse(this.people.remove(john));
+		Assert.assertFalse(this.people.remove("john"));
+		Assert.assertNull(this.people.getBy("id", Integer.valueOf(1)));
+		Assert.assertEquals(ImmutableSet.of(jane), this.people.getAllBy("surname", "Smith"));
+		Assert.assertTrue(this.people.getAllBy("name", "Smith", "John").isEmpty());
+
+		// the id is free to be taken again
+		Assert.assertTrue(this.people.add(new Person(1, "Jones", "Tom")));
+
+		final Iterator<Person> iter = this.people.iterator();
+		while (iter.hasNext()) {
+			if (iter.next() == jane) {
+				iter.remove();
+			}
+		}
+		Assert.assertEquals(1, this.people.size());
+		Assert.assertTrue(this.people.getAllBy("surname", "Smith").isEmpty());
+
+		this.people.clear();
+		Assert.assertTrue(this.people.isEmpty());
+		Assert.assertNull(this.people.getBy("id", Integer.valueOf(1)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetByNonUniqueIndex() {
+		this.people.getBy("surname", "Smith");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetByWrongNumberOfKeyValues() {
+		this.people.getAllBy("name", "Smith");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetByUnknownIndex() {
+		this.people.getAllBy("age", Integer.valueOf(1));
+	}
+
+	/**
+	 * the indexes always agree with each other, however adds and removes interleave
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentUpdatesKeepIndexesConsistent() throws Exception {
+		final ExecutorService pool = Threads.newFixedThreadPool(4);
+		final CountDownLatch start = new CountDownLatch(1);
+		try {
+			final List<Future<?>> futures = Lists.newArrayList();
+			for (int t = 0; t < 4; t++) {
+				final int thread = t;
+				futures.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						start.await();
+						for (int i = 0; i < 2000; i++) {
+							final Person person = new Person(i % 100, "Surname" + (i % 7), "Thread" + thread);
+							if (!IndexedCollectionTest.this.people.add(person)) {
+								IndexedCollectionTest.this.people.remove(IndexedCollectionTest.this.people.getBy(
+								        "id", Integer.valueOf(person.id)));
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			start.countDown();
+			for (final Future<?> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		int grouped = 0;
+		for (int s = 0; s < 7; s++) {
+			grouped += this.people.getAllBy("surname", "Surname" + s).size();
+		}
+		Assert.assertEquals(this.people.size(), grouped);
+		for (final Person person : this.people) {
+			Assert.assertSame(person, this.people.getBy("id", Integer.valueOf(person.id)));
+			Assert.assertTrue(this.people.getAllBy("name", person.surname, person.forename).contains(person));
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package com.porpoise.common.functions;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.porpoise.common.concurrent.Threads;
+
+/**
+ * Tests for {@link WeakInterner}
+ */
+public class WeakInternerTest {
+
+	static final class Quote {
+		final String	symbol;
+		final int	 price;
+
+		Quote(final String symbolValue, final int priceValue) {
+			this.symbol = symbolValue;
+			this.price = priceValue;
+		}
+	}
+
+	private static final Function<Quote, String>	SYMBOL	= new Function<Quote, String>() {
+		                                                    @Override
+		                                                    public String apply(final Quote input) {
+			                                                    return input.symbol;
+		                                                    }
+	                                                    };
+
+	private static final Function<Quote, Integer>	PRICE	= new Function<Quote, Integer>() {
+		                                                    @Override
+		                                                    public Integer apply(final Quote input) {
+			                                                    return Integer.valueOf(input.price);
+		                                                    }
+	                                                    };
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testEquivalentObjectsShareACanonicalInstance() {
+		final WeakInterner<Quote> interner = WeakInterner.byKey(SYMBOL, PRICE);
+		final Quote first = new Quote("ABC", 100);
+		Assert.assertSame(first, interner.intern(first));
+		Assert.assertSame(first, interner.intern(new Quote("ABC", 100)));
+		Assert.assertSame(first, interner.intern(first));
+
+		final Quote other = new Quote("ABC", 101);
+		Assert.assertSame(other, interner.intern(other));
+		final Quote nullSymbol = new Quote(null, 100);
+		Assert.assertSame(nullSymbol, interner.intern(nullSymbol));
+		Assert.assertSame(nullSymbol, interner.intern(new Quote(null, 100)));
+		Assert.assertEquals(3, interner.size());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testKeyEquivalenceMatchesKeys() {
+		final Quote quote = new Quote("ABC", 100);
+		Assert.assertEquals(Keys.keyFunction(SYMBOL, PRICE).apply(quote).hashCode(), Keys.equivalence(SYMBOL, PRICE)
+		        .hash(quote));
+		Assert.assertTrue(Keys.equivalence(SYMBOL).equivalent(quote, new Quote("ABC", 1)));
+		Assert.assertFalse(Keys.equivalence(SYMBOL, PRICE).equivalent(quote, new Quote("ABC", 1)));
+	}
+
+	/**
+	 * canonical instances no longer referenced elsewhere are collected
+	 * 
+	 * @throws InterruptedException
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testUnreferencedInstancesAreCollected() throws InterruptedException {
+		final WeakInterner<Quote> interner = WeakInterner.byKey(SYMBOL, PRICE);
+		final Quote kept = interner.intern(new Quote("KEPT", 1));
+		for (int i = 0; i < 1000; i++) {
+			interner.intern(new Quote("DROPPED", i));
+		}
+		for (int attempt = 0; attempt < 50 && interner.size() > 1; attempt++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		Assert.assertEquals(1, interner.size());
+		Assert.assertSame(kept, interner.intern(new Quote("KEPT", 1)));
+
+		// a collected instance is replaced by the next sample
+		final Quote replacement = new Quote("DROPPED", 1);
+		Assert.assertSame(replacement, interner.intern(replacement));
+	}
+
+	/**
+	 * threads interning equivalent objects at once all get the same instance
+	 * 
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testConcurrentInterning() throws Exception {
+		final WeakInterner<Quote> interner = WeakInterner.byKey(SYMBOL, PRICE);
+		final ExecutorService pool = Threads.newFixedThreadPool(4);
+		final CountDownLatch start = new CountDownLatch(1);
+		try {
+			final List<Future<List<Quote>>> futures = Lists.newArrayList();
+			for (int t = 0; t < 4; t++) {
+				futures.add(pool.submit(new Callable<List<Quote>>() {
+					@Override
+					public List<Quote> call() throws Exception {
+						start.await();
+						final List<Quote> interned = Lists.newArrayList();
+						for (int i = 0; i < 1000; i++) {
+							interned.add(interner.intern(new Quote("Q", i)));
+						}
+						return interned;
+					}
+				}));
+			}
+			start.countDown();
+			final List<Quote> expected = futures.get(0).get(30, TimeUnit.SECONDS);
+			for (final Future<List<Quote>> future : futures) {
+				final List<Quote> actual = future.get(30, TimeUnit.SECONDS);
+				for (int i = 0; i < expected.size(); i++) {
+					Assert.assertSame(expected.get(i), actual.get(i));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package com.porpoise.common.metadata;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.porpoise.common.annotation.IgnoreMetadata;
+
+/**
+ * tests for {@link DiffEngine}
+ */
+public class DiffEngineTest {
+
+    /**
+     * a test type with nested, iterable, map, cyclic and ignored properties
+     */
+    public static class Node {
+        String name;
+        Node parent;
+        Tag tag;
+        List<Node> children = Lists.newArrayList();
+        Map<String, Node> byName = Maps.newLinkedHashMap();
+        List<Tag> tags = Lists.newArrayList();
+        Map<String, Tag> tagsByName = Maps.newLinkedHashMap();
+        String secret;
+
+        Node(final String nodeName) {
+            this.name = nodeName;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        @IgnoreMetadata
+        public String getSecret() {
+            return this.secret;
+        }
+
+        @Override
+        public String toString() {
+            return this.name;
+        }
+    }
+
+    /**
+     * an ignored type
+     */
+    @IgnoreMetadata
+    public static class Tag {
+        final String value;
+
+        Tag(final String tagValue) {
+            this.value = tagValue;
+        }
+    }
+
+    private static <V> Metadata<Node, V> property(final String name, final Function<Node, V> accessor) {
+        return new MetadataImpl<Node, V>(name, accessor);
+    }
+
+    private static final Metadata<Node, String> NAME = property("name", new Function<Node, String>() {
+        @Override
+        public String apply(final Node input) {
+            return input.name;
+        }
+    });
+
+    private static final Metadata<Node, Node> PARENT = property("parent", new Function<Node, Node>() {
+        @Override
+        public Node apply(final Node input) {
+            return input.parent;
+        }
+    });
+
+    private static final Metadata<Node, Tag> TAG = property("tag", new Function<Node, Tag>() {
+        @Override
+        public Tag apply(final Node input) {
+            return input.tag;
+        }
+    });
+
+    private static final Metadata<Node, List<Node>> CHILDREN = property("children",
+            new Function<Node, List<Node>>() {
+                @Override
+                public List<Node> apply(final Node input) {
+                    return input.children;
+                }
+            });
+
+    private static final Metadata<Node, Map<String, Node>> BY_NAME = property("byName",
+            new Function<Node, Map<String, Node>>() {
+                @Override
+                public Map<String, Node> apply(final Node input) {
+                    return input.byName;
+                }
+            });
+
+    private static final Metadata<Node, List<Tag>> TAGS = property("tags", new Function<Node, List<Tag>>() {
+        @Override
+        public List<Tag> apply(final Node input) {
+            return input.tags;
+        }
+    });
+
+    private static final Metadata<Node, Map<String, Tag>> TAGS_BY_NAME = property("tagsByName",
+            new Function<Node, Map<String, Tag>>() {
+                @Override
+                public Map<String, Tag> apply(final Node input) {
+                    return input.tagsByName;
+                }
+            });
+
+    private static final Metadata<Node, String> SECRET = property("secret", new Function<Node, String>() {
+        @Override
+        public String apply(final Node input) {
+            return input.secret;
+        }
+    });
+
+    private DiffEngine engine;
+
+    /**
+     */
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setup() {
+        this.engine = DiffEngine.builder().register(Node.class, NAME, PARENT, TAG, CHILDREN, BY_NAME, TAGS,
+                TAGS_BY_NAME, SECRET).build();
+    }
+
+    /**
+     */
+    @Test
+    public void testEqualGraphsHaveNoDifferences() {
+        final Node left = tree("root", "a", "b");
+        final Node right = tree("root", "a", "b");
+        Assert.assertTrue(this.engine.diff(left, right).isEmpty());
+        Assert.assertTrue(this.engine.diff(left, left).isEmpty());
+        Assert.assertTrue(this.engine.isRegistered(Node.class));
+        Assert.assertFalse(this.engine.isRegistered(String.class));
+    }
+
+    /**
+     */
+    @Test
+    public void testNestedDifferences() {
+        final Node left = tree("root", "a", "b");
+        final Node right = tree("root", "a", "c");
+        right.parent = new Node("grandparent");
+        left.parent = new Node("grandad");
+
+        final Delta<Node> delta = this.engine.diff(left, right);
+        Assert.assertEquals(ImmutableList.of("byName[b]", "byName[c]", "children[1].name", "parent.name"), pathStrings(delta));
+    }
+
+    /**
+     */
+    @Test
+    public void testIterableAndMapSizeDifferences() {
+        final Node left = tree("root", "a");
+        final Node right = tree("root", "a", "b");
+        right.byName.remove("b");
+        right.byName.put("c", new Node("c"));
+
+        final Delta<Node> delta = this.engine.diff(left, right);
+        Assert.assertEquals(ImmutableList.of("byName[c]", "children[1]"), pathStrings(delta));
+    }
+
+    /**
+     * the parent links make the graphs cyclic
+     */
+    @Test
+    public void testCyclicGraphsTerminate() {
+        final Node left = tree("root", "a");
+        final Node right = tree("root", "a");
+        right.children.get(0).name = "changed";
+
+        final Delta<Node> delta = this.engine.diff(left, right);
+        Assert.assertEquals(ImmutableList.of("byName[a].name", "children[0].name"), pathStrings(delta));
+    }
+
+    /**
+     */
+    @Test
+    public void testIgnoredPropertiesAndTypesAreSkipped() {
+        final Node left = tree("root");
+        final Node right = tree("root");
+        left.secret = "left";
+        right.secret = "right";
+        left.tag = new Tag("left");
+        right.tag = new Tag("right");
+        Assert.assertTrue(this.engine.diff(left, right).isEmpty());
+    }
+
+    /**
+     * ignored types are skipped as iterable elements and map values too, unless only one side has them
+     */
+    @Test
+    public void testIgnoredElementsAndValuesAreSkipped() {
+        final Node left = tree("root");
+        final Node right = tree("root");
+        left.tags.add(new Tag("left"));
+        right.tags.add(new Tag("right"));
+        left.tagsByName.put("tag", new Tag("left"));
+        right.tagsByName.put("tag", new Tag("right"));
+        Assert.assertTrue(this.engine.diff(left, right).isEmpty());
+
+        right.tags.add(new Tag("added"));
+        Assert.assertEquals(ImmutableList.of("tags[1]"), pathStrings(this.engine.diff(left, right)));
+    }
+
+    /**
+     * roots which cannot be compared property by property are rejected, rather than reported as equal
+     */
+    @Test
+    public void testIncomparableRootsAreRejected() {
+        final Node node = tree("root");
+        Assert.assertTrue(this.engine.diff(null, null).isEmpty());
+        Assert.assertTrue(this.engine.diff("same", "same").isEmpty());
+        assertRejected(node, null);
+        assertRejected(null, node);
+        assertRejected("left", "right");
+        assertRejected(node, new Node("root") {
+            // a subclass
+        });
+    }
+
+    private void assertRejected(final Object left, final Object right) {
+        try {
+            this.engine.diff(left, right);
+            Assert.fail(String.format("expected %s against %s to be rejected", left, right));
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static Node tree(final String name, final String... childNames) {
+        final Node root = new Node(name);
+        for (final String childName : childNames) {
+            final Node child = new Node(childName);
+            child.parent = root;
+            root.children.add(child);
+            root.byName.put(childName, child);
+        }
+        return root;
+    }
+
+    private static List<String> pathStrings(final Delta<?> delta) {
+        final List<String> paths = Lists.newArrayList();
+        for (final PathElement<?, ?> path : delta.paths()) {
+            paths.add(path.getPathString());
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    /**
+     */
+    @Test
+    public void testUnchangedMapsAreSkipped() {
+        final Map<String, Integer> map = ImmutableMap.of("a", Integer.valueOf(1));
+        final Delta<Map<String, Integer>> delta = DiffEngine.builder().build().diff(map, map);
+        Assert.assertTrue(delta.isEmpty());
+    }
+}